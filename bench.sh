@@ -0,0 +1,12 @@
+#!/bin/bash
+
+echo "Compiling Java sources and benchmarks..."
+javac --enable-preview --release 23 --add-modules jdk.incubator.vector -d bench-bin src/ie/atu/sw/*.java bench/ie/atu/sw/*.java
+
+if [ $? -eq 0 ]; then
+    echo "Running benchmarks..."
+    java --enable-preview --add-modules jdk.incubator.vector -Xms2g -Xmx2g -cp bench-bin ie.atu.sw.Benchmarks "$@"
+else
+    echo "Compilation failed!"
+    exit 1
+fi
@@ -0,0 +1,214 @@
+package ie.atu.sw;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Minimal, dependency-free micro-benchmark runner.
+ *
+ * Every benchmark runs a number of warm-up iterations followed by
+ * measured iterations. An iteration repeats the workload until a minimum
+ * time has elapsed and records the average time per operation. Results are
+ * printed as they are measured and can be written as JSON.
+ */
+public class BenchmarkRunner {
+    /** Workload measured by a benchmark */
+    @FunctionalInterface
+    public interface Workload {
+        /**
+         * Performs one operation.
+         *
+         * @return a value consumed by the runner so the work is not eliminated
+         * @throws Exception if the operation fails
+         */
+        Object run() throws Exception;
+    }
+
+    /**
+     * Result of one benchmark.
+     *
+     * @param suite      suite the benchmark belongs to
+     * @param name       name of the benchmark
+     * @param params     parameters of the benchmark
+     * @param nsPerOp    mean time per operation in nanoseconds
+     * @param errorNs    standard deviation between iterations
+     * @param bytesPerOp bytes processed per operation, 0 if not applicable
+     */
+    public record Result(String suite, String name, Map<String, Object> params,
+            double nsPerOp, double errorNs, long bytesPerOp) {
+
+        /** Returns the throughput in operations per second */
+        public double opsPerSecond() {
+            return 1e9 / nsPerOp;
+        }
+
+        /** Returns the throughput in megabytes per second */
+        public double megabytesPerSecond() {
+            return bytesPerOp * 1e3 / nsPerOp;
+        }
+    }
+
+    /** Sink consuming workload results */
+    private static volatile int sink;
+
+    /** Number of warm-up iterations */
+    private final int warmups;
+
+    /** Number of measured iterations */
+    private final int iterations;
+
+    /** Minimum duration of one iteration */
+    private final Duration minTime;
+
+    /** Results measured so far */
+    private final List<Result> results = new ArrayList<>();
+
+    /**
+     * Creates a runner.
+     *
+     * @param warmups    number of warm-up iterations
+     * @param iterations number of measured iterations
+     * @param minTime    minimum duration of one iteration
+     */
+    public BenchmarkRunner(int warmups, int iterations, Duration minTime) {
+        this.warmups = warmups;
+        this.iterations = iterations;
+        this.minTime = minTime;
+    }
+
+    /**
+     * Runs a benchmark and records its result.
+     *
+     * @param suite      suite the benchmark belongs to
+     * @param name       name of the benchmark
+     * @param params     parameters of the benchmark
+     * @param bytesPerOp bytes processed per operation, 0 if not applicable
+     * @param workload   the measured workload
+     * @return the result
+     * @throws Exception if the workload fails
+     */
+    public Result run(String suite, String name, Map<String, Object> params, long bytesPerOp, Workload workload)
+            throws Exception {
+        for (var i = 0; i < warmups; i++)
+            iteration(workload);
+
+        var samples = new double[iterations];
+        for (var i = 0; i < iterations; i++)
+            samples[i] = iteration(workload);
+
+        var mean = 0d;
+        for (var sample : samples)
+            mean += sample / iterations;
+
+        var variance = 0d;
+        for (var sample : samples)
+            variance += (sample - mean) * (sample - mean) / Math.max(1, iterations - 1);
+
+        var result = new Result(suite, name, params, mean, Math.sqrt(variance), bytesPerOp);
+        results.add(result);
+
+        System.out.printf("%-10s %-28s %-40s %14.1f ns/op +/- %-12.1f %12.1f ops/s%s%n",
+                suite, name, params, mean, Math.sqrt(variance), result.opsPerSecond(),
+                bytesPerOp > 0 ? String.format(" %10.1f MB/s", result.megabytesPerSecond()) : "");
+
+        return result;
+    }
+
+    /**
+     * Runs the workload repeatedly for at least the minimum time.
+     *
+     * @param workload the measured workload
+     * @return the mean time per operation in nanoseconds
+     * @throws Exception if the workload fails
+     */
+    private double iteration(Workload workload) throws Exception {
+        var minNanos = minTime.toNanos();
+        var operations = 0L;
+        var start = System.nanoTime();
+        var elapsed = 0L;
+
+        do {
+            sink += System.identityHashCode(workload.run());
+            operations++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < minNanos);
+
+        return (double) elapsed / operations;
+    }
+
+    /**
+     * Writes all results measured so far as a JSON document.
+     *
+     * @param file the output file
+     * @throws Exception if the file cannot be written
+     */
+    public void writeJson(Path file) throws Exception {
+        var sb = new StringBuilder();
+        sb.append("{\n  \"jvm\": ").append(quote(Runtime.version().toString()))
+                .append(",\n  \"processors\": ").append(Runtime.getRuntime().availableProcessors())
+                .append(",\n  \"results\": [");
+
+        for (var i = 0; i < results.size(); i++) {
+            var r = results.get(i);
+            sb.append(i == 0 ? "\n" : ",\n")
+                    .append("    {\"suite\": ").append(quote(r.suite()))
+                    .append(", \"name\": ").append(quote(r.name()))
+                    .append(", \"params\": {");
+
+            var first = true;
+            for (var param : new LinkedHashMap<>(r.params()).entrySet()) {
+                sb.append(first ? "" : ", ").append(quote(param.getKey())).append(": ")
+                        .append(param.getValue() instanceof Number ? param.getValue()
+                                : quote(String.valueOf(param.getValue())));
+                first = false;
+            }
+
+            sb.append("}, \"nsPerOp\": ").append(String.format(Locale.ROOT, "%.1f", r.nsPerOp()))
+                    .append(", \"errorNs\": ").append(String.format(Locale.ROOT, "%.1f", r.errorNs()))
+                    .append(", \"opsPerSecond\": ").append(String.format(Locale.ROOT, "%.1f", r.opsPerSecond()));
+
+            if (r.bytesPerOp() > 0)
+                sb.append(", \"megabytesPerSecond\": ").append(String.format(Locale.ROOT, "%.1f", r.megabytesPerSecond()));
+
+            sb.append("}");
+        }
+
+        sb.append("\n  ]\n}\n");
+        Files.writeString(file, sb.toString(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Quotes a string as a JSON string literal.
+     *
+     * @param value the string
+     * @return the JSON literal
+     */
+    static String quote(String value) {
+        var sb = new StringBuilder("\"");
+
+        for (var c : value.toCharArray()) {
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20)
+                        sb.append(String.format("\\u%04x", (int) c));
+                    else
+                        sb.append(c);
+                }
+            }
+        }
+
+        return sb.append('"').toString();
+    }
+}
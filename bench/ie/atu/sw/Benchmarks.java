@@ -0,0 +1,965 @@
+package ie.atu.sw;
+
+import java.lang.foreign.MemorySegment;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.StructuredTaskScope;
+
+/**
+ * Benchmark suite covering the hot paths of the application:
+ * <ul>
+ * <li>{@code preprocess} - single-pass tokenizer against the regex
+ * pipeline, and the scalar and vector backends on blocks of text and
+ * mapped bytes</li>
+ * <li>{@code ingest} - file loading at several sizes, streamed, mapped, from
+ * the token set cache and the former one-task-per-line approach</li>
+ * <li>{@code filter} - stop-word filtering and noise ratio</li>
+ * <li>{@code dice} - similarity at balanced and skewed set sizes</li>
+ * <li>{@code minhash} - accuracy of MinHash estimates against exact
+ * similarity, and the cost of signatures and estimates</li>
+ * <li>{@code lsh} - similar-document queries through the LSH index against
+ * a linear scan of the corpus</li>
+ * <li>{@code inverted} - ranking a corpus against a document through the
+ * inverted index against a linear scan</li>
+ * <li>{@code multiset} - occurrence counting and weighted Dice with
+ * primitive counters against boxed maps</li>
+ * <li>{@code shingle} - rolling-hash shingling against substring shingles,
+ * and loading files in the shingle modes</li>
+ * <li>{@code metrics} - accuracy of histogram quantiles, and the cost of
+ * recording latencies alone and under contention</li>
+ * <li>{@code dictionary} - interning, looking up and resolving tokens in the
+ * heap and off-heap token dictionaries</li>
+ * </ul>
+ *
+ * All input is generated by {@link SyntheticCorpus} from fixed seeds, so
+ * results are reproducible offline.
+ *
+ * Usage: {@code Benchmarks [--quick] [--suite name] [--out file.json]}
+ */
+public class Benchmarks {
+    /** Seed of all generated data */
+    private static final long SEED = 20240101L;
+
+    /** Directory with generated input files */
+    private static final Path DATA_DIR = Path.of("bench-data");
+
+    /**
+     * Runs the selected benchmark suites.
+     *
+     * @param args command line arguments
+     * @throws Exception if a benchmark fails
+     */
+    public static void main(String[] args) throws Exception {
+        var quick = false;
+        String suite = null;
+        var out = Path.of("bench-results.json");
+
+        for (var i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--quick" -> quick = true;
+                case "--suite" -> suite = args[++i];
+                case "--out" -> out = Path.of(args[++i]);
+                default -> throw new IllegalArgumentException("Unknown argument: " + args[i]);
+            }
+        }
+
+        var runner = quick
+                ? new BenchmarkRunner(1, 3, Duration.ofMillis(200))
+                : new BenchmarkRunner(3, 5, Duration.ofSeconds(1));
+
+        if (suite == null || suite.equals("preprocess"))
+            preprocess(runner);
+        if (suite == null || suite.equals("ingest"))
+            ingest(runner, quick);
+        if (suite == null || suite.equals("filter"))
+            filter(runner);
+        if (suite == null || suite.equals("dice"))
+            dice(runner);
+        if (suite == null || suite.equals("minhash"))
+            minHash(runner);
+        if (suite == null || suite.equals("lsh"))
+            lsh(runner, quick);
+        if (suite == null || suite.equals("inverted"))
+            inverted(runner, quick);
+        if (suite == null || suite.equals("multiset"))
+            multiset(runner);
+        if (suite == null || suite.equals("shingle"))
+            shingle(runner);
+        if (suite == null || suite.equals("metrics"))
+            metrics(runner);
+        if (suite == null || suite.equals("dictionary"))
+            dictionary(runner);
+
+        runner.writeJson(out);
+        System.out.println("Results written to " + out);
+    }
+
+    /**
+     * Preprocessing of realistic lines by the single-pass tokenizer and the
+     * regex reference pipeline. Both must produce identical tokens.
+     */
+    private static void preprocess(BenchmarkRunner runner) throws Exception {
+        var preprocessor = new TextPreprocessor();
+        var lines = new SyntheticCorpus(50_000, 1.07, SEED).lines(10_000);
+        var bytes = lines.stream().mapToLong(String::length).sum();
+
+        // Differential check before measuring
+        for (var line : lines)
+            if (!preprocessor.preprocess(line).equals(preprocessor.preprocessRegex(line)))
+                throw new IllegalStateException("Tokenizer mismatch on line: " + line);
+
+        var params = Map.<String, Object>of("lines", lines.size());
+
+        runner.run("preprocess", "singlePass", params, bytes, () -> {
+            var count = 0;
+            for (var line : lines)
+                count += preprocessor.preprocess(line).size();
+            return count;
+        });
+
+        runner.run("preprocess", "regex", params, bytes, () -> {
+            var count = 0;
+            for (var line : lines)
+                count += preprocessor.preprocessRegex(line).size();
+            return count;
+        });
+
+        preprocessBackends(runner, String.join("\n", lines));
+    }
+
+    /**
+     * Tokenization of a block of text by the scalar and the vector backend,
+     * from a String and from UTF-8 bytes. Before measuring, both backends
+     * must agree with the regex pipeline on random lines mixing ASCII,
+     * hyphens, line terminators and non-ASCII characters, and on long lines
+     * spanning many vector steps with tokens that cross step boundaries.
+     */
+    private static void preprocessBackends(BenchmarkRunner runner, String block) throws Exception {
+        if (!TextPreprocessor.Backend.VECTOR.isAvailable()) {
+            System.out.println("Vector backend skipped - run with --add-modules jdk.incubator.vector");
+            return;
+        }
+
+        var scalar = new TextPreprocessor(TextPreprocessor.Backend.SCALAR);
+        var vector = new TextPreprocessor(TextPreprocessor.Backend.VECTOR);
+
+        // Differential check before measuring
+        var random = new Random(SEED);
+        var alphabet = "aAzZ09-- -\t,.;\r\n\néÉßΣİ\u00A0\uD835\uDD38\uD800".toCharArray();
+        for (var n = 0; n < 20_000; n++) {
+            var sb = new StringBuilder();
+            for (var length = random.nextInt(200); sb.length() < length;)
+                sb.append(random.nextInt(4) == 0 ? alphabet[random.nextInt(alphabet.length)]
+                        : (char) ('a' + random.nextInt(3)));
+            checkBackends(scalar, vector, sb.toString());
+        }
+
+        // Long lines: one line over many steps, runs of up to a few hundred bytes
+        var separators = " -\t,.;".toCharArray();
+        for (var n = 0; n < 200; n++) {
+            var sb = new StringBuilder();
+            for (var length = 4_096 + random.nextInt(60_000); sb.length() < length;) {
+                for (var run = 1 + random.nextInt(300); run > 0; run--)
+                    sb.append(random.nextInt(50) == 0 ? '-' : "aAzZ09".charAt(random.nextInt(6)));
+                sb.append(separators[random.nextInt(separators.length)]);
+            }
+
+            // Some lines fall back to the scalar scanner only near their end
+            if (n % 10 == 0)
+                sb.append('é').append("abc-def");
+
+            checkBackends(scalar, vector, sb.toString());
+        }
+
+        var utf8 = MemorySegment.ofArray(block.getBytes(StandardCharsets.UTF_8));
+        var params = Map.<String, Object>of("bytes", utf8.byteSize());
+
+        runner.run("preprocess", "scalarBlock", params, utf8.byteSize(), () -> {
+            var tokens = new ArrayList<String>();
+            scalar.preprocess(block, tokens);
+            return tokens.size();
+        });
+        runner.run("preprocess", "vectorBlock", params, utf8.byteSize(), () -> {
+            var tokens = new ArrayList<String>();
+            vector.preprocess(block, tokens);
+            return tokens.size();
+        });
+        runner.run("preprocess", "scalarBytes", params, utf8.byteSize(), () -> {
+            var tokens = new ArrayList<String>();
+            scalar.preprocess(utf8, 0, utf8.byteSize(), tokens);
+            return tokens.size();
+        });
+        runner.run("preprocess", "vectorBytes", params, utf8.byteSize(), () -> {
+            var tokens = new ArrayList<String>();
+            vector.preprocess(utf8, 0, utf8.byteSize(), tokens);
+            return tokens.size();
+        });
+    }
+
+    /**
+     * Checks the vector backend against the regex pipeline on a String, and
+     * against the scalar backend on its UTF-8 bytes.
+     *
+     * @throws IllegalStateException on any mismatch
+     */
+    private static void checkBackends(TextPreprocessor scalar, TextPreprocessor vector, String text)
+            throws Exception {
+        var expected = new ArrayList<String>();
+        for (var line : text.split("[\r\n]"))
+            if (!line.isEmpty())
+                expected.addAll(scalar.preprocessRegex(line));
+
+        var utf8 = MemorySegment.ofArray(text.getBytes(StandardCharsets.UTF_8));
+        var fromString = new ArrayList<String>();
+        var fromBytes = new ArrayList<String>();
+        var scalarBytes = new ArrayList<String>();
+        vector.preprocess(text, fromString);
+        vector.preprocess(utf8, 0, utf8.byteSize(), fromBytes);
+        scalar.preprocess(utf8, 0, utf8.byteSize(), scalarBytes);
+
+        if (!fromString.equals(expected) || !fromBytes.equals(scalarBytes))
+            throw new IllegalStateException("Vector tokenizer mismatch on: " + text);
+    }
+
+    /**
+     * Loading of files of several sizes by the streamed and mapped paths of
+     * {@link TextLoader}, from a warm {@link TokenSetCache}, by the former
+     * approach forking one task per line into a shared skip list set, and
+     * reloading after an append.
+     */
+    private static void ingest(BenchmarkRunner runner, boolean quick) throws Exception {
+        var corpus = new SyntheticCorpus(200_000, 1.07, SEED);
+        var sizes = quick ? new long[] { 1 << 20, 8 << 20 } : new long[] { 1 << 20, 16 << 20, 64 << 20 };
+
+        for (var size : sizes) {
+            var file = corpus.writeFile(DATA_DIR.resolve("corpus-" + (size >> 20) + "m.txt"), size);
+            var params = Map.<String, Object>of("megabytes", size >> 20);
+
+            var streamed = new TextLoader(new TextPreprocessor(), new HeapTokenDictionary());
+            streamed.setMappedThreshold(Long.MAX_VALUE);
+            runner.run("ingest", "streamed", params, size, () -> streamed.load(file));
+
+            var mapped = new TextLoader(new TextPreprocessor(), new HeapTokenDictionary());
+            mapped.setMappedThreshold(0);
+            runner.run("ingest", "mapped", params, size, () -> mapped.load(file));
+
+            var cached = new TextLoader(new TextPreprocessor(), new HeapTokenDictionary());
+            cached.setCache(new TokenSetCache(DATA_DIR.resolve("cache"), TokenSetCache.DEFAULT_MAX_BYTES));
+            cached.load(file);
+            runner.run("ingest", "cacheHit", params, size, () -> cached.load(file));
+
+            var preprocessor = new TextPreprocessor();
+            runner.run("ingest", "perLineTasks", params, size, () -> perLineTasks(preprocessor, file));
+
+            appendReload(runner, corpus, file, size);
+        }
+    }
+
+    /**
+     * Reloading a file after a small append, incrementally from the
+     * checkpoint of the previous load, checked against a full load.
+     */
+    private static void appendReload(BenchmarkRunner runner, SyntheticCorpus corpus, Path file, long size)
+            throws Exception {
+        var growing = DATA_DIR.resolve("growing-" + (size >> 20) + "m.txt");
+        Files.copy(file, growing, StandardCopyOption.REPLACE_EXISTING);
+
+        var loader = new TextLoader(new TextPreprocessor(), new HeapTokenDictionary());
+        var minHash = new MinHash(MinHash.DEFAULT_LENGTH);
+        var previous = loader.loadDocument(growing, minHash, null, null);
+
+        var appended = new StringBuilder();
+        while (appended.length() < 64 << 10)
+            appended.append(corpus.nextLine(12)).append('\n');
+        Files.writeString(growing, appended, StandardOpenOption.APPEND);
+
+        var reloaded = loader.reload(previous, minHash, null, null);
+        var full = loader.loadDocument(growing, minHash, null, null);
+        if (reloaded.getTokens().size() != full.getTokens().size()
+                || DiceSimilarity.calculate(reloaded.getTokens(), full.getTokens()) != 1.0
+                || !Arrays.equals(reloaded.getSignature(), full.getSignature()))
+            throw new Exception("Incremental reload differs from full load!!!");
+
+        var params = Map.<String, Object>of("megabytes", size >> 20, "appendedKiB", appended.length() >> 10);
+        runner.run("ingest", "appendReload", params, size, () -> loader.reload(previous, minHash, null, null));
+        runner.run("ingest", "fullReload", params, size, () -> loader.loadDocument(growing, minHash, null, null));
+    }
+
+    /**
+     * The former ingestion approach: one subtask per line, all adding into a
+     * shared concurrent skip list set.
+     */
+    private static Set<String> perLineTasks(TextPreprocessor preprocessor, Path file) throws Exception {
+        List<String> lines = FileIO.readFile(file);
+        var tokens = new ConcurrentSkipListSet<String>();
+
+        try (var scope = new StructuredTaskScope.ShutdownOnFailure()) {
+            for (var line : lines)
+                scope.fork(() -> tokens.addAll(preprocessor.preprocess(line)));
+
+            scope.join();
+            scope.throwIfFailed();
+        }
+
+        return tokens;
+    }
+
+    /**
+     * Stop-word filtering and noise ratio on ID sets, masked documents and
+     * string sets.
+     */
+    private static void filter(BenchmarkRunner runner) throws Exception {
+        for (var documentSize : new int[] { 10_000, 100_000 }) {
+            var corpus = new SyntheticCorpus(documentSize * 4, 1.07, SEED);
+            var dictionary = new HeapTokenDictionary();
+            var strings = new HashSet<String>();
+            var preprocessor = new TextPreprocessor();
+
+            while (strings.size() < documentSize)
+                strings.addAll(preprocessor.preprocess(corpus.nextLine(12)));
+
+            var ids = TokenIdSet.of(strings, dictionary);
+            var filter = new StopWordFilter(corpus.stopWords(300), TextComparator.MIN_TOKENS, dictionary);
+            var params = Map.<String, Object>of("tokens", ids.size(), "stopWords", 300);
+
+            runner.run("filter", "filterIds", params, 0, () -> filter.filter(ids));
+            runner.run("filter", "noiseRatioIds", params, 0, () -> filter.calculateNoiseRatio(ids));
+            // Mask computed once at ingest time, reused by every toggle
+            var document = filter.apply(new Document(Path.of("bench"), ids));
+            if (DiceSimilarity.calculate(filter.filter(document), filter.filter(ids)) != 1.0
+                    || filter.calculateNoiseRatio(document) != filter.calculateNoiseRatio(ids))
+                throw new Exception("Masked filtering differs from direct filtering!!!");
+
+            runner.run("filter", "applyMask", params, 0, () -> filter.apply(new Document(Path.of("bench"), ids)));
+            runner.run("filter", "filterMasked", params, 0, () -> filter.filter(document));
+            runner.run("filter", "noiseRatioMasked", params, 0, () -> filter.calculateNoiseRatio(document));
+            runner.run("filter", "filterStrings", params, 0, () -> filter.filter(strings));
+            runner.run("filter", "noiseRatioStrings", params, 0, () -> filter.calculateNoiseRatio(strings));
+        }
+    }
+
+    /**
+     * Dice similarity at balanced and skewed set sizes, with sparse and dense
+     * ID ranges, plus the string set adapter.
+     *
+     * Before measuring, every intersection strategy and the string set
+     * adapter are checked against a {@link HashSet} intersection, on the
+     * measured shapes and on empty, single-element, disjoint and shifted
+     * sets.
+     */
+    private static void dice(BenchmarkRunner runner) throws Exception {
+        var corpus = new SyntheticCorpus(10, 1.0, SEED);
+        int[][] shapes = {
+                // size A, size B, ID range
+                { 100_000, 100_000, 10_000_000 },
+                { 100_000, 100_000, 400_000 },
+                { 1_000, 1_000_000, 10_000_000 },
+                { 10_000, 1_000_000, 2_000_000 } };
+
+        // Differential check before measuring
+        var empty = TokenIdSet.of(new int[0], 0);
+        var single = TokenIdSet.of(new int[] { 70 }, 1);
+        var low = corpus.idSet(1_000, 4_000);
+        var high = shifted(low, 1_000_000);
+        var overlapping = shifted(corpus.idSet(1_000, 4_000), 2_000);
+        TokenIdSet[][] edgeCases = {
+                { empty, empty }, { empty, low }, { single, single }, { single, low }, { single, high },
+                { low, high }, { low, overlapping }, { overlapping, low }, { low, low },
+                { corpus.idSet(50, 100), corpus.idSet(5_000, 1_000_000) } };
+
+        for (var pair : edgeCases)
+            checkDice(pair[0], pair[1]);
+        for (var shape : shapes)
+            checkDice(corpus.idSet(shape[0], shape[2]), corpus.idSet(shape[1], shape[2]));
+
+        for (var shape : shapes) {
+            var a = corpus.idSet(shape[0], shape[2]);
+            var b = corpus.idSet(shape[1], shape[2]);
+            var strategy = DiceSimilarity.chooseStrategy(a, b);
+            var params = Map.<String, Object>of("sizeA", shape[0], "sizeB", shape[1], "range", shape[2],
+                    "strategy", strategy);
+
+            runner.run("dice", "ids", params, 0, () -> DiceSimilarity.calculate(a, b));
+        }
+
+        var dictionary = new HeapTokenDictionary();
+        var stringsA = new HashSet<String>();
+        var stringsB = new HashSet<String>();
+        var a = corpus.idSet(100_000, 400_000);
+        var b = corpus.idSet(100_000, 400_000);
+        for (var i = 0; i < a.size(); i++)
+            stringsA.add("t" + a.get(i));
+        for (var i = 0; i < b.size(); i++)
+            stringsB.add("t" + b.get(i));
+
+        var idsA = TokenIdSet.of(stringsA, dictionary);
+        var idsB = TokenIdSet.of(stringsB, dictionary);
+        var params = Map.<String, Object>of("sizeA", 100_000, "sizeB", 100_000);
+
+        runner.run("dice", "stringAdapter", params, 0, () -> DiceSimilarity.calculate(stringsA, stringsB));
+        runner.run("dice", "internedIds", params, 0, () -> DiceSimilarity.calculate(idsA, idsB));
+    }
+
+    /**
+     * Checks that every intersection strategy finds the same intersection as
+     * a {@link HashSet}, and that the string set adapter gives the same
+     * coefficient as the token ID sets.
+     *
+     * @param a the first set of token IDs
+     * @param b the second set of token IDs
+     * @throws IllegalStateException on any mismatch
+     */
+    private static void checkDice(TokenIdSet a, TokenIdSet b) {
+        var reference = new HashSet<Integer>();
+        for (var i = 0; i < a.size(); i++)
+            reference.add(a.get(i));
+
+        var expected = 0;
+        for (var i = 0; i < b.size(); i++)
+            if (reference.contains(b.get(i)))
+                expected++;
+
+        for (var strategy : DiceSimilarity.Strategy.values()) {
+            var intersection = DiceSimilarity.intersectionSize(a, b, strategy);
+            if (intersection != expected)
+                throw new IllegalStateException("Dice " + strategy + " intersection mismatch: " + intersection
+                        + " instead of " + expected + " for sizes " + a.size() + " and " + b.size());
+        }
+
+        var stringsA = new HashSet<String>();
+        var stringsB = new HashSet<String>();
+        for (var i = 0; i < a.size(); i++)
+            stringsA.add("t" + a.get(i));
+        for (var i = 0; i < b.size(); i++)
+            stringsB.add("t" + b.get(i));
+
+        if (Double.compare(DiceSimilarity.calculate(stringsA, stringsB), DiceSimilarity.calculate(a, b)) != 0)
+            throw new IllegalStateException("Dice string adapter mismatch for sizes " + a.size() + " and "
+                    + b.size());
+    }
+
+    /**
+     * Returns a set of token IDs with every ID of another set moved up.
+     *
+     * @param set      the set of token IDs
+     * @param distance the distance to add to every ID
+     * @return the shifted set
+     */
+    private static TokenIdSet shifted(TokenIdSet set, int distance) {
+        var ids = new int[set.size()];
+        for (var i = 0; i < ids.length; i++)
+            ids[i] = set.get(i) + distance;
+
+        return TokenIdSet.of(ids, ids.length);
+    }
+
+    /**
+     * Accuracy of MinHash estimates against exact similarity over document
+     * pairs of every overlap, followed by the cost of computing a signature
+     * and of an estimate compared to an exact calculation.
+     *
+     * The accuracy check fails if the root mean square error exceeds the
+     * documented standard error bound or any single estimate is off by more
+     * than five times the bound.
+     */
+    private static void minHash(BenchmarkRunner runner) throws Exception {
+        var random = new java.util.SplittableRandom(SEED);
+        var dictionary = new HeapTokenDictionary();
+
+        for (var length : new int[] { 32, 64, 128, 256 }) {
+            var minHash = new MinHash(length);
+            var bound = MinHash.standardError(length);
+            var squaredError = 0d;
+            var maxError = 0d;
+            var pairs = 500;
+
+            for (var p = 0; p < pairs; p++) {
+                // Two documents sharing a random fraction of their tokens
+                var size = 500 + random.nextInt(5_000);
+                var shared = random.nextInt(size + 1);
+                var a = new HashSet<String>();
+                var b = new HashSet<String>();
+
+                for (var i = 0; i < size; i++) {
+                    var token = "p" + p + "s" + i;
+                    a.add(token);
+                    b.add(i < shared ? token : "p" + p + "b" + i);
+                }
+
+                var exact = DiceSimilarity.calculate(TokenIdSet.of(a, dictionary), TokenIdSet.of(b, dictionary));
+                var error = Math.abs(MinHash.estimateDice(minHash.signature(a), minHash.signature(b)) - exact);
+
+                squaredError += error * error / pairs;
+                maxError = Math.max(maxError, error);
+            }
+
+            var rmsError = Math.sqrt(squaredError);
+            System.out.printf("%-10s %-28s k=%-4d rms error %.4f  max error %.4f  bound %.4f%n",
+                    "minhash", "accuracy", length, rmsError, maxError, bound);
+
+            if (rmsError > bound || maxError > 5 * bound)
+                throw new IllegalStateException("MinHash error above bound for k = " + length);
+        }
+
+        var corpus = new SyntheticCorpus(10, 1.0, SEED);
+        var a = corpus.idSet(100_000, 10_000_000);
+        var b = corpus.idSet(100_000, 10_000_000);
+        var tokensA = new HashSet<String>();
+        for (var i = 0; i < a.size(); i++)
+            tokensA.add("t" + a.get(i));
+
+        var minHash = new MinHash(MinHash.DEFAULT_LENGTH);
+        var signatureA = minHash.signature(tokensA);
+        var signatureB = minHash.signature(tokensA.stream().limit(50_000).toList());
+        var params = Map.<String, Object>of("tokens", 100_000, "length", MinHash.DEFAULT_LENGTH);
+
+        runner.run("minhash", "signature", params, 0, () -> minHash.signature(tokensA));
+        runner.run("minhash", "estimate", params, 0, () -> MinHash.estimateDice(signatureA, signatureB));
+        runner.run("minhash", "exact", params, 0, () -> DiceSimilarity.calculate(a, b));
+    }
+
+    /**
+     * Similar-document queries through the LSH index and by a linear scan of
+     * all documents. The corpus consists of clusters of near-duplicates, and
+     * the index must find every match found by the scan.
+     */
+    private static void lsh(BenchmarkRunner runner, boolean quick) throws Exception {
+        var random = new java.util.SplittableRandom(SEED);
+        var dictionary = new HeapTokenDictionary();
+        var minHash = new MinHash(MinHash.DEFAULT_LENGTH);
+        var threshold = 0.5;
+        var index = LshIndex.forThreshold(threshold, minHash.getLength());
+        var documents = new ArrayList<Document>();
+        var clusters = quick ? 100 : 400;
+
+        // Every document keeps 80% of its cluster's tokens plus its own noise
+        for (var n = 0; n < clusters * 10; n++) {
+            var cluster = random.nextInt(clusters);
+            var tokens = new HashSet<String>();
+
+            for (var i = 0; i < 1_000; i++)
+                if (random.nextInt(100) < 80)
+                    tokens.add("c" + cluster + "t" + i);
+            for (var i = 0; i < 300; i++)
+                tokens.add("d" + n + "t" + i);
+
+            var document = new Document(Path.of("doc" + n), TokenIdSet.of(tokens, dictionary),
+                    minHash.signature(tokens));
+            documents.add(document);
+            index.add(document);
+        }
+
+        var query = documents.get(0);
+        var expected = 0;
+        for (var document : documents)
+            if (document != query && DiceSimilarity.calculate(query.getTokens(), document.getTokens()) >= threshold)
+                expected++;
+
+        if (index.query(query, threshold).size() != expected)
+            throw new IllegalStateException("LSH index missed similar documents");
+
+        var params = Map.<String, Object>of("documents", documents.size(), "bands", index.getBands(),
+                "rows", index.getRows());
+
+        runner.run("lsh", "indexQuery", params, 0, () -> index.query(query, threshold));
+        runner.run("lsh", "linearScan", params, 0, () -> {
+            var matches = 0;
+            for (var document : documents)
+                if (document != query && DiceSimilarity.calculate(query.getTokens(), document.getTokens()) >= threshold)
+                    matches++;
+            return matches;
+        });
+    }
+
+    /**
+     * Exact similarity of a query against every document of a corpus through
+     * the inverted index and by a linear scan. Documents are drawn from a
+     * Zipfian vocabulary, so frequent tokens exercise the bitmap postings.
+     */
+    private static void inverted(BenchmarkRunner runner, boolean quick) throws Exception {
+        var corpus = new SyntheticCorpus(100_000, 1.07, SEED);
+        var dictionary = new HeapTokenDictionary();
+        var preprocessor = new TextPreprocessor();
+        var index = new InvertedIndex();
+        var documents = new ArrayList<Document>();
+
+        for (var n = 0; n < (quick ? 1_000 : 5_000); n++) {
+            var tokens = new HashSet<String>();
+            for (var line : corpus.lines(40))
+                tokens.addAll(preprocessor.preprocess(line));
+
+            var document = new Document(Path.of("doc" + n), TokenIdSet.of(tokens, dictionary));
+            documents.add(document);
+            index.add(document);
+        }
+
+        var query = documents.get(0).getTokens();
+        var similarities = index.similarities(query);
+        for (var d = 0; d < documents.size(); d++)
+            if (similarities[d] != DiceSimilarity.calculate(query, documents.get(d).getTokens()))
+                throw new IllegalStateException("Inverted index similarity mismatch");
+
+        var params = Map.<String, Object>of("documents", documents.size(),
+                "postingsKiB", index.getPostingsMemory() >> 10);
+
+        runner.run("inverted", "indexQuery", params, 0, () -> index.similarities(query));
+        runner.run("inverted", "linearScan", params, 0, () -> {
+            var scan = new double[documents.size()];
+            for (var d = 0; d < scan.length; d++)
+                scan[d] = DiceSimilarity.calculate(query, documents.get(d).getTokens());
+            return scan;
+        });
+    }
+
+    /**
+     * Occurrence counting by the primitive {@link TokenCounter} and by a
+     * boxed {@code HashMap<String, Integer>}, and the weighted Dice of the
+     * resulting bags against the boxed maps. Both must agree.
+     */
+    private static void multiset(BenchmarkRunner runner) throws Exception {
+        for (var occurrences : new int[] { 100_000, 1_000_000 }) {
+            var corpus = new SyntheticCorpus(200_000, 1.07, SEED);
+            var dictionary = new HeapTokenDictionary();
+            var tokensA = new String[occurrences];
+            var tokensB = new String[occurrences];
+            for (var i = 0; i < occurrences; i++) {
+                tokensA[i] = "w" + corpus.nextRank();
+                tokensB[i] = "w" + corpus.nextRank();
+            }
+
+            var idsA = new int[occurrences];
+            for (var i = 0; i < occurrences; i++)
+                idsA[i] = dictionary.intern(tokensA[i]);
+            var counterB = new TokenCounter();
+            for (var token : tokensB)
+                counterB.increment(dictionary.intern(token));
+
+            var bagA = count(idsA).toBag();
+            var bagB = counterB.toBag();
+            var mapA = countBoxed(tokensA);
+            var mapB = countBoxed(tokensB);
+
+            if (bagA.size() != mapA.size()
+                    || Math.abs(DiceSimilarity.calculate(bagA, bagB) - boxedDice(mapA, mapB)) > 1e-12)
+                throw new IllegalStateException("Multiset Dice mismatch");
+
+            var params = Map.<String, Object>of("occurrences", occurrences, "distinct", bagA.size());
+
+            runner.run("multiset", "countPrimitive", params, 0, () -> count(idsA));
+            runner.run("multiset", "countBoxed", params, 0, () -> countBoxed(tokensA));
+            runner.run("multiset", "dicePrimitive", params, 0, () -> DiceSimilarity.calculate(bagA, bagB));
+            runner.run("multiset", "diceBoxed", params, 0, () -> boxedDice(mapA, mapB));
+        }
+    }
+
+    /**
+     * Character n-grams and word shingles of two texts sharing half of their
+     * lines, as rolling-hash fingerprints and as substring sets. Both must
+     * give the same number of distinct shingles and the same Dice, and
+     * loading the texts from files with several workers must give the same
+     * fingerprints as shingling them in one piece.
+     */
+    private static void shingle(BenchmarkRunner runner) throws Exception {
+        var preprocessor = new TextPreprocessor();
+        var corpus = new SyntheticCorpus(50_000, 1.07, SEED);
+        var shared = corpus.lines(5_000);
+        var linesA = new ArrayList<>(shared);
+        var linesB = new ArrayList<>(shared);
+        linesA.addAll(corpus.lines(5_000));
+        linesB.addAll(corpus.lines(5_000));
+        var textA = String.join("\n", linesA);
+        var textB = String.join("\n", linesB);
+
+        Files.createDirectories(DATA_DIR);
+        var fileA = Files.writeString(DATA_DIR.resolve("shingle-a.txt"), textA + "\n");
+
+        for (var mode : new SimilarityMode[] { SimilarityMode.CHARACTER_NGRAMS, SimilarityMode.WORD_SHINGLES }) {
+            for (var size : new int[] { 2, 4 }) {
+                var shinglesA = preprocessor.shingles(textA, mode, size);
+                var shinglesB = preprocessor.shingles(textB, mode, size);
+                var substringsA = substringShingles(preprocessor, linesA, mode, size);
+                var substringsB = substringShingles(preprocessor, linesB, mode, size);
+
+                // Differential check before measuring
+                if (shinglesA.size() != substringsA.size() || Math.abs(DiceSimilarity.calculate(shinglesA,
+                        shinglesB) - DiceSimilarity.calculate(substringsA, substringsB)) > 1e-12)
+                    throw new IllegalStateException("Shingle mismatch: " + mode + " " + size);
+
+                for (var mapped : new boolean[] { false, true }) {
+                    var loader = new TextLoader(preprocessor, new HeapTokenDictionary());
+                    loader.setMode(mode);
+                    loader.setShingleSize(size);
+                    loader.setParallelism(4);
+                    loader.setBlockSize(4096);
+                    loader.setMappedThreshold(mapped ? 0 : Long.MAX_VALUE);
+
+                    var loaded = loader.loadDocument(fileA, null, null).getShingles();
+                    if (loaded.size() != shinglesA.size() || DiceSimilarity.calculate(loaded, shinglesA) != 1.0)
+                        throw new IllegalStateException("Loaded shingle mismatch: " + mode + " " + size);
+                }
+
+                var params = Map.<String, Object>of("mode", mode.name(), "size", size, "distinct",
+                        shinglesA.size());
+
+                runner.run("shingle", "rollingHash", params, textA.length(),
+                        () -> preprocessor.shingles(textA, mode, size));
+                runner.run("shingle", "substrings", params, textA.length(),
+                        () -> substringShingles(preprocessor, linesA, mode, size));
+                runner.run("shingle", "diceFingerprints", params, 0,
+                        () -> DiceSimilarity.calculate(shinglesA, shinglesB));
+                runner.run("shingle", "diceSubstrings", params, 0,
+                        () -> DiceSimilarity.calculate(substringsA, substringsB));
+            }
+        }
+    }
+
+    /**
+     * Quantiles of a {@link LatencyHistogram} against the exact quantiles of
+     * the recorded values, which they must match within the bucket width,
+     * and the cost of recording from one thread and from several threads at
+     * once.
+     */
+    private static void metrics(BenchmarkRunner runner) throws Exception {
+        var random = new Random(SEED);
+        var histogram = new LatencyHistogram();
+        var values = new long[1_000_000];
+
+        // Log-normal latencies between microseconds and seconds
+        for (var i = 0; i < values.length; i++) {
+            values[i] = (long) Math.exp(10 + 2.5 * random.nextGaussian());
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        // Differential check before measuring
+        for (var quantile : new double[] { 0.5, 0.9, 0.99, 0.999, 1.0 }) {
+            var exact = values[(int) Math.ceil(quantile * values.length) - 1];
+            var estimate = histogram.getQuantile(quantile);
+
+            if (estimate < exact || estimate > exact + exact / 8 + 1)
+                throw new IllegalStateException("Quantile mismatch: " + quantile);
+        }
+
+        var params = Map.<String, Object>of("values", values.length);
+        var sink = new LatencyHistogram();
+
+        runner.run("metrics", "record", params, 0, () -> {
+            for (var value : values)
+                sink.record(value);
+            return sink;
+        });
+
+        for (var threads : new int[] { 4, 16 }) {
+            var contended = Map.<String, Object>of("values", values.length, "threads", threads);
+
+            runner.run("metrics", "recordContended", contended, 0, () -> {
+                try (var scope = new StructuredTaskScope.ShutdownOnFailure()) {
+                    for (var t = 0; t < threads; t++) {
+                        var from = values.length * t / threads;
+                        var to = values.length * (t + 1) / threads;
+
+                        scope.fork(() -> {
+                            for (var i = from; i < to; i++)
+                                sink.record(values[i]);
+                            return null;
+                        });
+                    }
+
+                    scope.join();
+                    scope.throwIfFailed();
+                }
+                return sink;
+            });
+        }
+
+        runner.run("metrics", "quantile", params, 0, () -> histogram.getQuantile(0.99));
+    }
+
+    /**
+     * Interning, lookup and resolution of a large vocabulary in the heap and
+     * off-heap token dictionaries. Both must assign the same IDs to the same
+     * sequence of tokens, also with non-ASCII tokens and a token larger than
+     * a slab chunk, and the off-heap dictionary must stay consistent when
+     * interned from several threads at once.
+     */
+    private static void dictionary(BenchmarkRunner runner) throws Exception {
+        var preprocessor = new TextPreprocessor();
+        var tokens = new ArrayList<String>();
+
+        for (var line : new SyntheticCorpus(200_000, 0.8, SEED).lines(50_000))
+            preprocessor.preprocess(line, tokens);
+        for (var i = 0; i < 1_000; i++)
+            tokens.add("straße" + i + "日本語");
+        tokens.add("x".repeat(3 << 20));
+
+        var heap = new HeapTokenDictionary();
+        var offHeap = new OffHeapTokenDictionary();
+
+        // Differential check before measuring
+        for (var token : tokens)
+            if (heap.intern(token) != offHeap.intern(token))
+                throw new IllegalStateException("Dictionary mismatch on token: " + token);
+        for (var id = 0; id < heap.size(); id++)
+            if (!heap.token(id).equals(offHeap.token(id)))
+                throw new IllegalStateException("Dictionary mismatch on ID: " + id);
+        if (heap.size() != offHeap.size() || offHeap.lookup("unknown token") != -1)
+            throw new IllegalStateException("Dictionary mismatch on size or unknown token");
+
+        try (var concurrent = new OffHeapTokenDictionary();
+                var scope = new StructuredTaskScope.ShutdownOnFailure()) {
+            for (var t = 0; t < 4; t++) {
+                var from = tokens.size() * t / 4;
+                scope.fork(() -> {
+                    for (var i = 0; i < tokens.size(); i++)
+                        concurrent.intern(tokens.get((from + i) % tokens.size()));
+                    return null;
+                });
+            }
+
+            scope.join();
+            scope.throwIfFailed();
+
+            if (concurrent.size() != heap.size())
+                throw new IllegalStateException("Concurrent dictionary size mismatch");
+            for (var token : tokens)
+                if (!concurrent.token(concurrent.lookup(token)).equals(token))
+                    throw new IllegalStateException("Concurrent dictionary mismatch on token: " + token);
+        }
+
+        tokens.removeLast();
+        var distinct = heap.size();
+        var params = Map.<String, Object>of("tokens", tokens.size(), "distinct", distinct, "offHeapBytes",
+                offHeap.memoryFootprint());
+
+        runner.run("dictionary", "internHeap", params, 0, () -> {
+            var dictionary = new HeapTokenDictionary();
+            for (var token : tokens)
+                dictionary.intern(token);
+            return dictionary.size();
+        });
+
+        runner.run("dictionary", "internOffHeap", params, 0, () -> {
+            try (var dictionary = new OffHeapTokenDictionary()) {
+                for (var token : tokens)
+                    dictionary.intern(token);
+                return dictionary.size();
+            }
+        });
+
+        runner.run("dictionary", "lookupHeap", params, 0, () -> {
+            var sum = 0L;
+            for (var token : tokens)
+                sum += heap.lookup(token);
+            return sum;
+        });
+
+        runner.run("dictionary", "lookupOffHeap", params, 0, () -> {
+            var sum = 0L;
+            for (var token : tokens)
+                sum += offHeap.lookup(token);
+            return sum;
+        });
+
+        runner.run("dictionary", "tokenHeap", params, 0, () -> {
+            var length = 0L;
+            for (var id = 0; id < distinct - 1; id++)
+                length += heap.token(id).length();
+            return length;
+        });
+
+        runner.run("dictionary", "tokenOffHeap", params, 0, () -> {
+            var length = 0L;
+            for (var id = 0; id < distinct - 1; id++)
+                length += offHeap.token(id).length();
+            return length;
+        });
+
+        offHeap.close();
+        if (offHeap.memoryFootprint() != 0)
+            throw new IllegalStateException("Off-heap dictionary not released");
+    }
+
+    /**
+     * Shingles lines as sets of substrings, the straightforward alternative
+     * to rolling-hash fingerprints.
+     */
+    private static Set<String> substringShingles(TextPreprocessor preprocessor, List<String> lines,
+            SimilarityMode mode, int size) {
+        var shingles = new HashSet<String>();
+
+        for (var line : lines) {
+            var tokens = preprocessor.preprocess(line);
+            if (tokens.isEmpty())
+                continue;
+
+            if (mode == SimilarityMode.WORD_SHINGLES) {
+                for (var i = 0; i + size <= tokens.size(); i++)
+                    shingles.add(String.join(" ", tokens.subList(i, i + size)));
+                if (tokens.size() < size)
+                    shingles.add(String.join(" ", tokens));
+                continue;
+            }
+
+            var text = String.join(" ", tokens);
+            var length = text.codePointCount(0, text.length());
+            for (var i = 0; i + size <= length; i++)
+                shingles.add(text.substring(text.offsetByCodePoints(0, i), text.offsetByCodePoints(0, i + size)));
+            if (length < size)
+                shingles.add(text);
+        }
+
+        return shingles;
+    }
+
+    /**
+     * Counts token IDs in a primitive counter.
+     */
+    private static TokenCounter count(int[] ids) {
+        var counter = new TokenCounter();
+        for (var id : ids)
+            counter.increment(id);
+
+        return counter;
+    }
+
+    /**
+     * Counts tokens in a boxed map, the straightforward alternative.
+     */
+    private static Map<String, Integer> countBoxed(String[] tokens) {
+        var counts = new java.util.HashMap<String, Integer>();
+        for (var token : tokens)
+            counts.merge(token, 1, Integer::sum);
+
+        return counts;
+    }
+
+    /**
+     * Weighted Dice of two boxed count maps.
+     */
+    private static double boxedDice(Map<String, Integer> a, Map<String, Integer> b) {
+        var common = 0L;
+        var totalA = 0L;
+        var totalB = 0L;
+
+        for (var entry : a.entrySet()) {
+            totalA += entry.getValue();
+            common += Math.min(entry.getValue(), b.getOrDefault(entry.getKey(), 0));
+        }
+        for (var count : b.values())
+            totalB += count;
+
+        return 2d * common / (totalA + totalB);
+    }
+}
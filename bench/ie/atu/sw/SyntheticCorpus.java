@@ -0,0 +1,198 @@
+package ie.atu.sw;
+
+import java.io.BufferedWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+/**
+ * Deterministic generator of synthetic English-like text for benchmarks.
+ *
+ * Words are drawn from a fixed pseudo-word vocabulary following a Zipfian
+ * distribution, so a few words are very frequent (like stop-words) and most
+ * are rare, as in natural text. Lines contain capitalised words,
+ * punctuation, hyphenated words and free-standing hyphens to exercise every
+ * branch of the preprocessor. The same seed always produces the same text.
+ */
+public class SyntheticCorpus {
+    /** Syllables used to build pseudo-words */
+    private static final String[] SYLLABLES = {
+            "ka", "lo", "mi", "ne", "ru", "sa", "te", "vi", "do", "ga",
+            "ho", "ji", "ku", "le", "ma", "no", "pe", "ri", "su", "to",
+            "an", "el", "is", "or", "um", "ber", "con", "der", "est", "ing" };
+
+    /** Punctuation appended to words */
+    private static final String[] PUNCTUATION = { ",", ".", ";", ":", "!", "?", "\"", ")" };
+
+    /** Pseudo-word vocabulary, most frequent first */
+    private final String[] vocabulary;
+
+    /** Cumulative Zipfian distribution over the vocabulary */
+    private final double[] cumulative;
+
+    /** Seeded random source */
+    private final SplittableRandom random;
+
+    /**
+     * Creates a corpus generator.
+     *
+     * @param vocabularySize number of distinct words
+     * @param exponent       Zipf exponent, about 1.0 for natural text
+     * @param seed           random seed
+     */
+    public SyntheticCorpus(int vocabularySize, double exponent, long seed) {
+        this.random = new SplittableRandom(seed);
+        this.vocabulary = new String[vocabularySize];
+        this.cumulative = new double[vocabularySize];
+
+        var seen = new HashSet<String>();
+        for (var i = 0; i < vocabularySize; i++) {
+            String word;
+            do {
+                var sb = new StringBuilder();
+                var syllables = 1 + random.nextInt(Math.min(4, 2 + i / 100));
+                for (var j = 0; j < syllables; j++)
+                    sb.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+                word = sb.toString();
+            } while (!seen.add(word));
+
+            vocabulary[i] = word;
+        }
+
+        var sum = 0d;
+        for (var i = 0; i < vocabularySize; i++) {
+            sum += 1 / Math.pow(i + 1, exponent);
+            cumulative[i] = sum;
+        }
+        for (var i = 0; i < vocabularySize; i++)
+            cumulative[i] /= sum;
+    }
+
+    /**
+     * Draws the next word rank from the Zipfian distribution.
+     *
+     * @return the rank of the word, 0 for the most frequent
+     */
+    public int nextRank() {
+        var u = random.nextDouble();
+        var from = 0;
+        var to = cumulative.length - 1;
+
+        while (from < to) {
+            var mid = (from + to) >>> 1;
+            if (cumulative[mid] < u)
+                from = mid + 1;
+            else
+                to = mid;
+        }
+
+        return from;
+    }
+
+    /**
+     * Generates one line of text.
+     *
+     * @param words number of words in the line
+     * @return the line
+     */
+    public String nextLine(int words) {
+        var sb = new StringBuilder();
+
+        for (var i = 0; i < words; i++) {
+            if (i > 0)
+                sb.append(random.nextInt(40) == 0 ? " - " : " ");
+
+            var word = vocabulary[nextRank()];
+            if (i == 0 || random.nextInt(20) == 0)
+                word = Character.toUpperCase(word.charAt(0)) + word.substring(1);
+            if (random.nextInt(30) == 0)
+                word = word + "-" + vocabulary[nextRank()];
+
+            sb.append(word);
+
+            if (random.nextInt(8) == 0)
+                sb.append(PUNCTUATION[random.nextInt(PUNCTUATION.length)]);
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Generates a list of lines.
+     *
+     * @param count number of lines
+     * @return the lines, 8 to 16 words each
+     */
+    public List<String> lines(int count) {
+        var lines = new ArrayList<String>(count);
+
+        for (var i = 0; i < count; i++)
+            lines.add(nextLine(8 + random.nextInt(9)));
+
+        return lines;
+    }
+
+    /**
+     * Writes a UTF-8 text file of about the given size, reusing an existing
+     * file of the same name.
+     *
+     * @param file  the file to write
+     * @param bytes approximate size of the file
+     * @return the file
+     * @throws Exception if the file cannot be written
+     */
+    public Path writeFile(Path file, long bytes) throws Exception {
+        if (Files.exists(file) && Files.size(file) >= bytes)
+            return file;
+
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            var written = 0L;
+            while (written < bytes) {
+                var line = nextLine(8 + random.nextInt(9));
+                out.write(line);
+                out.newLine();
+                written += line.length() + 1;
+            }
+        }
+
+        return file;
+    }
+
+    /**
+     * Returns the most frequent words as a stop-word list.
+     *
+     * @param count number of stop-words
+     * @return the stop-words
+     */
+    public Set<String> stopWords(int count) {
+        var stopWords = new HashSet<String>();
+
+        for (var i = 0; i < count; i++)
+            stopWords.add(vocabulary[i]);
+
+        return stopWords;
+    }
+
+    /**
+     * Generates a set of distinct token IDs drawn uniformly from a range.
+     *
+     * @param size  number of IDs
+     * @param range IDs are drawn from {@code [0, range)}
+     * @return the set of IDs
+     */
+    public TokenIdSet idSet(int size, int range) {
+        var ids = new HashSet<Integer>();
+        while (ids.size() < size)
+            ids.add(random.nextInt(range));
+
+        var array = ids.stream().mapToInt(Integer::intValue).toArray();
+
+        return TokenIdSet.of(array, array.length);
+    }
+}
@@ -1,2 +1,2 @@
 #!/bin/bash
-java --enable-preview -jar dice.jar
\ No newline at end of file
+java --enable-preview --add-modules jdk.incubator.vector -jar dice.jar
\ No newline at end of file
@@ -0,0 +1,490 @@
+package ie.atu.sw;
+
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Non-interactive comparison of text files driven by command-line
+ * arguments.
+ *
+ * Either a single pair of files ({@code --a}, {@code --b}) or a manifest of
+ * pairs ({@code --pairs}) is compared in one JVM, and one result per pair is
+ * written to standard output as JSON or CSV, with the time spent in every
+ * phase: loading each file, filtering and comparing. No console colours,
+ * progress bars or prompts are used, so the output can be consumed by
+ * scripts.
+ *
+ * Every file is loaded only once per run, however many pairs it appears
+ * in. A pair that cannot be compared is reported with its error and does
+ * not stop the remaining pairs.
+ *
+ * <pre>
+ * --a file --b file     compare one pair of files
+ * --pairs manifest      compare the pairs of a manifest, one "fileA,fileB"
+ *                       per line, relative to the manifest directory
+ * --stop file           stop-word list
+ * --filter              remove stop-words before comparing
+ * --mode name           set, multiset, ngrams or shingles (default set)
+ * --size n              characters or words per shingle
+ * --threads n           worker threads used for text preprocessing
+ * --format json|csv     output format (default json)
+ * --no-cache            do not use the persistent token set cache
+ * --off-heap            keep the token dictionary in native memory
+ * </pre>
+ *
+ * With {@code --off-heap}, the tokens of all files are stored in an
+ * {@link OffHeapTokenDictionary}, which is released as soon as the results
+ * are written.
+ */
+public class BatchRunner {
+    /** Exit code of a run in which every pair was compared */
+    public static final int EXIT_OK = 0;
+
+    /** Exit code of a run in which at least one pair failed */
+    public static final int EXIT_FAILED_PAIRS = 1;
+
+    /** Exit code of invalid arguments */
+    public static final int EXIT_USAGE = 2;
+
+    /** Memory limit of the loaded documents in bytes */
+    private static final long DOCUMENT_CACHE_BYTES = 256L << 20;
+
+    /** Nanoseconds per millisecond */
+    private static final double NANOS_PER_MILLI = 1_000_000d;
+
+    /** Usage summary printed on invalid arguments */
+    private static final String USAGE = """
+            Usage: (--a fileA --b fileB | --pairs manifest) [--stop file] [--filter]
+                   [--mode set|multiset|ngrams|shingles] [--size n] [--threads n]
+                   [--format json|csv] [--no-cache] [--off-heap]""";
+
+    /**
+     * A pair of files to compare.
+     *
+     * @param fileA the first file
+     * @param fileB the second file
+     */
+    private record Pair(Path fileA, Path fileB) {
+    }
+
+    /**
+     * Result of comparing one pair, with the duration of every phase in
+     * nanoseconds.
+     *
+     * @param pair        the compared files
+     * @param similarity  the Dice similarity, or NaN if the pair failed
+     * @param sizeA       number of unique tokens, shingles or occurrences of
+     *                    file A
+     * @param sizeB       the same for file B
+     * @param loadANanos  time spent loading file A
+     * @param loadBNanos  time spent loading file B
+     * @param filterNanos time spent removing stop-words
+     * @param diceNanos   time spent computing the similarity
+     * @param error       the error message, or null if the pair succeeded
+     */
+    private record Result(Pair pair, double similarity, long sizeA, long sizeB, long loadANanos, long loadBNanos,
+            long filterNanos, long diceNanos, String error) {
+    }
+
+    /** Dictionary shared by all loaded files */
+    private final TokenDictionary dictionary;
+
+    /** Loader of the text files */
+    private final TextLoader textLoader;
+
+    /** Loaded files by absolute path */
+    private final WeightedLruCache<Path, Document> documentCache = new WeightedLruCache<>(
+            DOCUMENT_CACHE_BYTES, (path, document) -> document.memoryFootprint());
+
+    /** Pairs to compare */
+    private final List<Pair> pairs = new ArrayList<>();
+
+    /** Stop-word filter, or null if no list was given */
+    private StopWordFilter stopWordFilter = null;
+
+    /** Indicates whether stop-words are removed before comparing */
+    private boolean isFiltering = false;
+
+    /** How the files are compared */
+    private SimilarityMode similarityMode = SimilarityMode.SET;
+
+    /** Indicates whether results are written as CSV instead of JSON */
+    private boolean isCsv = false;
+
+    /** Time spent reading the stop-word list in nanoseconds */
+    private long stopWordsNanos = 0;
+
+    /**
+     * Creates a runner whose files share the given dictionary.
+     *
+     * @param dictionary the token dictionary
+     */
+    private BatchRunner(TokenDictionary dictionary) {
+        this.dictionary = dictionary;
+        this.textLoader = new TextLoader(new TextPreprocessor(), dictionary);
+    }
+
+    /**
+     * Parses the arguments, compares all pairs and writes the results.
+     *
+     * @param args the command-line arguments
+     * @param out  the stream receiving the results
+     * @param err  the stream receiving usage errors
+     * @return the exit code: {@link #EXIT_OK}, {@link #EXIT_FAILED_PAIRS} or
+     *         {@link #EXIT_USAGE}
+     */
+    public static int run(String[] args, PrintStream out, PrintStream err) {
+        // The dictionary is needed before the other arguments are parsed
+        var isOffHeap = Arrays.asList(args).contains("--off-heap");
+
+        try (TokenDictionary dictionary = isOffHeap ? new OffHeapTokenDictionary() : new HeapTokenDictionary()) {
+            var batchRunner = new BatchRunner(dictionary);
+
+            try {
+                batchRunner.parseArguments(args);
+            } catch (Exception e) {
+                err.println(e.getMessage());
+                err.println(USAGE);
+                return EXIT_USAGE;
+            }
+
+            return batchRunner.compareAll(out);
+        }
+    }
+
+    /**
+     * Configures the runner from the command-line arguments.
+     *
+     * @param args the command-line arguments
+     * @throws Exception if an argument is unknown, malformed or missing
+     */
+    private void parseArguments(String[] args) throws Exception {
+        Path fileA = null;
+        Path fileB = null;
+        Path manifest = null;
+        Path stopWords = null;
+        var cached = true;
+        var shingleSize = 0;
+
+        for (var i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--a" -> fileA = Path.of(value(args, ++i));
+                case "--b" -> fileB = Path.of(value(args, ++i));
+                case "--pairs" -> manifest = Path.of(value(args, ++i));
+                case "--stop" -> stopWords = Path.of(value(args, ++i));
+                case "--filter" -> isFiltering = true;
+                case "--no-cache" -> cached = false;
+                case "--off-heap" -> {
+                    // Chosen in run()
+                }
+                case "--mode" -> similarityMode = switch (value(args, ++i)) {
+                    case "set" -> SimilarityMode.SET;
+                    case "multiset" -> SimilarityMode.MULTISET;
+                    case "ngrams" -> SimilarityMode.CHARACTER_NGRAMS;
+                    case "shingles" -> SimilarityMode.WORD_SHINGLES;
+                    default -> throw new Exception("Unknown mode: " + args[i]);
+                };
+                case "--size" -> shingleSize = positive(args, ++i);
+                case "--threads" -> textLoader.setParallelism(positive(args, ++i));
+                case "--format" -> isCsv = switch (value(args, ++i)) {
+                    case "json" -> false;
+                    case "csv" -> true;
+                    default -> throw new Exception("Unknown format: " + args[i]);
+                };
+                default -> throw new Exception("Unknown argument: " + args[i]);
+            }
+        }
+
+        if ((fileA == null) != (fileB == null))
+            throw new Exception("Both --a and --b are required!!!");
+        if (fileA == null && manifest == null)
+            throw new Exception("No files to compare!!!");
+        if (isFiltering && stopWords == null)
+            throw new Exception("Filtering requires a stop-word list (--stop)!!!");
+        if (isFiltering && similarityMode.isShingled())
+            throw new Exception("Shingles cannot be filtered - Disable Filtering!!!");
+
+        if (fileA != null)
+            pairs.add(new Pair(fileA, fileB));
+        if (manifest != null)
+            readManifest(manifest);
+
+        textLoader.setMode(similarityMode);
+        if (similarityMode.isShingled())
+            textLoader.setShingleSize(shingleSize > 0 ? shingleSize : similarityMode.getDefaultShingleSize());
+
+        if (cached)
+            textLoader.setCache(new TokenSetCache(TokenSetCache.DEFAULT_DIRECTORY, TokenSetCache.DEFAULT_MAX_BYTES));
+
+        if (stopWords != null) {
+            var start = System.nanoTime();
+            stopWordFilter = new StopWordFilter(StopWordFilter.readStopWords(stopWords), TextComparator.MIN_TOKENS,
+                    dictionary);
+            stopWordsNanos = System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Reads the pairs of a manifest file. Every non-empty line that does not
+     * start with {@code #} names two files separated by a comma or a tab;
+     * relative paths are resolved against the directory of the manifest.
+     *
+     * @param manifest path to the manifest file
+     * @throws Exception if the manifest cannot be read or a line is malformed
+     */
+    private void readManifest(Path manifest) throws Exception {
+        var directory = manifest.toAbsolutePath().getParent();
+        var lineNumber = 0;
+
+        for (var line : FileIO.readFile(manifest)) {
+            lineNumber++;
+            line = line.strip();
+
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+
+            var files = line.split("[,\t]");
+            if (files.length != 2 || files[0].isBlank() || files[1].isBlank())
+                throw new Exception("Manifest - Format Error in line " + lineNumber + "!!!");
+
+            pairs.add(new Pair(directory.resolve(files[0].strip()), directory.resolve(files[1].strip())));
+        }
+    }
+
+    /**
+     * Compares all pairs, writing every result as soon as it is known.
+     *
+     * @param out the stream receiving the results
+     * @return {@link #EXIT_OK} if all pairs were compared, otherwise
+     *         {@link #EXIT_FAILED_PAIRS}
+     */
+    private int compareAll(PrintStream out) {
+        var start = System.nanoTime();
+        var failed = 0;
+
+        if (isCsv) {
+            out.println("fileA,fileB,dice,sizeA,sizeB,loadAMillis,loadBMillis,filterMillis,diceMillis,error");
+        } else {
+            out.println("{");
+            out.println("  \"mode\": " + Json.quote(similarityMode.name()) + ",");
+            if (similarityMode.isShingled())
+                out.println("  \"shingleSize\": " + textLoader.getShingleSize() + ",");
+            out.println("  \"filtering\": " + isFiltering + ",");
+            out.println("  \"threads\": " + textLoader.getParallelism() + ",");
+            out.println("  \"stopWordsMillis\": " + millis(stopWordsNanos) + ",");
+            out.print("  \"results\": [");
+        }
+
+        for (var i = 0; i < pairs.size(); i++) {
+            var result = compare(pairs.get(i));
+            if (result.error() != null)
+                failed++;
+
+            if (isCsv)
+                out.println(toCsv(result));
+            else
+                out.print((i == 0 ? "\n" : ",\n") + "    " + toJson(result));
+        }
+
+        if (!isCsv) {
+            out.println(pairs.isEmpty() ? "]," : "\n  ],");
+            out.println("  \"pairs\": " + pairs.size() + ",");
+            out.println("  \"failed\": " + failed + ",");
+            out.println("  \"totalMillis\": " + millis(System.nanoTime() - start));
+            out.println("}");
+        }
+
+        out.flush();
+
+        return failed == 0 ? EXIT_OK : EXIT_FAILED_PAIRS;
+    }
+
+    /**
+     * Compares one pair of files, timing every phase.
+     *
+     * @param pair the files to compare
+     * @return the result, with the error message if the pair failed
+     */
+    private Result compare(Pair pair) {
+        var loadANanos = 0L;
+        var loadBNanos = 0L;
+        var filterNanos = 0L;
+        var diceNanos = 0L;
+
+        try {
+            var start = System.nanoTime();
+            var documentA = load(pair.fileA());
+            loadANanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            var documentB = load(pair.fileB());
+            loadBNanos = System.nanoTime() - start;
+
+            double similarity;
+            long sizeA;
+            long sizeB;
+
+            switch (similarityMode) {
+                case MULTISET -> {
+                    start = System.nanoTime();
+                    var bagA = isFiltering ? stopWordFilter.filter(documentA.getBag()) : documentA.getBag();
+                    var bagB = isFiltering ? stopWordFilter.filter(documentB.getBag()) : documentB.getBag();
+                    filterNanos = System.nanoTime() - start;
+
+                    start = System.nanoTime();
+                    similarity = DiceSimilarity.calculate(bagA, bagB);
+                    diceNanos = System.nanoTime() - start;
+                    sizeA = bagA.total();
+                    sizeB = bagB.total();
+                }
+                case CHARACTER_NGRAMS, WORD_SHINGLES -> {
+                    start = System.nanoTime();
+                    similarity = DiceSimilarity.calculate(documentA.getShingles(), documentB.getShingles());
+                    diceNanos = System.nanoTime() - start;
+                    sizeA = documentA.getShingles().size();
+                    sizeB = documentB.getShingles().size();
+                }
+                default -> {
+                    start = System.nanoTime();
+                    var tokensA = isFiltering ? stopWordFilter.filter(documentA) : documentA.getTokens();
+                    var tokensB = isFiltering ? stopWordFilter.filter(documentB) : documentB.getTokens();
+                    filterNanos = System.nanoTime() - start;
+
+                    start = System.nanoTime();
+                    similarity = DiceSimilarity.calculate(tokensA, tokensB);
+                    diceNanos = System.nanoTime() - start;
+                    sizeA = tokensA.size();
+                    sizeB = tokensB.size();
+                }
+            }
+
+            return new Result(pair, similarity, sizeA, sizeB, loadANanos, loadBNanos, filterNanos, diceNanos, null);
+        } catch (Exception e) {
+            return new Result(pair, Double.NaN, 0, 0, loadANanos, loadBNanos, filterNanos, diceNanos,
+                    e.getMessage());
+        }
+    }
+
+    /**
+     * Loads a file once per run and checks that it has enough tokens.
+     *
+     * @param path path to the text file
+     * @return the loaded document, with the stop-word mask if a list was
+     *         given
+     * @throws Exception if the file cannot be read or is too small
+     */
+    private Document load(Path path) throws Exception {
+        var document = documentCache.get(path.toAbsolutePath().normalize(),
+                k -> textLoader.loadDocument(path, null, stopWordFilter, null));
+
+        if (document.getTokens().size() < TextComparator.MIN_TOKENS)
+            throw new Exception("A minimum of three unique tokens is required: " + path);
+
+        return document;
+    }
+
+    /**
+     * Formats a result as a JSON object.
+     *
+     * @param result the result
+     * @return the JSON object on one line
+     */
+    private static String toJson(Result result) {
+        var sb = new StringBuilder();
+
+        sb.append("{\"fileA\": ").append(Json.quote(result.pair().fileA().toString()))
+                .append(", \"fileB\": ").append(Json.quote(result.pair().fileB().toString()));
+
+        if (result.error() == null)
+            sb.append(", \"dice\": ").append(String.format(Locale.ROOT, "%.6f", result.similarity()))
+                    .append(", \"sizeA\": ").append(result.sizeA())
+                    .append(", \"sizeB\": ").append(result.sizeB());
+        else
+            sb.append(", \"error\": ").append(Json.quote(result.error()));
+
+        return sb.append(", \"millis\": {\"loadA\": ").append(millis(result.loadANanos()))
+                .append(", \"loadB\": ").append(millis(result.loadBNanos()))
+                .append(", \"filter\": ").append(millis(result.filterNanos()))
+                .append(", \"dice\": ").append(millis(result.diceNanos()))
+                .append("}}").toString();
+    }
+
+    /**
+     * Formats a result as a CSV row.
+     *
+     * @param result the result
+     * @return the CSV row
+     */
+    private static String toCsv(Result result) {
+        var ok = result.error() == null;
+
+        return csv(result.pair().fileA().toString()) + "," + csv(result.pair().fileB().toString()) + ","
+                + (ok ? String.format(Locale.ROOT, "%.6f", result.similarity()) : "") + ","
+                + (ok ? result.sizeA() : "") + "," + (ok ? result.sizeB() : "") + ","
+                + millis(result.loadANanos()) + "," + millis(result.loadBNanos()) + ","
+                + millis(result.filterNanos()) + "," + millis(result.diceNanos()) + ","
+                + (ok ? "" : csv(result.error()));
+    }
+
+    /**
+     * Returns the value of an option.
+     *
+     * @param args  the command-line arguments
+     * @param index the index of the value
+     * @return the value
+     * @throws Exception if the value is missing
+     */
+    private static String value(String[] args, int index) throws Exception {
+        if (index >= args.length)
+            throw new Exception("Missing value for " + args[index - 1]);
+
+        return args[index];
+    }
+
+    /**
+     * Returns the value of an option as a positive number.
+     *
+     * @param args  the command-line arguments
+     * @param index the index of the value
+     * @return the number
+     * @throws Exception if the value is missing or not a positive number
+     */
+    private static int positive(String[] args, int index) throws Exception {
+        try {
+            var number = Integer.parseInt(value(args, index));
+            if (number > 0)
+                return number;
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+
+        throw new Exception("Not a positive number for " + args[index - 1] + ": " + args[index]);
+    }
+
+    /**
+     * Formats a duration in milliseconds with microsecond precision.
+     *
+     * @param nanos the duration in nanoseconds
+     * @return the formatted duration
+     */
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / NANOS_PER_MILLI);
+    }
+
+    /**
+     * Quotes a field for a CSV file if needed.
+     *
+     * @param value the field
+     * @return the CSV field
+     */
+    private static String csv(String value) {
+        if (value.contains(",") || value.contains("\"") || value.contains("\n"))
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+
+        return value;
+    }
+}
@@ -0,0 +1,40 @@
+package ie.atu.sw;
+
+/**
+ * Progress listener displaying the terminal progress bar of
+ * {@link ConsoleIO#printProgress(int, int)}.
+ */
+public class ConsoleProgressListener implements ProgressListener {
+    /** Caption printed above the progress bar, may be {@code null} */
+    private final String caption;
+
+    /**
+     * Creates a console progress listener.
+     *
+     * @param caption the caption printed above the progress bar, or
+     *                {@code null} for none
+     */
+    public ConsoleProgressListener(String caption) {
+        this.caption = caption;
+    }
+
+    @Override
+    public void onStart(long total) {
+        if (caption != null)
+            System.out.println(caption);
+
+        System.out.print(ConsoleColour.YELLOW_BOLD_BRIGHT);
+    }
+
+    @Override
+    public void onProgress(long done, long total) {
+        // Scale to per mille, the progress bar works with int values
+        ConsoleIO.printProgress(total <= 0 ? 1000 : (int) (1000 * done / total), 1000);
+    }
+
+    @Override
+    public void onFinish() {
+        System.out.print(ConsoleColour.BLACK_BOLD_BRIGHT);
+        System.out.println();
+    }
+}
@@ -0,0 +1,411 @@
+package ie.atu.sw;
+
+import java.io.BufferedWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.StructuredTaskScope;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Many-to-many comparison of a corpus of documents.
+ *
+ * Every document of a directory is loaded once, and the Sørensen–Dice
+ * similarity of every pair is computed either as a full matrix or as the
+ * top-K most similar neighbours of each document.
+ *
+ * Pairs are scheduled in square tiles of {@value #TILE_SIZE} x
+ * {@value #TILE_SIZE} documents, so each worker keeps a small group of
+ * token sets hot in cache while comparing them against each other. Only
+ * the upper triangle of tiles is computed, every pair exactly once.
+ *
+ * Results are streamed to a CSV file tile by tile; the full matrix is never
+ * held in memory.
+ *
+ * The similarity is exact by default. When a {@link MinHash} scheme is set,
+ * signatures are computed while the documents are loaded and every pair is
+ * estimated from them instead, trading accuracy (see
+ * {@link MinHash#standardError(int)}) for a fixed cost per pair.
+ */
+public class CorpusComparator {
+    /** Number of documents per side of a scheduling tile */
+    static final int TILE_SIZE = 32;
+
+    /** Loader used for the documents of the corpus */
+    private final TextLoader textLoader;
+
+    /** Signature scheme of the approximate engine, or null for exact similarity */
+    private MinHash minHash = null;
+
+    /**
+     * Creates a corpus comparator.
+     *
+     * @param textLoader the loader used for the documents of the corpus
+     */
+    public CorpusComparator(TextLoader textLoader) {
+        this.textLoader = textLoader;
+    }
+
+    /** Returns the signature scheme, or null if the similarity is exact */
+    public MinHash getMinHash() {
+        return minHash;
+    }
+
+    /**
+     * Selects the similarity engine.
+     *
+     * @param minHash the signature scheme of the approximate engine, or
+     *                {@code null} for exact similarity
+     */
+    public void setMinHash(MinHash minHash) {
+        this.minHash = minHash;
+    }
+
+    /**
+     * Loads every regular file of a directory, in file name order. Documents
+     * get a signature if the approximate engine is selected.
+     *
+     * @param directory the corpus directory
+     * @param listener  the listener receiving the number of loaded files, or
+     *                  {@code null} for none
+     * @return the loaded documents
+     * @throws Exception if the directory or a file cannot be read
+     */
+    public List<Document> loadDirectory(Path directory, ProgressListener listener) throws Exception {
+        List<Path> files;
+
+        try (var stream = Files.list(directory)) {
+            files = stream.filter(Files::isRegularFile).sorted().toList();
+        } catch (Exception e) {
+            throw new Exception("Error reading directory: " + directory);
+        }
+
+        var documents = new ArrayList<Document>(files.size());
+
+        if (listener != null)
+            listener.onStart(files.size());
+
+        for (var file : files) {
+            documents.add(textLoader.loadDocument(file, minHash, null));
+
+            if (listener != null)
+                listener.onProgress(documents.size(), files.size());
+        }
+
+        if (listener != null)
+            listener.onFinish();
+
+        return documents;
+    }
+
+    /**
+     * Computes the similarity of every pair of documents and streams the
+     * matrix as CSV rows {@code documentA,documentB,dice}.
+     *
+     * @param documents the documents of the corpus
+     * @param output    the CSV file to write
+     * @param listener  the listener receiving the number of compared pairs,
+     *                  or {@code null} for none
+     * @throws Exception if the file cannot be written or a task fails
+     */
+    public void writeMatrix(List<Document> documents, Path output, ProgressListener listener) throws Exception {
+        try (var writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+            writer.write("documentA,documentB,dice");
+            writer.newLine();
+
+            compareTiles(documents, listener, (rows, columns, dice) -> {
+                var sb = new StringBuilder();
+
+                for (var k = 0; k < dice.length; k++) {
+                    if (rows[k] < 0)
+                        continue;
+
+                    sb.append(csv(documents.get(rows[k]))).append(',')
+                            .append(csv(documents.get(columns[k]))).append(',')
+                            .append(String.format(Locale.ROOT, "%.6f", dice[k])).append('\n');
+                }
+
+                synchronized (writer) {
+                    writer.write(sb.toString());
+                }
+            });
+        } catch (java.io.IOException e) {
+            throw new Exception("Error writing file: " + output);
+        }
+    }
+
+    /**
+     * Finds the {@code k} most similar documents of every document and writes
+     * them as CSV rows {@code document,rank,neighbour,dice}.
+     *
+     * Only {@code k} candidates per document are kept in memory while the
+     * pairs are compared.
+     *
+     * @param documents the documents of the corpus
+     * @param k         the number of neighbours per document
+     * @param output    the CSV file to write
+     * @param listener  the listener receiving the number of compared pairs,
+     *                  or {@code null} for none
+     * @throws Exception if the file cannot be written or a task fails
+     */
+    public void writeTopK(List<Document> documents, int k, Path output, ProgressListener listener)
+            throws Exception {
+        var neighbours = new TopK[documents.size()];
+        for (var i = 0; i < neighbours.length; i++)
+            neighbours[i] = new TopK(k);
+
+        compareTiles(documents, listener, (rows, columns, dice) -> {
+            for (var p = 0; p < dice.length; p++) {
+                if (rows[p] < 0)
+                    continue;
+
+                neighbours[rows[p]].offer(columns[p], dice[p]);
+                neighbours[columns[p]].offer(rows[p], dice[p]);
+            }
+        });
+
+        try (BufferedWriter writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+            writer.write("document,rank,neighbour,dice");
+            writer.newLine();
+
+            for (var i = 0; i < documents.size(); i++) {
+                var top = neighbours[i];
+                var order = top.sortedIndexes();
+
+                for (var rank = 0; rank < order.length; rank++) {
+                    writer.write(csv(documents.get(i)) + "," + (rank + 1) + ","
+                            + csv(documents.get(top.ids[order[rank]])) + ","
+                            + String.format(Locale.ROOT, "%.6f", top.scores[order[rank]]));
+                    writer.newLine();
+                }
+            }
+        } catch (java.io.IOException e) {
+            throw new Exception("Error writing file: " + output);
+        }
+    }
+
+    /**
+     * Receives the results of one tile of document pairs.
+     */
+    @FunctionalInterface
+    interface TileConsumer {
+        /**
+         * Accepts the pairs of a tile. Unused slots have a negative row index.
+         *
+         * @param rows    index of the first document of each pair
+         * @param columns index of the second document of each pair
+         * @param dice    similarity of each pair
+         * @throws Exception if the results cannot be processed
+         */
+        void accept(int[] rows, int[] columns, double[] dice) throws Exception;
+    }
+
+    /**
+     * Compares every pair of documents once, in tiles distributed over a
+     * number of workers equal to the loader's parallelism.
+     *
+     * @param documents the documents of the corpus
+     * @param listener  the listener receiving the number of compared pairs,
+     *                  or {@code null} for none
+     * @param consumer  the receiver of the tile results
+     * @throws Exception if a task fails
+     */
+    private void compareTiles(List<Document> documents, ProgressListener listener, TileConsumer consumer)
+            throws Exception {
+        var n = documents.size();
+        var blocks = (n + TILE_SIZE - 1) / TILE_SIZE;
+        var tiles = blocks * (blocks + 1) / 2;
+        var totalPairs = (long) n * (n - 1) / 2;
+        var nextTile = new AtomicLong();
+        var comparedPairs = new AtomicLong();
+        var approximate = minHash;
+
+        if (approximate != null)
+            for (var document : documents)
+                if (document.getSignature() == null || document.getSignature().length != approximate.getLength())
+                    throw new Exception("Document without matching MinHash signature: " + document);
+
+        if (listener != null)
+            listener.onStart(totalPairs);
+
+        try (var scope = new StructuredTaskScope.ShutdownOnFailure()) {
+            for (var w = 0; w < textLoader.getParallelism(); w++) {
+                scope.fork(() -> {
+                    var rows = new int[TILE_SIZE * TILE_SIZE];
+                    var columns = new int[TILE_SIZE * TILE_SIZE];
+                    var dice = new double[TILE_SIZE * TILE_SIZE];
+                    long tile;
+
+                    while ((tile = nextTile.getAndIncrement()) < tiles) {
+                        // Map the tile number to a block pair (bi <= bj)
+                        var bi = 0;
+                        var remaining = tile;
+                        while (remaining >= blocks - bi)
+                            remaining -= blocks - bi++;
+                        var bj = bi + (int) remaining;
+
+                        var pairs = 0;
+                        for (var i = bi * TILE_SIZE; i < Math.min(n, (bi + 1) * TILE_SIZE); i++) {
+                            var documentI = documents.get(i);
+
+                            for (var j = Math.max(i + 1, bj * TILE_SIZE); j < Math.min(n, (bj + 1) * TILE_SIZE); j++) {
+                                var documentJ = documents.get(j);
+
+                                rows[pairs] = i;
+                                columns[pairs] = j;
+                                dice[pairs++] = approximate == null
+                                        ? DiceSimilarity.calculate(documentI.getTokens(), documentJ.getTokens())
+                                        : MinHash.estimateDice(documentI.getSignature(), documentJ.getSignature());
+                            }
+                        }
+
+                        for (var p = pairs; p < rows.length; p++)
+                            rows[p] = -1;
+
+                        consumer.accept(rows, columns, dice);
+
+                        var done = comparedPairs.addAndGet(pairs);
+                        if (listener != null)
+                            listener.onProgress(done, totalPairs);
+                    }
+
+                    return null;
+                });
+            }
+
+            scope.join();
+            scope.throwIfFailed(e -> e instanceof Exception ex ? ex : new Exception(e));
+        }
+
+        if (listener != null)
+            listener.onFinish();
+    }
+
+    /**
+     * Quotes a document name for a CSV file if needed.
+     *
+     * @param document the document
+     * @return the CSV field
+     */
+    private static String csv(Document document) {
+        var name = document.toString();
+
+        if (name.contains(",") || name.contains("\"") || name.contains("\n"))
+            return "\"" + name.replace("\"", "\"\"") + "\"";
+
+        return name;
+    }
+
+    /**
+     * Bounded set of the most similar neighbours of one document, kept as a
+     * min-heap on the similarity.
+     *
+     * Equal similarities are ordered by document index, the lower index
+     * ranking higher, so the same neighbours are kept whichever worker
+     * offers them first.
+     */
+    static class TopK {
+        /** Neighbour document indexes */
+        final int[] ids;
+
+        /** Neighbour similarities */
+        final double[] scores;
+
+        /** Number of neighbours kept */
+        private int size;
+
+        /**
+         * Creates an empty neighbour set.
+         *
+         * @param k maximum number of neighbours
+         */
+        TopK(int k) {
+            ids = new int[k];
+            scores = new double[k];
+        }
+
+        /**
+         * Offers a neighbour, keeping it if it is among the best {@code k}.
+         *
+         * @param id    the neighbour document index
+         * @param score the similarity
+         */
+        synchronized void offer(int id, double score) {
+            if (ids.length == 0)
+                return;
+
+            if (size < ids.length) {
+                ids[size] = id;
+                scores[size] = score;
+                siftUp(size++);
+            } else if (score > scores[0] || score == scores[0] && id < ids[0]) {
+                ids[0] = id;
+                scores[0] = score;
+                siftDown(0);
+            }
+        }
+
+        /**
+         * Returns the heap positions ordered by descending similarity.
+         *
+         * @return the positions
+         */
+        synchronized int[] sortedIndexes() {
+            var order = new ArrayList<Integer>();
+            for (var i = 0; i < size; i++)
+                order.add(i);
+
+            order.sort((x, y) -> scores[x] != scores[y]
+                    ? Double.compare(scores[y], scores[x])
+                    : Integer.compare(ids[x], ids[y]));
+
+            return order.stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        /**
+         * Checks whether the neighbour at one heap position ranks below the
+         * one at another.
+         */
+        private boolean isWorse(int a, int b) {
+            return scores[a] != scores[b] ? scores[a] < scores[b] : ids[a] > ids[b];
+        }
+
+        private void siftUp(int i) {
+            while (i > 0 && isWorse(i, (i - 1) / 2)) {
+                swap(i, (i - 1) / 2);
+                i = (i - 1) / 2;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                var smallest = i;
+                var left = 2 * i + 1;
+                var right = left + 1;
+
+                if (left < size && isWorse(left, smallest))
+                    smallest = left;
+                if (right < size && isWorse(right, smallest))
+                    smallest = right;
+                if (smallest == i)
+                    return;
+
+                swap(i, smallest);
+                i = smallest;
+            }
+        }
+
+        private void swap(int a, int b) {
+            var id = ids[a];
+            ids[a] = ids[b];
+            ids[b] = id;
+
+            var score = scores[a];
+            scores[a] = scores[b];
+            scores[b] = score;
+        }
+    }
+}
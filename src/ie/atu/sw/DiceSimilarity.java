@@ -1,24 +1,65 @@
 package ie.atu.sw;
 
 import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Utility class for calculating text similarity using the Sørensen–Dice
  * coefficient.
  *
- * This implementation operates on sets of unique tokens.
+ * This implementation operates on sets of unique tokens stored as IDs from a
+ * shared {@link TokenDictionary}. The intersection is computed by a
+ * primitive, allocation-free kernel that picks one of three strategies
+ * based on the cardinalities of the sets:
+ * <ul>
+ * <li>bitmap AND with popcount when both sets are dense</li>
+ * <li>galloping search when one set is much larger than the other</li>
+ * <li>linear merge of the sorted ID arrays otherwise</li>
+ * </ul>
+ *
+ * The calculation is pure and silent. Progress can optionally be observed
+ * through a {@link ProgressListener}. The latency of every calculation and
+ * the number of compared elements are recorded in {@link Metrics} under
+ * {@code dice}, and every calculation is a
+ * {@link PipelineEvents.SimilarityCalculation} for Java Flight Recorder.
  */
 public class DiceSimilarity {
+    /** Strategies used to intersect two sets of token IDs */
+    enum Strategy {
+        /** Linear merge of two sorted arrays */
+        MERGE,
+
+        /** Exponential search of the larger array for every smaller element */
+        GALLOP,
+
+        /** AND and popcount over the overlapping bitmap words */
+        BITMAP
+    }
+
+    /** Size ratio from which galloping search beats a linear merge */
+    private static final int GALLOP_RATIO = 32;
+
+    /** Number of elements (or bitmap words) processed between progress updates */
+    private static final int PROGRESS_STEP = 1 << 16;
+
+    /** Latencies of the calculations */
+    private static final Metrics.Phase DICE = Metrics.phase("dice");
+
+    /** Number of compared tokens, shingles or token occurrences */
+    private static final LongAdder DICE_ELEMENTS = Metrics.counter("dice_elements");
+
     /**
      * Calculates the Sørensen–Dice similarity coefficient for two token sets.
      *
      * The coefficient is defined as:
-     * 
+     *
      * <pre>
      *     Dice = 2 × |A ∩ B| / (|A| + |B|)
      * </pre>
      *
-     * This method assumes that both input sets are non-null.
+     * This method assumes that both input sets are non-null. It is an adapter
+     * that interns both sets in a temporary dictionary and delegates to
+     * {@link #calculate(TokenIdSet, TokenIdSet)}.
      *
      * @param tokensA the first set of tokens
      * @param tokensB the second set of tokens
@@ -28,64 +69,364 @@ public class DiceSimilarity {
             Set<String> tokensA,
             Set<String> tokensB) {
 
-        return 2d * DiceSimilarity.intersectionSize(tokensA, tokensB) / (tokensA.size() + tokensB.size());
+        var dictionary = new HeapTokenDictionary();
+
+        return calculate(TokenIdSet.of(tokensA, dictionary), TokenIdSet.of(tokensB, dictionary));
+    }
+
+    /**
+     * Calculates the Sørensen–Dice similarity coefficient for two sets of
+     * token IDs.
+     *
+     * Both sets must use IDs from the same dictionary.
+     *
+     * @param tokensA the first set of token IDs
+     * @param tokensB the second set of token IDs
+     * @return the Sørensen–Dice similarity coefficient
+     */
+    public static double calculate(
+            TokenIdSet tokensA,
+            TokenIdSet tokensB) {
+
+        return calculate(tokensA, tokensB, null);
+    }
+
+    /**
+     * Calculates the Sørensen–Dice similarity coefficient for two sets of
+     * token IDs, reporting the progress of the calculation.
+     *
+     * @param tokensA  the first set of token IDs
+     * @param tokensB  the second set of token IDs
+     * @param listener the listener receiving progress updates, or
+     *                 {@code null} for none
+     * @return the Sørensen–Dice similarity coefficient
+     */
+    public static double calculate(
+            TokenIdSet tokensA,
+            TokenIdSet tokensB,
+            ProgressListener listener) {
+
+        var event = new PipelineEvents.SimilarityCalculation();
+        event.begin();
+        var start = System.nanoTime();
+        var similarity = 2d * DiceSimilarity.intersectionSize(tokensA, tokensB, listener)
+                / (tokensA.size() + tokensB.size());
+
+        DICE.record(start);
+        DICE_ELEMENTS.add(tokensA.size() + tokensB.size());
+        if (event.shouldCommit())
+            event.commit(tokensA.size(), tokensB.size(), similarity, (tokensA.size() <= tokensB.size()
+                    ? chooseStrategy(tokensA, tokensB) : chooseStrategy(tokensB, tokensA)).name());
+
+        return similarity;
+    }
+
+    /**
+     * Calculates the weighted Sørensen–Dice similarity coefficient for two
+     * bags of token IDs, taking the number of occurrences into account.
+     *
+     * The coefficient is defined as:
+     *
+     * <pre>
+     *     Dice = 2 × Σ min(fa, fb) / (Σ fa + Σ fb)
+     * </pre>
+     *
+     * where fa and fb are the counts of a token in both bags. For bags with
+     * every count equal to one it equals the set coefficient. The sums are
+     * computed by a linear merge of the sorted IDs.
+     *
+     * @param bagA the first bag of token IDs
+     * @param bagB the second bag of token IDs
+     * @return the weighted Sørensen–Dice similarity coefficient
+     */
+    public static double calculate(TokenBag bagA, TokenBag bagB) {
+        var event = new PipelineEvents.SimilarityCalculation();
+        event.begin();
+        var start = System.nanoTime();
+        var common = 0L;
+        var i = 0;
+        var j = 0;
+
+        while (i < bagA.size() && j < bagB.size()) {
+            var a = bagA.id(i);
+            var b = bagB.id(j);
+
+            if (a < b) {
+                i++;
+            } else if (a > b) {
+                j++;
+            } else {
+                common += Math.min(bagA.count(i++), bagB.count(j++));
+            }
+        }
+
+        var similarity = 2d * common / (bagA.total() + bagB.total());
+
+        DICE.record(start);
+        DICE_ELEMENTS.add(bagA.total() + bagB.total());
+        event.commit(bagA.total(), bagB.total(), similarity, "MULTISET");
+
+        return similarity;
+    }
+
+    /**
+     * Calculates the Sørensen–Dice similarity coefficient for two sets of
+     * shingle fingerprints.
+     *
+     * Works like {@link #calculate(Set, Set)} on the shingles, with the
+     * intersection counted by a linear merge of the sorted fingerprints.
+     *
+     * @param shinglesA the first set of shingles
+     * @param shinglesB the second set of shingles
+     * @return the Sørensen–Dice similarity coefficient
+     * @throws IllegalArgumentException if the sets were made differently
+     */
+    public static double calculate(ShingleSet shinglesA, ShingleSet shinglesB) {
+        shinglesA.checkCompatible(shinglesB);
+
+        var event = new PipelineEvents.SimilarityCalculation();
+        event.begin();
+        var start = System.nanoTime();
+        var common = 0;
+        var i = 0;
+        var j = 0;
+
+        while (i < shinglesA.size() && j < shinglesB.size()) {
+            var a = shinglesA.get(i);
+            var b = shinglesB.get(j);
+
+            if (a < b) {
+                i++;
+            } else if (a > b) {
+                j++;
+            } else {
+                common++;
+                i++;
+                j++;
+            }
+        }
+
+        var similarity = 2d * common / (shinglesA.size() + shinglesB.size());
+
+        DICE.record(start);
+        DICE_ELEMENTS.add(shinglesA.size() + shinglesB.size());
+        event.commit(shinglesA.size(), shinglesB.size(), similarity, "SHINGLES");
+
+        return similarity;
     }
 
     /**
-     * Calculates the size of the intersection of two token sets.
+     * Chooses the cheapest intersection strategy for two sets.
      *
-     * For performance reasons, the method always iterates over the smaller
-     * of the two sets and checks membership in the larger set.
+     * @param smaller the smaller set
+     * @param larger  the larger set
+     * @return the strategy to use
+     */
+    static Strategy chooseStrategy(TokenIdSet smaller, TokenIdSet larger) {
+        // A dense bitmap covers at least 64 / 16 = 4 IDs per word
+        if (smaller.isDense() && larger.isDense())
+            return Strategy.BITMAP;
+
+        if (larger.size() / GALLOP_RATIO > smaller.size())
+            return Strategy.GALLOP;
+
+        return Strategy.MERGE;
+    }
+
+    /**
+     * Calculates the size of the intersection of two sets of token IDs.
      *
-     * This method also produces console output showing the progress of the
-     * intersection calculation.
+     * The work is split into steps of {@value #PROGRESS_STEP} elements of the
+     * smaller set (or bitmap words), and the listener, if any, is notified
+     * after every step.
      *
-     * @param a the first token set
-     * @param b the second token set
-     * @return the number of common elements in both sets
+     * @param a        the first set of token IDs
+     * @param b        the second set of token IDs
+     * @param listener the listener receiving progress updates, or
+     *                 {@code null} for none
+     * @return the number of common IDs in both sets
      */
     private static int intersectionSize(
-            Set<String> a,
-            Set<String> b) {
+            TokenIdSet a,
+            TokenIdSet b,
+            ProgressListener listener) {
 
-        var intersection = 0;
-        var counter = 0;
+        var smaller = a.size() <= b.size() ? a : b;
+        var larger = smaller == a ? b : a;
+
+        return intersectionSize(a, b, chooseStrategy(smaller, larger), listener);
+    }
+
+    /**
+     * Calculates the size of the intersection of two sets of token IDs with
+     * a given strategy, whichever is the cheapest. Used to check that all
+     * strategies agree.
+     *
+     * @param a        the first set of token IDs
+     * @param b        the second set of token IDs
+     * @param strategy the intersection strategy
+     * @return the number of common IDs in both sets
+     */
+    static int intersectionSize(TokenIdSet a, TokenIdSet b, Strategy strategy) {
+        return intersectionSize(a, b, strategy, null);
+    }
+
+    /**
+     * Calculates the size of the intersection of two sets of token IDs with
+     * a given strategy, reporting the progress.
+     *
+     * @param a        the first set of token IDs
+     * @param b        the second set of token IDs
+     * @param strategy the intersection strategy
+     * @param listener the listener receiving progress updates, or
+     *                 {@code null} for none
+     * @return the number of common IDs in both sets
+     */
+    private static int intersectionSize(
+            TokenIdSet a,
+            TokenIdSet b,
+            Strategy strategy,
+            ProgressListener listener) {
 
-        System.out.println("Process:");
-        System.out.print(ConsoleColour.YELLOW_BOLD_BRIGHT);
+        // For optimization purposes, we always drive the smaller set
+        var smaller = a.size() <= b.size() ? a : b;
+        var larger = smaller == a ? b : a;
+        var intersection = 0;
 
-        // For optimization purposes, we iterate over a smaller set of tokens
-        if (a.size() < b.size()) {
-            var iter = a.iterator();
-            var total = a.size();
+        if (strategy == Strategy.BITMAP) {
+            var from = Math.max(smaller.bitmapBase(), larger.bitmapBase());
+            var to = Math.min(smaller.bitmapBase() + smaller.bitmap().length,
+                    larger.bitmapBase() + larger.bitmap().length);
 
-            while (iter.hasNext()) {
-                var token = iter.next();
+            if (listener != null)
+                listener.onStart(Math.max(0, to - from));
 
-                if (b.contains(token))
-                    intersection += 1;
+            for (var step = from; step < to; step += PROGRESS_STEP) {
+                intersection += bitmapIntersection(smaller, larger, step, Math.min(step + PROGRESS_STEP, to));
 
-                counter += 1;
-                ConsoleIO.printProgress(counter, total);
+                if (listener != null)
+                    listener.onProgress(Math.min(step + PROGRESS_STEP, to) - from, to - from);
             }
         } else {
-            var iter = b.iterator();
-            var total = b.size();
+            var s = smaller.ids();
+            var l = larger.ids();
 
-            while (iter.hasNext()) {
-                var token = iter.next();
+            if (listener != null)
+                listener.onStart(s.length);
 
-                if (a.contains(token))
-                    intersection += 1;
+            for (var step = 0; step < s.length; step += PROGRESS_STEP) {
+                var end = Math.min(step + PROGRESS_STEP, s.length);
 
-                counter += 1;
-                ConsoleIO.printProgress(counter, total);
+                // Only the part of the larger array within this step's value range
+                var lFrom = lowerBound(l, 0, l.length, s[step]);
+                var lTo = lowerBound(l, lFrom, l.length, s[end - 1] + 1);
+
+                intersection += strategy == Strategy.GALLOP
+                        ? gallopIntersection(s, step, end, l, lFrom, lTo)
+                        : mergeIntersection(s, step, end, l, lFrom, lTo);
+
+                if (listener != null)
+                    listener.onProgress(end, s.length);
             }
         }
 
-        System.out.print(ConsoleColour.BLACK_BOLD_BRIGHT);
-        System.out.println();
+        if (listener != null)
+            listener.onFinish();
 
         return intersection;
     }
+
+    /**
+     * Counts common elements of two sorted array ranges by a linear merge.
+     *
+     * @return the number of common elements
+     */
+    private static int mergeIntersection(int[] s, int sFrom, int sTo, int[] l, int lFrom, int lTo) {
+        var intersection = 0;
+        var i = sFrom;
+        var j = lFrom;
+
+        while (i < sTo && j < lTo) {
+            if (s[i] < l[j]) {
+                i++;
+            } else if (s[i] > l[j]) {
+                j++;
+            } else {
+                intersection++;
+                i++;
+                j++;
+            }
+        }
+
+        return intersection;
+    }
+
+    /**
+     * Counts common elements of two sorted array ranges by exponential
+     * (galloping) search of every element of the smaller range in the larger
+     * one. Costs O(|s| log(|l| / |s|)) instead of O(|s| + |l|).
+     *
+     * @return the number of common elements
+     */
+    private static int gallopIntersection(int[] s, int sFrom, int sTo, int[] l, int lFrom, int lTo) {
+        var intersection = 0;
+        var j = lFrom;
+
+        for (var i = sFrom; i < sTo && j < lTo; i++) {
+            var value = s[i];
+
+            // Gallop forward until the value is bracketed
+            var bound = 1;
+            while (j + bound < lTo && l[j + bound] < value)
+                bound <<= 1;
+
+            j = lowerBound(l, j + (bound >>> 1), Math.min(j + bound + 1, lTo), value);
+
+            if (j < lTo && l[j] == value)
+                intersection++;
+        }
+
+        return intersection;
+    }
+
+    /**
+     * Counts common elements of two sets over a range of bitmap words.
+     *
+     * @param a    the first set
+     * @param b    the second set
+     * @param from first absolute word index
+     * @param to   word index after the last one
+     * @return the number of common elements
+     */
+    private static int bitmapIntersection(TokenIdSet a, TokenIdSet b, int from, int to) {
+        var wordsA = a.bitmap();
+        var wordsB = b.bitmap();
+        var offsetA = a.bitmapBase();
+        var offsetB = b.bitmapBase();
+        var intersection = 0;
+
+        for (var w = from; w < to; w++)
+            intersection += Long.bitCount(wordsA[w - offsetA] & wordsB[w - offsetB]);
+
+        return intersection;
+    }
+
+    /**
+     * Finds the first index in a sorted array range whose value is not less
+     * than the given value.
+     *
+     * @return the index, or {@code to} if all values are smaller
+     */
+    private static int lowerBound(int[] array, int from, int to, int value) {
+        while (from < to) {
+            var mid = (from + to) >>> 1;
+
+            if (array[mid] < value)
+                from = mid + 1;
+            else
+                to = mid;
+        }
+
+        return from;
+    }
 }
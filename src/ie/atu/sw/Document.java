@@ -0,0 +1,219 @@
+package ie.atu.sw;
+
+import java.nio.file.Path;
+
+/**
+ * A loaded text document: the file it was read from, its token set and,
+ * optionally, its MinHash signature, the occurrence counts of its tokens and
+ * the fingerprints of its shingles.
+ *
+ * A document can also carry the result of a {@link StopWordFilter} computed
+ * once, when the document was loaded or the stop-word list changed: a mask
+ * with one bit per token marking the stop-words, and their number. Filtering
+ * and noise analysis then never look at the tokens again.
+ *
+ * A document loaded by {@link TextLoader} also carries a {@link Checkpoint}
+ * of the complete lines it has ingested, so that a file which has only grown
+ * since can be reloaded by tokenizing just the new tail.
+ */
+public class Document {
+    /**
+     * State of the ingested prefix of a file, made of complete lines only.
+     *
+     * @param offset    length of the prefix in bytes, just after a line
+     *                  terminator or 0
+     * @param checksum  CRC32C checksum of the prefix
+     * @param tokens    unique token IDs of the prefix
+     * @param signature MinHash signature of the prefix tokens, or null
+     * @param minHash   the signature scheme, or null if none
+     * @param bag       token counts of the prefix, or null if not counted
+     * @param shingles  shingle fingerprints of the prefix, or null if not
+     *                  shingled
+     */
+    public record Checkpoint(long offset, long checksum, TokenIdSet tokens, long[] signature, MinHash minHash,
+            TokenBag bag, ShingleSet shingles) {
+    }
+
+    /** Path of the source file */
+    private final Path path;
+
+    /** Unique token IDs of the document */
+    private final TokenIdSet tokens;
+
+    /** MinHash signature of the tokens, or null if not computed */
+    private final long[] signature;
+
+    /** Occurrence counts of the tokens, or null if not counted */
+    private final TokenBag bag;
+
+    /** Shingle fingerprints of the document, or null if not shingled */
+    private final ShingleSet shingles;
+
+    /** Filter the stop-word mask was computed with, or null if none */
+    private final StopWordFilter stopWordFilter;
+
+    /** Bit i is set if token i of the sorted token set is a stop-word */
+    private final long[] stopWordMask;
+
+    /** Number of stop-words among the tokens */
+    private final int noiseCount;
+
+    /** Ingested prefix of the source file, or null if unknown */
+    private final Checkpoint checkpoint;
+
+    /**
+     * Creates a document without a signature.
+     *
+     * @param path   path of the source file
+     * @param tokens unique token IDs of the document
+     */
+    public Document(Path path, TokenIdSet tokens) {
+        this(path, tokens, null);
+    }
+
+    /**
+     * Creates a document.
+     *
+     * @param path      path of the source file
+     * @param tokens    unique token IDs of the document
+     * @param signature MinHash signature of the tokens, or {@code null}
+     */
+    public Document(Path path, TokenIdSet tokens, long[] signature) {
+        this(path, tokens, signature, null, null, null, null, 0, null);
+    }
+
+    private Document(Path path, TokenIdSet tokens, long[] signature, TokenBag bag, ShingleSet shingles,
+            StopWordFilter stopWordFilter, long[] stopWordMask, int noiseCount, Checkpoint checkpoint) {
+        this.path = path;
+        this.tokens = tokens;
+        this.signature = signature;
+        this.bag = bag;
+        this.shingles = shingles;
+        this.stopWordFilter = stopWordFilter;
+        this.stopWordMask = stopWordMask;
+        this.noiseCount = noiseCount;
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * Returns a copy of the document carrying a stop-word mask.
+     *
+     * @param stopWordFilter the filter the mask was computed with
+     * @param stopWordMask   bit i set if token i is a stop-word
+     * @param noiseCount     the number of stop-words
+     * @return the document with the mask
+     */
+    Document withStopWords(StopWordFilter stopWordFilter, long[] stopWordMask, int noiseCount) {
+        return new Document(path, tokens, signature, bag, shingles, stopWordFilter, stopWordMask, noiseCount,
+                checkpoint);
+    }
+
+    /**
+     * Returns a copy of the document carrying the occurrence counts of its
+     * tokens.
+     *
+     * @param bag the token counts, with the same distinct tokens
+     * @return the document with the counts
+     */
+    Document withBag(TokenBag bag) {
+        return new Document(path, tokens, signature, bag, shingles, stopWordFilter, stopWordMask, noiseCount,
+                checkpoint);
+    }
+
+    /**
+     * Returns a copy of the document carrying the fingerprints of its
+     * shingles.
+     *
+     * @param shingles the shingle fingerprints
+     * @return the document with the shingles
+     */
+    Document withShingles(ShingleSet shingles) {
+        return new Document(path, tokens, signature, bag, shingles, stopWordFilter, stopWordMask, noiseCount,
+                checkpoint);
+    }
+
+    /**
+     * Returns a copy of the document carrying a checkpoint.
+     *
+     * @param checkpoint the ingested prefix of the source file
+     * @return the document with the checkpoint
+     */
+    Document withCheckpoint(Checkpoint checkpoint) {
+        return new Document(path, tokens, signature, bag, shingles, stopWordFilter, stopWordMask, noiseCount,
+                checkpoint);
+    }
+
+    /** Returns the path of the source file */
+    public Path getPath() {
+        return path;
+    }
+
+    /** Returns the unique token IDs of the document */
+    public TokenIdSet getTokens() {
+        return tokens;
+    }
+
+    /** Returns the MinHash signature of the tokens, or null if not computed */
+    public long[] getSignature() {
+        return signature;
+    }
+
+    /** Returns the occurrence counts of the tokens, or null if not counted */
+    public TokenBag getBag() {
+        return bag;
+    }
+
+    /** Returns the shingle fingerprints of the document, or null if not shingled */
+    public ShingleSet getShingles() {
+        return shingles;
+    }
+
+    /** Returns the filter the stop-word mask was computed with, or null if none */
+    public StopWordFilter getStopWordFilter() {
+        return stopWordFilter;
+    }
+
+    /** Returns the stop-word mask over the sorted tokens, or null if none */
+    long[] getStopWordMask() {
+        return stopWordMask;
+    }
+
+    /** Returns the number of stop-words among the tokens */
+    public int getNoiseCount() {
+        return noiseCount;
+    }
+
+    /** Returns the ingested prefix of the source file, or null if unknown */
+    public Checkpoint getCheckpoint() {
+        return checkpoint;
+    }
+
+    /**
+     * Returns the approximate memory used by the document.
+     *
+     * @return the size in bytes, including the tokens, signature, counts,
+     *         shingles, mask and checkpoint
+     */
+    public long memoryFootprint() {
+        var footprint = 64 + tokens.memoryFootprint()
+                + (bag == null ? 0 : bag.memoryFootprint())
+                + (shingles == null ? 0 : shingles.memoryFootprint())
+                + (signature == null ? 0 : 16 + 8L * signature.length)
+                + (stopWordMask == null ? 0 : 16 + 8L * stopWordMask.length);
+
+        // The checkpoint shares the token set if the file ends with a line
+        if (checkpoint != null && checkpoint.tokens() != tokens)
+            footprint += 56 + checkpoint.tokens().memoryFootprint()
+                    + (checkpoint.signature() == null ? 0 : 16 + 8L * checkpoint.signature().length)
+                    + (checkpoint.bag() == null ? 0 : checkpoint.bag().memoryFootprint())
+                    + (checkpoint.shingles() == null ? 0 : checkpoint.shingles().memoryFootprint());
+
+        return footprint;
+    }
+
+    /** Returns the file name of the document */
+    @Override
+    public String toString() {
+        return path.getFileName().toString();
+    }
+}
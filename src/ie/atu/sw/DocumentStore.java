@@ -0,0 +1,366 @@
+package ie.atu.sw;
+
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe, in-memory store of tokenized documents kept resident between
+ * comparisons.
+ *
+ * Documents are registered from files or uploaded as text and identified by
+ * short IDs. All documents share one {@link TokenDictionary}, so comparing
+ * two of them is a Dice computation over their token IDs without touching
+ * the text again. Registering a file again reloads it under the same ID, and
+ * only tokenizes what was appended if the file has only grown.
+ *
+ * A stop-word list can be loaded at any time; every stored document is
+ * marked once, and filtered token sets are cached per document and list.
+ *
+ * The dictionary can be kept off the heap in an
+ * {@link OffHeapTokenDictionary}, whose memory is released when the store is
+ * closed. The dictionary only grows: removing a document or reloading a file
+ * keeps its tokens, on or off the heap, until the store is closed.
+ */
+public class DocumentStore implements AutoCloseable {
+    /** Memory limit of the filtered token sets in bytes */
+    private static final long FILTER_CACHE_BYTES = 128L << 20;
+
+    /**
+     * A stored document found by a similarity query.
+     *
+     * @param id       the ID of the document
+     * @param document the document
+     * @param dice     its exact Sørensen–Dice similarity to the query
+     */
+    public record StoredMatch(String id, Document document, double dice) {
+    }
+
+    /**
+     * A stored document and the stop-word filter applied to its tokens. The
+     * key holds no token set, so a cached entry weighs only its value.
+     */
+    private record FilterKey(String id, StopWordFilter filter) {
+    }
+
+    /** Dictionary shared by all stored documents */
+    private final TokenDictionary dictionary;
+
+    /** Preprocessor of uploaded text */
+    private final TextPreprocessor textPreprocessor = new TextPreprocessor();
+
+    /** Loader of registered files */
+    private final TextLoader textLoader;
+
+    /** Stored documents by ID */
+    private final Map<String, Document> documents = new ConcurrentHashMap<>();
+
+    /** IDs of registered files by absolute path */
+    private final Map<Path, String> fileIds = new ConcurrentHashMap<>();
+
+    /** Source of new IDs */
+    private final AtomicLong nextId = new AtomicLong(1);
+
+    /** Stop-word filtered token sets of the stored documents */
+    private final WeightedLruCache<FilterKey, TokenIdSet> filterCache = new WeightedLruCache<>(
+            FILTER_CACHE_BYTES, (key, tokens) -> tokens.memoryFootprint());
+
+    /** Current stop-word filter, or null if no list was loaded */
+    private volatile StopWordFilter stopWordFilter = null;
+
+    /**
+     * Creates an empty store with a dictionary on the heap.
+     */
+    public DocumentStore() {
+        this(new HeapTokenDictionary());
+    }
+
+    /**
+     * Creates an empty store whose documents share the given dictionary. The
+     * store takes ownership of the dictionary and closes it with itself.
+     *
+     * @param dictionary the token dictionary
+     */
+    public DocumentStore(TokenDictionary dictionary) {
+        this.dictionary = dictionary;
+        this.textLoader = new TextLoader(textPreprocessor, dictionary);
+    }
+
+    /** Returns the number of worker threads used for text preprocessing */
+    public int getParallelism() {
+        return textLoader.getParallelism();
+    }
+
+    /**
+     * Sets the number of worker threads used for text preprocessing.
+     *
+     * @param parallelism the number of workers, at least one
+     * @throws IllegalArgumentException if the number is less than one
+     */
+    public void setParallelism(int parallelism) {
+        textLoader.setParallelism(parallelism);
+    }
+
+    /** Returns the number of stored documents */
+    public int size() {
+        return documents.size();
+    }
+
+    /** Returns the current stop-word filter, or null if no list was loaded */
+    public StopWordFilter getStopWordFilter() {
+        return stopWordFilter;
+    }
+
+    /**
+     * Returns the ID of a registered file.
+     *
+     * @param path path to the text file
+     * @return the ID, or {@code null} if the file is not registered
+     */
+    public String getId(Path path) {
+        return fileIds.get(path.toAbsolutePath().normalize());
+    }
+
+    /**
+     * Loads a file into the store. A file registered before keeps its ID and
+     * is reloaded, incrementally if it has only grown.
+     *
+     * @param path path to the text file
+     * @return the ID of the document
+     * @throws Exception if the file cannot be read or has too few tokens
+     */
+    public String register(Path path) throws Exception {
+        var absolute = path.toAbsolutePath().normalize();
+        var id = fileIds.computeIfAbsent(absolute, p -> String.valueOf(nextId.getAndIncrement()));
+        var previous = documents.get(id);
+
+        try {
+            var filter = stopWordFilter;
+            var document = previous != null ? textLoader.reload(previous, null, filter, null)
+                    : textLoader.loadDocument(absolute, null, filter, null);
+
+            checkMinimumTokensNumber(document);
+            documents.put(id, document);
+            filterCache.removeIf(k -> k.id().equals(id));
+        } catch (Exception e) {
+            if (previous == null)
+                fileIds.remove(absolute, id);
+            throw e;
+        }
+
+        return id;
+    }
+
+    /**
+     * Tokenizes a text and adds it to the store.
+     *
+     * @param name the name of the document
+     * @param text the raw text
+     * @return the ID of the document
+     * @throws Exception if the name is invalid or the text has too few tokens
+     */
+    public String upload(String name, String text) throws Exception {
+        Path path;
+
+        try {
+            path = Path.of(name);
+        } catch (InvalidPathException e) {
+            throw new Exception("Invalid document name: " + name);
+        }
+
+        var tokens = new HashSet<String>();
+        textPreprocessor.preprocess(text, tokens);
+
+        var document = new Document(path, TokenIdSet.of(tokens, dictionary));
+        checkMinimumTokensNumber(document);
+
+        var filter = stopWordFilter;
+        if (filter != null)
+            document = filter.apply(document);
+
+        var id = String.valueOf(nextId.getAndIncrement());
+        documents.put(id, document);
+
+        return id;
+    }
+
+    /**
+     * Returns a stored document.
+     *
+     * @param id the ID of the document
+     * @return the document, or {@code null} if there is none with this ID
+     */
+    public Document get(String id) {
+        return documents.get(id);
+    }
+
+    /**
+     * Removes a document from the store. Its tokens stay in the dictionary
+     * until the store is closed.
+     *
+     * @param id the ID of the document
+     * @return {@code true} if the document was stored
+     */
+    public boolean remove(String id) {
+        fileIds.values().remove(id);
+
+        var isRemoved = documents.remove(id) != null;
+        filterCache.removeIf(k -> k.id().equals(id));
+
+        return isRemoved;
+    }
+
+    /**
+     * Returns a snapshot of all stored documents.
+     *
+     * @return the documents by ID, in the order they were added
+     */
+    public Map<String, Document> getDocuments() {
+        var snapshot = new TreeMap<String, Document>(
+                Comparator.comparingInt(String::length).thenComparing(Comparator.naturalOrder()));
+        snapshot.putAll(documents);
+
+        return snapshot;
+    }
+
+    /**
+     * Replaces the stop-word list and marks the stop-words of every stored
+     * document.
+     *
+     * @param stopWords the stop-words
+     * @return the number of stop-words
+     */
+    public int setStopWords(Set<String> stopWords) {
+        var filter = new StopWordFilter(stopWords, TextComparator.MIN_TOKENS, dictionary);
+
+        stopWordFilter = filter;
+        documents.replaceAll((id, document) -> filter.apply(document));
+        filterCache.clear();
+
+        return filter.getSize();
+    }
+
+    /**
+     * Calculates the Sørensen–Dice similarity of two stored documents.
+     *
+     * @param idA       the ID of the first document
+     * @param idB       the ID of the second document
+     * @param filtering whether stop-words are removed first
+     * @return the similarity
+     * @throws Exception if a document is not stored, no stop-word list was
+     *                   loaded for filtering or too few tokens remain
+     */
+    public double compare(String idA, String idB, boolean filtering) throws Exception {
+        return DiceSimilarity.calculate(tokens(idA, filtering), tokens(idB, filtering));
+    }
+
+    /**
+     * Ranks all other stored documents by their similarity to one of them.
+     *
+     * Documents with too few tokens left after filtering are skipped.
+     *
+     * @param id        the ID of the query document
+     * @param filtering whether stop-words are removed first
+     * @param limit     the maximum number of matches
+     * @return the most similar documents, most similar first
+     * @throws Exception if the document is not stored, no stop-word list was
+     *                   loaded for filtering or too few tokens remain
+     */
+    public List<StoredMatch> rank(String id, boolean filtering, int limit) throws Exception {
+        var query = tokens(id, filtering);
+        var matches = new ArrayList<StoredMatch>();
+
+        for (var entry : documents.entrySet()) {
+            if (entry.getKey().equals(id))
+                continue;
+
+            try {
+                var tokens = filtering ? filtered(entry.getKey(), entry.getValue()) : entry.getValue().getTokens();
+                matches.add(new StoredMatch(entry.getKey(), entry.getValue(),
+                        DiceSimilarity.calculate(query, tokens)));
+            } catch (Exception e) {
+                // Too few tokens after filtering - not comparable
+            }
+        }
+
+        matches.sort(Comparator.comparingDouble(StoredMatch::dice).reversed()
+                .thenComparing(StoredMatch::id));
+
+        return matches.size() > limit ? new ArrayList<>(matches.subList(0, limit)) : matches;
+    }
+
+    /**
+     * Removes all documents and releases the dictionary. The store cannot be
+     * used afterwards.
+     */
+    @Override
+    public void close() {
+        documents.clear();
+        fileIds.clear();
+        dictionary.close();
+    }
+
+    /**
+     * Returns the token set of a stored document used for comparison.
+     *
+     * @param id        the ID of the document
+     * @param filtering whether stop-words are removed
+     * @return the token set
+     * @throws Exception if the document is not stored, no stop-word list was
+     *                   loaded for filtering or too few tokens remain
+     */
+    private TokenIdSet tokens(String id, boolean filtering) throws Exception {
+        var document = documents.get(id);
+
+        if (document == null)
+            throw new Exception("Unknown document: " + id);
+
+        return filtering ? filtered(id, document) : document.getTokens();
+    }
+
+    /**
+     * Returns the stop-word filtered token set of a document, computing it
+     * only once per document and stop-word list.
+     *
+     * @param id       the ID of the document
+     * @param document the document stored under the ID
+     * @return the filtered token set
+     * @throws Exception if no stop-word list was loaded or too few tokens
+     *                   remain after filtering
+     */
+    private TokenIdSet filtered(String id, Document document) throws Exception {
+        var filter = stopWordFilter;
+
+        if (filter == null)
+            throw new Exception("Upload Stop Words List or disable filtering!!!");
+
+        var key = new FilterKey(id, filter);
+        var tokens = filterCache.get(key, k -> k.filter().filter(document));
+
+        // Replaced or removed while filtering - the entry may be stale
+        if (documents.get(id) != document)
+            filterCache.remove(key);
+
+        return tokens;
+    }
+
+    /**
+     * Ensures that a document contains at least the minimum required number
+     * of tokens.
+     *
+     * @param document the document
+     * @throws Exception if the document is too small
+     */
+    private static void checkMinimumTokensNumber(Document document) throws Exception {
+        if (document.getTokens().size() < TextComparator.MIN_TOKENS)
+            throw new Exception("A minimum of three unique tokens is required!!!");
+    }
+}
@@ -1,28 +1,347 @@
 package ie.atu.sw;
 
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
 
 /**
  * Helper Class for Input/Output with files
+ *
+ * Reading and decoding is timed in {@link Metrics} under {@code file_read}.
  */
 public class FileIO {
+    /** Smallest block size able to hold any UTF-8 sequence */
+    public static final int MIN_BLOCK_SIZE = 4;
+
+    /** Number of bytes checksummed or digested at once */
+    private static final long CHECKSUM_CHUNK = 1 << 30;
+
+    /** Latencies of reading and decoding files or blocks */
+    private static final Metrics.Phase FILE_READ = Metrics.phase("file_read");
+
+    /** Number of bytes read */
+    private static final LongAdder FILE_READ_BYTES = Metrics.counter("file_read_bytes");
+
+    /**
+     * Receives consecutive blocks of a text file read by
+     * {@link FileIO#readBlocks(Path, int, BlockConsumer)}.
+     */
+    @FunctionalInterface
+    public interface BlockConsumer {
+        /**
+         * Accepts the next block of text.
+         *
+         * @param block     the decoded text, ending at a line or word boundary
+         * @param bytesRead the number of bytes read from the file so far
+         * @throws Exception if the block cannot be processed
+         */
+        void accept(String block, long bytesRead) throws Exception;
+    }
 
     /**
      * Method read text file and return result as List of String
-     * 
+     *
      * @param filePath - path to reading text file
      * @return List of strings if the file reading is successful, otherwise throws
      *         Exception
      * @throws Exception if reading the file was unsuccessful
      */
     public static List<String> readFile(Path filePath) throws Exception {
+        var sample = FILE_READ.begin();
+
         try {
-            return Files.readAllLines(filePath, StandardCharsets.UTF_8);
+            var lines = Files.readAllLines(filePath, StandardCharsets.UTF_8);
+            FILE_READ_BYTES.add(Files.size(filePath));
+
+            return lines;
         } catch (Exception e) {
             throw new Exception("Error reading file: " + filePath);
+        } finally {
+            FILE_READ.end(sample);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Method streams a UTF-8 text file through a channel in fixed-size blocks.
+     *
+     * Every block passed to the consumer ends at a line boundary, so the whole
+     * file is never held in memory. A line longer than a block is cut at an
+     * ASCII space or tab followed by an ASCII letter or digit, which never
+     * changes the tokens produced by {@link TextPreprocessor}. If a block
+     * contains no such boundary, it is carried over and joined with the next
+     * one.
+     *
+     * @param filePath  - path to reading text file
+     * @param blockSize - number of bytes read from the channel at once, at
+     *                  least {@link #MIN_BLOCK_SIZE}
+     * @param consumer  - receiver of the decoded blocks
+     * @throws Exception if reading the file was unsuccessful or the consumer
+     *                   failed
+     * @throws IllegalArgumentException if the block size is too small
+     */
+    public static void readBlocks(Path filePath, int blockSize, BlockConsumer consumer) throws Exception {
+        readBlocks(filePath, blockSize, Long.MAX_VALUE, null, consumer);
+    }
+
+    /**
+     * Method streams the first bytes of a UTF-8 text file through a channel
+     * in fixed-size blocks, as {@link #readBlocks(Path, int, BlockConsumer)}
+     * does, and checksums exactly the bytes it reads.
+     *
+     * Bytes appended to the file while it is read are ignored, so a file
+     * read up to a line boundary never yields part of a line.
+     *
+     * @param filePath  - path to reading text file
+     * @param blockSize - number of bytes read from the channel at once, at
+     *                  least {@link #MIN_BLOCK_SIZE}
+     * @param limit     - maximum number of bytes read
+     * @param checksum  - checksum updated with every byte read, or
+     *                  {@code null} for none
+     * @param consumer  - receiver of the decoded blocks
+     * @throws Exception if reading the file was unsuccessful or the consumer
+     *                   failed
+     * @throws IllegalArgumentException if the block size is too small
+     */
+    public static void readBlocks(Path filePath, int blockSize, long limit, Checksum checksum,
+            BlockConsumer consumer) throws Exception {
+        // A smaller buffer could fill with an incomplete sequence and stall
+        if (blockSize < MIN_BLOCK_SIZE)
+            throw new IllegalArgumentException("Block size must be at least " + MIN_BLOCK_SIZE + "!!!");
+
+        try (var channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            var decoder = StandardCharsets.UTF_8.newDecoder();
+            var bytes = ByteBuffer.allocate(blockSize);
+            var chars = CharBuffer.allocate(blockSize);
+            var pending = new StringBuilder(); // text after the last cut
+            var bytesRead = 0L;
+            var eof = false;
+
+            while (!eof) {
+                var start = System.nanoTime();
+                var read = -1;
+
+                if (bytesRead < limit) {
+                    bytes.limit((int) Math.min(bytes.capacity(), bytes.position() + (limit - bytesRead)));
+                    read = channel.read(bytes);
+                    bytes.limit(bytes.capacity());
+                }
+
+                eof = read < 0;
+                if (!eof) {
+                    if (checksum != null)
+                        checksum.update(bytes.array(), bytes.position() - read, read);
+                    bytesRead += read;
+                }
+
+                // Decode what was read, keeping incomplete UTF-8 sequences for
+                // the next round
+                bytes.flip();
+                var result = decoder.decode(bytes, chars, eof);
+                if (result.isError())
+                    result.throwException();
+                bytes.compact();
+
+                if (eof)
+                    decoder.flush(chars);
+
+                chars.flip();
+                pending.append(chars);
+                chars.clear();
+
+                var cut = eof ? pending.length() : findCut(pending);
+
+                // Time spent reading and decoding, without the consumer
+                FILE_READ.record(start);
+                FILE_READ_BYTES.add(Math.max(0, read));
+
+                if (cut > 0) {
+                    consumer.accept(pending.substring(0, cut), bytesRead);
+                    pending.delete(0, cut);
+                }
+            }
+        } catch (IOException e) {
+            throw new Exception("Error reading file: " + filePath);
+        }
+    }
+
+    /**
+     * Method maps a whole file into memory for reading.
+     *
+     * The mapping belongs to the given arena and is released as soon as the
+     * arena is closed, so large files do not stay mapped until garbage
+     * collection.
+     *
+     * @param filePath - path to the mapped file
+     * @param arena    - arena controlling the lifetime of the mapping
+     * @return read-only memory segment with the file content
+     * @throws Exception if mapping the file was unsuccessful
+     */
+    public static MemorySegment mapFile(Path filePath, Arena arena) throws Exception {
+        try (var channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena);
+        } catch (IOException e) {
+            throw new Exception("Error reading file: " + filePath);
+        }
+    }
+
+    /**
+     * Method computes a CRC32C checksum of the whole content of a file.
+     *
+     * The file is memory-mapped and checksummed in chunks, which uses the
+     * hardware CRC32C instructions where available.
+     *
+     * @param filePath - path to the file
+     * @return the checksum of the file content
+     * @throws Exception if reading the file was unsuccessful
+     */
+    public static long checksum(Path filePath) throws Exception {
+        return checksum(filePath, Long.MAX_VALUE);
+    }
+
+    /**
+     * Method computes a SHA-256 digest of the whole content of a file.
+     *
+     * Unlike a checksum, the digest identifies the content: two different
+     * files practically never share it.
+     *
+     * @param filePath - path to the file
+     * @return the digest as 64 hexadecimal digits
+     * @throws Exception if reading the file was unsuccessful
+     */
+    public static String digest(Path filePath) throws Exception {
+        MessageDigest sha256;
+
+        try {
+            sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new Exception("SHA-256 not supported!!!");
+        }
+
+        try (var arena = Arena.ofConfined()) {
+            var segment = mapFile(filePath, arena);
+            var end = segment.byteSize();
+
+            for (var offset = 0L; offset < end; offset += CHECKSUM_CHUNK)
+                sha256.update(segment.asSlice(offset, Math.min(CHECKSUM_CHUNK, end - offset)).asByteBuffer());
+        }
+
+        return HexFormat.of().formatHex(sha256.digest());
+    }
+
+    /**
+     * Method computes a CRC32C checksum of the first bytes of a file.
+     *
+     * @param filePath - path to the file
+     * @param length   - number of bytes checksummed, at most the file size
+     * @return the checksum of the file prefix
+     * @throws Exception if reading the file was unsuccessful
+     */
+    public static long checksum(Path filePath, long length) throws Exception {
+        var crc = new CRC32C();
+
+        try (var arena = Arena.ofConfined()) {
+            var segment = mapFile(filePath, arena);
+            updateChecksum(crc, segment, 0, Math.min(length, segment.byteSize()));
+        }
+
+        return crc.getValue();
+    }
+
+    /**
+     * Method updates a checksum with a range of a mapped file, in chunks.
+     *
+     * @param checksum - the checksum to update
+     * @param segment  - mapped file content
+     * @param from     - start of the range
+     * @param to       - end of the range
+     */
+    public static void updateChecksum(Checksum checksum, MemorySegment segment, long from, long to) {
+        for (var offset = from; offset < to; offset += CHECKSUM_CHUNK)
+            checksum.update(segment.asSlice(offset, Math.min(CHECKSUM_CHUNK, to - offset)).asByteBuffer());
+    }
+
+    /**
+     * Method finds the end of the line containing the given offset of a
+     * mapped UTF-8 file.
+     *
+     * Line terminator bytes never occur inside multi-byte UTF-8 sequences, so
+     * the returned offset is always a safe place to split the file.
+     *
+     * @param segment - mapped file content
+     * @param offset  - offset to start searching from
+     * @return offset just after the next line terminator, or the segment size
+     */
+    public static long nextLineStart(MemorySegment segment, long offset) {
+        var size = segment.byteSize();
+
+        for (var i = offset; i < size; i++) {
+            var b = segment.get(ValueLayout.JAVA_BYTE, i);
+            if (b == '\n' || b == '\r')
+                return i + 1;
+        }
+
+        return size;
+    }
+
+    /**
+     * Method finds the start of the last line in a range of a mapped UTF-8
+     * file, i.e. the offset just after the last line terminator.
+     *
+     * @param segment - mapped file content
+     * @param from    - start of the range
+     * @param to      - end of the range
+     * @return offset just after the last line terminator in the range, or
+     *         {@code from} if there is none
+     */
+    public static long lastLineStart(MemorySegment segment, long from, long to) {
+        for (var i = to - 1; i >= from; i--) {
+            var b = segment.get(ValueLayout.JAVA_BYTE, i);
+            if (b == '\n' || b == '\r')
+                return i + 1;
+        }
+
+        return from;
+    }
+
+    /**
+     * Finds the position at which a block of text can be cut.
+     *
+     * The last line terminator is preferred. Otherwise the last ASCII space or
+     * tab followed by an ASCII letter or digit is used.
+     *
+     * @param text the text to cut
+     * @return the length of the text before the cut, or 0 if there is no
+     *         suitable boundary
+     */
+    private static int findCut(CharSequence text) {
+        for (var i = text.length() - 1; i >= 0; i--) {
+            var c = text.charAt(i);
+            if (c == '\n' || c == '\r')
+                return i + 1;
+        }
+
+        for (var i = text.length() - 1; i > 0; i--) {
+            var c = text.charAt(i);
+            var prev = text.charAt(i - 1);
+            if ((prev == ' ' || prev == '\t') && c < 0x80 && Character.isLetterOrDigit(c))
+                return i;
+        }
+
+        return 0;
+    }
+}
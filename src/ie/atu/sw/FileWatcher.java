@@ -0,0 +1,147 @@
+package ie.atu.sw;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches individual files for changes and reports them to a listener.
+ *
+ * The parent directory of every watched file is registered with a
+ * {@link WatchService}, and a background virtual thread waits for its
+ * events. Writers usually produce several events for one change, so events
+ * are collected for a short quiet period and every changed file is reported
+ * once.
+ */
+public final class FileWatcher implements AutoCloseable {
+    /** Time without further events after which changes are reported */
+    private static final Duration QUIET_PERIOD = Duration.ofMillis(200);
+
+    /**
+     * Receives the files that have changed.
+     */
+    @FunctionalInterface
+    public interface Listener {
+        /**
+         * Called on the watcher thread after a watched file has changed.
+         *
+         * @param file the changed file
+         */
+        void onChange(Path file);
+    }
+
+    /** Service delivering the events of the watched directories */
+    private final WatchService watchService;
+
+    /** Absolute paths of the watched files */
+    private final Set<Path> files = new HashSet<>();
+
+    /** Directories already registered with the service */
+    private final Set<Path> directories = new HashSet<>();
+
+    /** Receiver of the changes */
+    private final Listener listener;
+
+    /** Thread waiting for events */
+    private final Thread thread;
+
+    /**
+     * Creates a watcher and starts its background thread.
+     *
+     * @param listener the receiver of the changes
+     * @throws Exception if the file system cannot be watched
+     */
+    public FileWatcher(Listener listener) throws Exception {
+        try {
+            this.watchService = FileSystems.getDefault().newWatchService();
+        } catch (IOException e) {
+            throw new Exception("File watching not supported!!!");
+        }
+
+        this.listener = listener;
+        this.thread = Thread.ofVirtual().name("file-watcher").start(this::run);
+    }
+
+    /**
+     * Starts watching a file. Watching the same file again has no effect.
+     *
+     * @param file the file
+     * @throws Exception if the directory of the file cannot be watched
+     */
+    public synchronized void watch(Path file) throws Exception {
+        var absolute = file.toAbsolutePath().normalize();
+        var directory = absolute.getParent();
+
+        if (directories.add(directory)) {
+            try {
+                directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY);
+            } catch (IOException e) {
+                directories.remove(directory);
+                throw new Exception("Error watching directory: " + directory);
+            }
+        }
+
+        files.add(absolute);
+    }
+
+    /**
+     * Checks whether a file is watched.
+     *
+     * @param file the file
+     * @return {@code true} if changes of the file are reported
+     */
+    public synchronized boolean isWatched(Path file) {
+        return files.contains(file.toAbsolutePath().normalize());
+    }
+
+    /**
+     * Stops watching all files and ends the background thread.
+     */
+    @Override
+    public void close() {
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            // Closing is best effort
+        }
+
+        thread.interrupt();
+    }
+
+    /**
+     * Waits for events and reports changed files until the watcher is closed.
+     */
+    private void run() {
+        try {
+            while (true) {
+                var changed = new HashSet<Path>();
+                var key = watchService.take();
+
+                // Collect events until the files are quiet
+                while (key != null) {
+                    var directory = (Path) key.watchable();
+
+                    for (var event : key.pollEvents())
+                        if (event.context() instanceof Path name && isWatched(directory.resolve(name)))
+                            changed.add(directory.resolve(name).toAbsolutePath().normalize());
+
+                    key.reset();
+                    key = watchService.poll(QUIET_PERIOD.toMillis(), TimeUnit.MILLISECONDS);
+                }
+
+                for (var file : changed)
+                    listener.onChange(file);
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Watcher closed
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package ie.atu.sw;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shared, thread-safe dictionary of tokens kept on the Java heap.
+ *
+ * Tokens are held as Strings in a concurrent hash map and a list, which
+ * makes lookups fast but costs around a hundred bytes per token in object
+ * headers, map nodes and boxed IDs. For very large vocabularies see
+ * {@link OffHeapTokenDictionary}.
+ */
+public class HeapTokenDictionary implements TokenDictionary {
+    /** Token to ID mapping */
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+
+    /** ID to token mapping, guarded by itself */
+    private final List<String> tokens = new ArrayList<>();
+
+    @Override
+    public int intern(String token) {
+        var id = ids.get(token);
+        if (id != null)
+            return id;
+
+        return ids.computeIfAbsent(token, t -> {
+            synchronized (tokens) {
+                tokens.add(t);
+                return tokens.size() - 1;
+            }
+        });
+    }
+
+    @Override
+    public int lookup(String token) {
+        var id = ids.get(token);
+
+        return id == null ? -1 : id;
+    }
+
+    @Override
+    public String token(int id) {
+        synchronized (tokens) {
+            return tokens.get(id);
+        }
+    }
+
+    @Override
+    public int size() {
+        synchronized (tokens) {
+            return tokens.size();
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package ie.atu.sw;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory inverted index computing the exact Sørensen–Dice similarity of
+ * a query document against every indexed document in one pass.
+ *
+ * Every token ID maps to the posting list of the documents containing it.
+ * A query walks only the postings of its own tokens and counts, per
+ * document, how many tokens it shares with the query; the counts are the
+ * intersection sizes, so:
+ *
+ * <pre>
+ *     Dice(query, d) = 2 × count[d] / (|query| + |d|)
+ * </pre>
+ *
+ * Documents sharing no token with the query are never touched and have a
+ * similarity of 0.
+ *
+ * Posting lists are stored compressed as delta-encoded varints, usually one
+ * byte per posting. Very frequent tokens, contained in at least one in
+ * {@value #BITMAP_DENSITY} documents, would make long lists that are costly
+ * to decode; their postings are converted to a bitmap over the document
+ * IDs instead, which is smaller at that density and is walked word by word.
+ * Frequent tokens are kept rather than pruned, so the similarity stays
+ * exact.
+ *
+ * Documents can be added at any time without a rebuild; queries may run
+ * concurrently with each other.
+ *
+ * All documents must use token IDs from the same {@link TokenDictionary}.
+ */
+public class InvertedIndex {
+    /** Posting lists denser than one in this many documents become bitmaps */
+    static final int BITMAP_DENSITY = 8;
+
+    /** Minimum number of postings before a list is converted to a bitmap */
+    private static final int MIN_BITMAP_POSTINGS = 64;
+
+    /** Indexed documents, by document ID */
+    private final List<Document> documents = new ArrayList<>();
+
+    /** Number of tokens of every document, by document ID */
+    private int[] sizes = new int[16];
+
+    /** Posting lists, by token ID */
+    private Postings[] postings = new Postings[1024];
+
+    /** Guards the documents and postings; queries share the read lock */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Postings of one token: compressed document IDs or a bitmap.
+     */
+    private static final class Postings {
+        /** Delta-encoded varint document IDs, null once converted */
+        byte[] bytes = new byte[4];
+
+        /** Number of used bytes */
+        int length;
+
+        /** Bitmap of document IDs, null until converted */
+        long[] bitmap;
+
+        /** Number of documents containing the token */
+        int count;
+
+        /** Last appended document ID */
+        int last = -1;
+
+        /**
+         * Appends a document ID greater than all previous ones.
+         *
+         * @param document the document ID
+         */
+        void add(int document) {
+            if (bitmap != null) {
+                if (document >> 6 >= bitmap.length)
+                    bitmap = Arrays.copyOf(bitmap, Math.max(bitmap.length * 2, (document >> 6) + 1));
+                bitmap[document >> 6] |= 1L << document;
+            } else {
+                if (length + 5 > bytes.length)
+                    bytes = Arrays.copyOf(bytes, bytes.length * 2);
+
+                var delta = document - last;
+                while ((delta & ~0x7F) != 0) {
+                    bytes[length++] = (byte) (delta | 0x80);
+                    delta >>>= 7;
+                }
+                bytes[length++] = (byte) delta;
+            }
+
+            last = document;
+            count++;
+        }
+
+        /**
+         * Converts the postings to a bitmap.
+         */
+        void toBitmap() {
+            var words = new long[(last >> 6) + 1];
+            var document = -1;
+
+            for (var i = 0; i < length;) {
+                var delta = 0;
+                for (var shift = 0;; shift += 7) {
+                    var b = bytes[i++];
+                    delta |= (b & 0x7F) << shift;
+                    if (b >= 0)
+                        break;
+                }
+
+                document += delta;
+                words[document >> 6] |= 1L << document;
+            }
+
+            bitmap = words;
+            bytes = null;
+            length = 0;
+        }
+
+        /**
+         * Increments the counter of every document in the postings.
+         *
+         * @param counts the counters, by document ID
+         */
+        void accumulate(int[] counts) {
+            if (bitmap != null) {
+                for (var w = 0; w < bitmap.length; w++) {
+                    var word = bitmap[w];
+                    while (word != 0) {
+                        counts[(w << 6) + Long.numberOfTrailingZeros(word)]++;
+                        word &= word - 1;
+                    }
+                }
+
+                return;
+            }
+
+            var document = -1;
+            for (var i = 0; i < length;) {
+                var delta = 0;
+                for (var shift = 0;; shift += 7) {
+                    var b = bytes[i++];
+                    delta |= (b & 0x7F) << shift;
+                    if (b >= 0)
+                        break;
+                }
+
+                document += delta;
+                counts[document]++;
+            }
+        }
+
+        /** Returns the approximate memory used by the postings in bytes */
+        long memory() {
+            return bitmap != null ? 8L * bitmap.length : bytes.length;
+        }
+    }
+
+    /**
+     * Adds a document to the index.
+     *
+     * @param document the document
+     * @return the document ID assigned within this index
+     */
+    public int add(Document document) {
+        lock.writeLock().lock();
+
+        try {
+            var id = documents.size();
+            var tokens = document.getTokens();
+
+            documents.add(document);
+            if (id == sizes.length)
+                sizes = Arrays.copyOf(sizes, sizes.length * 2);
+            sizes[id] = tokens.size();
+
+            for (var i = 0; i < tokens.size(); i++) {
+                var token = tokens.get(i);
+
+                if (token >= postings.length)
+                    postings = Arrays.copyOf(postings, Math.max(postings.length * 2, token + 1));
+                if (postings[token] == null)
+                    postings[token] = new Postings();
+
+                var list = postings[token];
+                list.add(id);
+
+                if (list.bitmap == null && list.count >= MIN_BITMAP_POSTINGS
+                        && (long) list.count * BITMAP_DENSITY >= documents.size())
+                    list.toBitmap();
+            }
+
+            return id;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Returns the number of indexed documents */
+    public int size() {
+        lock.readLock().lock();
+
+        try {
+            return documents.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the approximate memory used by all posting lists.
+     *
+     * @return the size in bytes
+     */
+    public long getPostingsMemory() {
+        lock.readLock().lock();
+
+        try {
+            var memory = 0L;
+            for (var list : postings)
+                if (list != null)
+                    memory += list.memory();
+
+            return memory;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Computes the exact Sørensen–Dice similarity of a token set against
+     * every indexed document.
+     *
+     * @param tokens the token IDs of the query
+     * @return the similarities, by document ID
+     */
+    public double[] similarities(TokenIdSet tokens) {
+        lock.readLock().lock();
+
+        try {
+            var counts = intersections(tokens);
+            var similarities = new double[documents.size()];
+
+            for (var d = 0; d < similarities.length; d++)
+                if (counts[d] > 0)
+                    similarities[d] = 2.0 * counts[d] / (tokens.size() + sizes[d]);
+
+            return similarities;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the indexed documents most similar to a document.
+     *
+     * An indexed document with the same path as the query is never returned.
+     *
+     * @param document      the query document
+     * @param diceThreshold the minimum similarity of a match
+     * @param limit         the maximum number of matches
+     * @return the matches, most similar first
+     */
+    public List<Match> query(Document document, double diceThreshold, int limit) {
+        lock.readLock().lock();
+
+        try {
+            var tokens = document.getTokens();
+            var counts = intersections(tokens);
+            var matches = new ArrayList<Match>();
+
+            for (var d = 0; d < documents.size(); d++) {
+                if (counts[d] == 0)
+                    continue;
+
+                var dice = 2.0 * counts[d] / (tokens.size() + sizes[d]);
+                var candidate = documents.get(d);
+
+                if (dice >= diceThreshold && candidate != document
+                        && !candidate.getPath().equals(document.getPath()))
+                    matches.add(new Match(candidate, dice));
+            }
+
+            matches.sort(Comparator.comparingDouble(Match::dice).reversed());
+
+            return matches.size() > limit ? new ArrayList<>(matches.subList(0, limit)) : matches;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Counts the tokens every indexed document shares with a query. Must be
+     * called with the read lock held.
+     *
+     * @param tokens the token IDs of the query
+     * @return the intersection sizes, by document ID
+     */
+    private int[] intersections(TokenIdSet tokens) {
+        var counts = new int[documents.size()];
+
+        for (var i = 0; i < tokens.size(); i++) {
+            var token = tokens.get(i);
+
+            if (token < postings.length && postings[token] != null)
+                postings[token].accumulate(counts);
+        }
+
+        return counts;
+    }
+}
@@ -0,0 +1,38 @@
+package ie.atu.sw;
+
+/**
+ * Minimal helpers for writing JSON output by hand, so the application needs
+ * no JSON library.
+ */
+final class Json {
+    private Json() {
+    }
+
+    /**
+     * Quotes a string as a JSON string literal.
+     *
+     * @param value the string
+     * @return the JSON literal
+     */
+    static String quote(String value) {
+        var sb = new StringBuilder("\"");
+
+        for (var c : value.toCharArray()) {
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20)
+                        sb.append(String.format("\\u%04x", (int) c));
+                    else
+                        sb.append(c);
+                }
+            }
+        }
+
+        return sb.append('"').toString();
+    }
+}
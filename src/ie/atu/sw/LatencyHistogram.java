@@ -0,0 +1,162 @@
+package ie.atu.sw;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of durations in nanoseconds.
+ *
+ * Values are counted in log-linear buckets, as in an HDR histogram: every
+ * power of two is split into {@value #SUB_BUCKETS} equal sub-buckets, so any
+ * recorded value is known to within 12.5% over the whole {@code long} range,
+ * with a fixed set of 496 buckets (about 4 KiB).
+ *
+ * Recording is a few atomic increments without locks. The buckets are
+ * striped by thread, so workers recording at the same time rarely touch the
+ * same cache line; the stripes are summed when the histogram is read. With
+ * up to 16 stripes, depending on the number of processors, a histogram holds
+ * up to about 62 KiB of counts.
+ */
+public final class LatencyHistogram {
+    /** Sub-buckets per power of two, as a number of bits */
+    private static final int SUB_BUCKET_BITS = 3;
+
+    /** Sub-buckets per power of two */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /** Buckets covering every non-negative long */
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    /** Number of bucket stripes, a power of two */
+    private static final int STRIPES = Math.min(16,
+            Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1));
+
+    /** Counts by stripe and bucket */
+    private final AtomicLongArray counts = new AtomicLongArray(STRIPES * BUCKETS);
+
+    /** Number of recorded values */
+    private final LongAdder count = new LongAdder();
+
+    /** Sum of the recorded values */
+    private final LongAdder sum = new LongAdder();
+
+    /** Largest recorded value */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a duration.
+     *
+     * @param nanos the duration in nanoseconds; negative values count as 0
+     */
+    public void record(long nanos) {
+        var value = Math.max(0, nanos);
+        var stripe = (int) Thread.currentThread().threadId() & (STRIPES - 1);
+
+        counts.incrementAndGet(stripe * BUCKETS + index(value));
+        count.increment();
+        sum.add(value);
+
+        // Written only when a new maximum is seen
+        for (var current = max.get(); value > current; current = max.get())
+            if (max.compareAndSet(current, value))
+                break;
+    }
+
+    /** Returns the number of recorded values */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /** Returns the sum of the recorded values in nanoseconds */
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /** Returns the largest recorded value in nanoseconds */
+    public long getMax() {
+        return max.get();
+    }
+
+    /** Returns the mean of the recorded values in nanoseconds, 0 if none */
+    public double getMean() {
+        var n = count.sum();
+
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    /**
+     * Returns a quantile of the recorded values.
+     *
+     * @param quantile the quantile in the range {@code [0.0, 1.0]}
+     * @return the upper bound of the bucket containing the quantile in
+     *         nanoseconds, never more than the maximum; 0 if nothing was
+     *         recorded
+     */
+    public long getQuantile(double quantile) {
+        var buckets = new long[BUCKETS];
+        var total = 0L;
+
+        for (var i = 0; i < counts.length(); i++) {
+            var n = counts.get(i);
+            buckets[i % BUCKETS] += n;
+            total += n;
+        }
+
+        if (total == 0)
+            return 0;
+
+        var rank = Math.max(1, (long) Math.ceil(quantile * total));
+        var seen = 0L;
+
+        for (var i = 0; i < BUCKETS; i++) {
+            seen += buckets[i];
+            if (seen >= rank)
+                return Math.min(upperBound(i), max.get());
+        }
+
+        return max.get();
+    }
+
+    /**
+     * Clears all recorded values. Values recorded concurrently may be lost
+     * or kept.
+     */
+    public void reset() {
+        for (var i = 0; i < counts.length(); i++)
+            counts.set(i, 0);
+
+        count.reset();
+        sum.reset();
+        max.set(0);
+    }
+
+    /**
+     * Returns the bucket of a non-negative value: values below
+     * {@link #SUB_BUCKETS} have a bucket each, larger ones share a bucket
+     * with the values of the same power of two and the same three bits after
+     * the leading one.
+     */
+    static int index(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+
+        var exponent = 63 - Long.numberOfLeadingZeros(value);
+        var subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Returns the largest value counted in a bucket.
+     */
+    static long upperBound(int index) {
+        if (index < SUB_BUCKETS)
+            return index;
+
+        var shift = index / SUB_BUCKETS - 1;
+        var lowerBound = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+
+        return lowerBound + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,231 @@
+package ie.atu.sw;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Locality-sensitive hashing index over MinHash signatures.
+ *
+ * The first {@code bands × rows} positions of every signature are split into
+ * {@code bands} bands of {@code rows} values. Each band is hashed into its
+ * own bucket table, and two documents become candidates if they share a
+ * bucket in at least one band. For documents with Jaccard index J this
+ * happens with probability:
+ *
+ * <pre>
+ *     P(J) = 1 - (1 - J^rows)^bands
+ * </pre>
+ *
+ * an S-shaped curve with its steepest point near
+ * {@code (1 / bands)^(1 / rows)}. A query only looks at the buckets of its
+ * own bands, so its cost depends on the number of similar documents rather
+ * than on the size of the index. Candidates are then verified with the exact
+ * {@link DiceSimilarity}, so the results contain no false positives; similar
+ * documents missed by the banding are the only source of error.
+ *
+ * Dice thresholds are converted to Jaccard thresholds as
+ * {@code J = D / (2 - D)}.
+ *
+ * The index is thread-safe.
+ */
+public class LshIndex {
+    /** Probability that a document exactly at the threshold becomes a candidate */
+    public static final double TARGET_RECALL = 0.95;
+
+    /** Number of bands */
+    private final int bands;
+
+    /** Number of signature values per band */
+    private final int rows;
+
+    /** Indexed documents */
+    private final List<Document> documents = new ArrayList<>();
+
+    /** Bucket tables, one per band, mapping a band hash to document indexes */
+    private final List<HashMap<Long, List<Integer>>> buckets = new ArrayList<>();
+
+    /**
+     * Creates an empty index.
+     *
+     * @param bands number of bands, at least one
+     * @param rows  number of signature values per band, at least one
+     * @throws IllegalArgumentException if bands or rows are less than one
+     */
+    public LshIndex(int bands, int rows) {
+        if (bands < 1 || rows < 1)
+            throw new IllegalArgumentException("Bands and rows must be at least 1!!!");
+
+        this.bands = bands;
+        this.rows = rows;
+
+        for (var b = 0; b < bands; b++)
+            buckets.add(new HashMap<>());
+    }
+
+    /**
+     * Creates an empty index for signatures of the given length, with bands
+     * and rows chosen for a Dice threshold.
+     *
+     * The largest number of rows is picked for which a document exactly at
+     * the threshold still becomes a candidate with probability
+     * {@value #TARGET_RECALL}, which keeps the number of dissimilar candidates
+     * as low as possible.
+     *
+     * @param diceThreshold the Dice threshold of the queries, in (0, 1]
+     * @param length        the signature length
+     * @return the index
+     * @throws IllegalArgumentException if the threshold is out of range
+     */
+    public static LshIndex forThreshold(double diceThreshold, int length) {
+        if (!(diceThreshold > 0 && diceThreshold <= 1))
+            throw new IllegalArgumentException("Threshold must be in (0, 1]!!!");
+
+        var jaccard = toJaccard(diceThreshold);
+        var rows = 1;
+
+        for (var r = 2; r <= length; r++)
+            if (candidateProbability(jaccard, length / r, r) >= TARGET_RECALL)
+                rows = r;
+
+        return new LshIndex(length / rows, rows);
+    }
+
+    /**
+     * Converts a Dice coefficient to the equivalent Jaccard index.
+     *
+     * @param dice the Dice coefficient
+     * @return the Jaccard index
+     */
+    public static double toJaccard(double dice) {
+        return dice / (2 - dice);
+    }
+
+    /**
+     * Returns the probability that two documents with the given Jaccard index
+     * become candidates.
+     *
+     * @param jaccard the Jaccard index
+     * @param bands   number of bands
+     * @param rows    number of signature values per band
+     * @return the probability
+     */
+    static double candidateProbability(double jaccard, int bands, int rows) {
+        return 1 - Math.pow(1 - Math.pow(jaccard, rows), bands);
+    }
+
+    /** Returns the number of bands */
+    public int getBands() {
+        return bands;
+    }
+
+    /** Returns the number of signature values per band */
+    public int getRows() {
+        return rows;
+    }
+
+    /** Returns the number of indexed documents */
+    public synchronized int size() {
+        return documents.size();
+    }
+
+    /**
+     * Adds a document to the index.
+     *
+     * @param document the document, with a signature of at least
+     *                 {@code bands × rows} values
+     * @throws IllegalArgumentException if the signature is missing or too
+     *                                  short
+     */
+    public synchronized void add(Document document) {
+        checkSignature(document.getSignature());
+
+        var index = documents.size();
+        documents.add(document);
+
+        for (var b = 0; b < bands; b++)
+            buckets.get(b).computeIfAbsent(bandHash(document.getSignature(), b), k -> new ArrayList<>()).add(index);
+    }
+
+    /**
+     * Returns the documents sharing at least one band with a signature.
+     *
+     * @param signature the query signature
+     * @return the candidate documents, in insertion order
+     * @throws IllegalArgumentException if the signature is too short
+     */
+    public synchronized List<Document> candidates(long[] signature) {
+        checkSignature(signature);
+
+        var seen = new BitSet(documents.size());
+
+        for (var b = 0; b < bands; b++) {
+            var bucket = buckets.get(b).get(bandHash(signature, b));
+            if (bucket != null)
+                for (var index : bucket)
+                    seen.set(index);
+        }
+
+        var candidates = new ArrayList<Document>(seen.cardinality());
+        for (var index = seen.nextSetBit(0); index >= 0; index = seen.nextSetBit(index + 1))
+            candidates.add(documents.get(index));
+
+        return candidates;
+    }
+
+    /**
+     * Finds the indexed documents similar to a document.
+     *
+     * Candidates are verified with the exact Sørensen–Dice similarity. The
+     * document itself, or an indexed document with the same path, is never
+     * returned.
+     *
+     * @param document      the query document, with a signature
+     * @param diceThreshold the minimum exact Dice similarity of a match
+     * @return the matches, most similar first
+     * @throws IllegalArgumentException if the signature is missing or too
+     *                                  short
+     */
+    public List<Match> query(Document document, double diceThreshold) {
+        var matches = new ArrayList<Match>();
+
+        for (var candidate : candidates(document.getSignature())) {
+            if (candidate == document || candidate.getPath().equals(document.getPath()))
+                continue;
+
+            var dice = DiceSimilarity.calculate(document.getTokens(), candidate.getTokens());
+            if (dice >= diceThreshold)
+                matches.add(new Match(candidate, dice));
+        }
+
+        matches.sort(Comparator.comparingDouble(Match::dice).reversed());
+
+        return matches;
+    }
+
+    /**
+     * Ensures a signature covers all bands.
+     */
+    private void checkSignature(long[] signature) {
+        if (signature == null || signature.length < bands * rows)
+            throw new IllegalArgumentException("Signature shorter than bands x rows!!!");
+    }
+
+    /**
+     * Hashes the values of one band of a signature.
+     *
+     * @param signature the signature
+     * @param band      the band number
+     * @return the hash of the band
+     */
+    private long bandHash(long[] signature, int band) {
+        var hash = 0L;
+
+        for (var i = band * rows; i < (band + 1) * rows; i++)
+            hash = MinHash.mix(hash * 31 + signature[i]);
+
+        return hash;
+    }
+}
@@ -0,0 +1,10 @@
+package ie.atu.sw;
+
+/**
+ * A document found by a similarity query.
+ *
+ * @param document the similar document
+ * @param dice     its exact Sørensen–Dice similarity to the query
+ */
+public record Match(Document document, double dice) {
+}
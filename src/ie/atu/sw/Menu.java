@@ -20,8 +20,18 @@ public class Menu {
      * the application.
      */
     public static void performMenu() {
+        performMenu(new HeapTokenDictionary());
+    }
+
+    /**
+     * Starts and maintains the main interactive menu loop with the given
+     * token dictionary, which is closed when the user quits.
+     *
+     * @param dictionary the token dictionary of the session
+     */
+    public static void performMenu(TokenDictionary dictionary) {
         Scanner s = new Scanner(System.in);
-        var textComparator = new TextComparator();
+        var textComparator = new TextComparator(dictionary);
 
         while (true) {
             ConsoleIO.clearConsole();
@@ -48,6 +58,16 @@ public class Menu {
                     + "]");
             System.out.println("(6) Noise Analizer");
             System.out.println("(7) Get System Status");
+            System.out.println("(8) Compare Corpus Directory");
+            System.out.println("(9) Find Similar Documents");
+            System.out.println("(10) Rank Corpus Against File");
+            System.out.println("(11) Switch File Watching [Current - "
+                    + (textComparator.getIsWatching() ? "Enabled" : "Disabled")
+                    + "]");
+            System.out.println("(12) Select Similarity Mode [Current - "
+                    + textComparator.getSimilarityModeName()
+                    + "]");
+            System.out.println("(13) Get Metrics");
             System.out.println("(Q) Quit");
 
             // Output a menu of options and solicit text from the user
@@ -102,13 +122,50 @@ public class Menu {
                     System.out.println("Please press Enter to continue...");
                     s.nextLine();
                     break;
+                case "8":
+                    textComparator.compareCorpus();
+                    System.out.println();
+                    System.out.println("Please press Enter to continue...");
+                    s.nextLine();
+                    break;
+                case "9":
+                    textComparator.findSimilarDocuments();
+                    System.out.println();
+                    System.out.println("Please press Enter to continue...");
+                    s.nextLine();
+                    break;
+                case "10":
+                    textComparator.rankCorpus();
+                    System.out.println();
+                    System.out.println("Please press Enter to continue...");
+                    s.nextLine();
+                    break;
+                case "11":
+                    textComparator.switchFileWatching();
+                    System.out.println();
+                    System.out.println("Please press Enter to continue...");
+                    s.nextLine();
+                    break;
+                case "12":
+                    textComparator.selectSimilarityMode();
+                    System.out.println();
+                    System.out.println("Please press Enter to continue...");
+                    s.nextLine();
+                    break;
+                case "13":
+                    textComparator.getMetrics();
+                    System.out.println();
+                    System.out.println("Please press Enter to continue...");
+                    s.nextLine();
+                    break;
                 case "Q":
                     System.out.println("Bye, bye!");
+                    textComparator.close();
                     s.close();
                     return;
                 // if was entered wrong option ask to repeat the process
                 default:
-                    System.out.println("Please input number between 1 and 7 or Q for quit!");
+                    System.out.println("Please input number between 1 and 13 or Q for quit!");
                     System.out.println();
                     System.out.println("Please press Enter to continue...");
                     s.nextLine();
@@ -0,0 +1,358 @@
+package ie.atu.sw;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToDoubleFunction;
+
+import javax.management.ObjectName;
+
+/**
+ * Process-wide registry of latency histograms and counters.
+ *
+ * Every instrumented phase of the pipeline has a {@link Phase}: a
+ * {@link LatencyHistogram} of its durations and a counter of the bytes it
+ * allocated. Further counters record the bytes and tokens that pass through
+ * the phases. All updates are lock-free, so instrumentation stays on in
+ * production.
+ *
+ * Allocations are measured per thread by the JVM, which only supports
+ * platform threads; work done on virtual threads, such as the ingestion
+ * workers, is not included. For loaded documents the retained memory is
+ * counted instead as an estimate.
+ *
+ * The metrics are exported in the Prometheus text format or as JSON, and
+ * over JMX once {@link #registerMXBean()} has been called.
+ */
+public final class Metrics implements MetricsMXBean {
+    /** JMX name of the metrics */
+    public static final String OBJECT_NAME = "ie.atu.sw:type=Metrics";
+
+    /** Prefix of all exported metric names */
+    private static final String PREFIX = "sorensen_dice_";
+
+    /** Quantiles exported for every phase */
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+    /** Names of the exported quantiles in JSON */
+    private static final String[] QUANTILE_NAMES = { "p50", "p90", "p99", "p999" };
+
+    /** The only instance, registered with JMX */
+    private static final Metrics INSTANCE = new Metrics();
+
+    /** Thread management of the JVM, for allocation measurements */
+    private static final com.sun.management.ThreadMXBean THREADS = ManagementFactory
+            .getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads
+            && threads.isThreadAllocatedMemorySupported() ? threads : null;
+
+    /** Phases by name */
+    private static final Map<String, Phase> PHASES = new ConcurrentSkipListMap<>();
+
+    /** Counters by name */
+    private static final Map<String, LongAdder> COUNTERS = new ConcurrentSkipListMap<>();
+
+    /**
+     * Start of a timed operation.
+     *
+     * @param startNanos     value of {@link System#nanoTime()} at the start
+     * @param startAllocated bytes allocated by the thread at the start, or -1
+     */
+    public record Sample(long startNanos, long startAllocated) {
+    }
+
+    /**
+     * An instrumented phase of the pipeline: its latencies and allocations.
+     */
+    public static final class Phase {
+        /** Durations of the phase */
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        /** Bytes allocated by the phase on platform threads */
+        private final LongAdder allocated = new LongAdder();
+
+        private Phase() {
+        }
+
+        /**
+         * Starts timing an operation, including its allocations.
+         *
+         * @return the start of the operation
+         */
+        public Sample begin() {
+            return new Sample(System.nanoTime(), allocatedBytes());
+        }
+
+        /**
+         * Ends timing an operation started by {@link #begin()}.
+         *
+         * @param sample the start of the operation
+         */
+        public void end(Sample sample) {
+            latency.record(System.nanoTime() - sample.startNanos());
+
+            if (sample.startAllocated() >= 0) {
+                var now = allocatedBytes();
+                if (now >= sample.startAllocated())
+                    allocated.add(now - sample.startAllocated());
+            }
+        }
+
+        /**
+         * Records the duration of an operation timed by the caller, without
+         * its allocations. Used on hot paths where a {@link Sample} would
+         * cost more than the operation.
+         *
+         * @param startNanos value of {@link System#nanoTime()} at the start
+         */
+        public void record(long startNanos) {
+            latency.record(System.nanoTime() - startNanos);
+        }
+
+        /** Returns the durations of the phase */
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        /** Returns the bytes allocated by the phase on platform threads */
+        public long getAllocated() {
+            return allocated.sum();
+        }
+    }
+
+    private Metrics() {
+    }
+
+    /**
+     * Returns the phase of the given name, creating it on first use.
+     *
+     * @param name the phase name, in snake case
+     * @return the phase
+     */
+    public static Phase phase(String name) {
+        return PHASES.computeIfAbsent(name, n -> new Phase());
+    }
+
+    /**
+     * Returns the counter of the given name, creating it on first use.
+     *
+     * @param name the counter name, in snake case
+     * @return the counter
+     */
+    public static LongAdder counter(String name) {
+        return COUNTERS.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    /**
+     * Returns all phases.
+     *
+     * @return a read-only view of the phases by name, in name order
+     */
+    public static Map<String, Phase> getPhases() {
+        return Collections.unmodifiableMap(PHASES);
+    }
+
+    /**
+     * Returns the current values of all counters.
+     *
+     * @return the counter values by name, in name order
+     */
+    public static Map<String, Long> getCounterValues() {
+        var result = new TreeMap<String, Long>();
+
+        for (var entry : COUNTERS.entrySet())
+            result.put(entry.getKey(), entry.getValue().sum());
+
+        return result;
+    }
+
+    /**
+     * Returns the bytes allocated so far by the current thread.
+     *
+     * @return the number of bytes, or -1 if not measurable on this thread
+     */
+    public static long allocatedBytes() {
+        if (THREADS == null || Thread.currentThread().isVirtual())
+            return -1;
+
+        return THREADS.getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server. Registering
+     * again has no effect.
+     *
+     * @throws Exception if the metrics cannot be registered
+     */
+    public static void registerMXBean() throws Exception {
+        var server = ManagementFactory.getPlatformMBeanServer();
+        var name = new ObjectName(OBJECT_NAME);
+
+        synchronized (Metrics.class) {
+            if (!server.isRegistered(name))
+                server.registerMBean(INSTANCE, name);
+        }
+    }
+
+    /**
+     * Returns the metrics in the Prometheus text exposition format.
+     * Latencies are exported as summaries in seconds.
+     *
+     * @return the metrics text
+     */
+    public static String toPrometheus() {
+        var sb = new StringBuilder();
+
+        for (var entry : PHASES.entrySet()) {
+            var name = PREFIX + entry.getKey() + "_seconds";
+            var latency = entry.getValue().getLatency();
+
+            sb.append("# TYPE ").append(name).append(" summary\n");
+            for (var quantile : QUANTILES)
+                sb.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+                        .append(seconds(latency.getQuantile(quantile))).append('\n');
+            sb.append(name).append("_sum ").append(seconds(latency.getSum())).append('\n');
+            sb.append(name).append("_count ").append(latency.getCount()).append('\n');
+
+            sb.append("# TYPE ").append(PREFIX).append(entry.getKey()).append("_max_seconds gauge\n");
+            sb.append(PREFIX).append(entry.getKey()).append("_max_seconds ")
+                    .append(seconds(latency.getMax())).append('\n');
+
+            sb.append("# TYPE ").append(PREFIX).append(entry.getKey()).append("_allocated_bytes_total counter\n");
+            sb.append(PREFIX).append(entry.getKey()).append("_allocated_bytes_total ")
+                    .append(entry.getValue().getAllocated()).append('\n');
+        }
+
+        for (var entry : COUNTERS.entrySet()) {
+            sb.append("# TYPE ").append(PREFIX).append(entry.getKey()).append("_total counter\n");
+            sb.append(PREFIX).append(entry.getKey()).append("_total ").append(entry.getValue().sum()).append('\n');
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Returns the metrics as JSON. Latencies are given in microseconds.
+     *
+     * @return the JSON object
+     */
+    public static String toJson() {
+        var sb = new StringBuilder("{\n  \"phases\": {");
+        var first = true;
+
+        for (var entry : PHASES.entrySet()) {
+            var latency = entry.getValue().getLatency();
+
+            sb.append(first ? "\n" : ",\n").append("    ").append(Json.quote(entry.getKey()))
+                    .append(": {\"count\": ").append(latency.getCount())
+                    .append(", \"meanMicros\": ").append(micros(latency.getMean()));
+            for (var i = 0; i < QUANTILES.length; i++)
+                sb.append(", \"").append(QUANTILE_NAMES[i]).append("Micros\": ")
+                        .append(micros(latency.getQuantile(QUANTILES[i])));
+            sb.append(", \"maxMicros\": ").append(micros(latency.getMax()))
+                    .append(", \"allocatedBytes\": ").append(entry.getValue().getAllocated()).append('}');
+            first = false;
+        }
+
+        sb.append(first ? "},\n" : "\n  },\n").append("  \"counters\": {");
+        first = true;
+
+        for (var entry : COUNTERS.entrySet()) {
+            sb.append(first ? "\n" : ",\n").append("    ").append(Json.quote(entry.getKey())).append(": ")
+                    .append(entry.getValue().sum());
+            first = false;
+        }
+
+        return sb.append(first ? "}\n}\n" : "\n  }\n}\n").toString();
+    }
+
+    /**
+     * Returns the names of all phases with a statistic of their latencies.
+     *
+     * @param statistic the statistic in nanoseconds
+     * @return the statistic in microseconds by phase
+     */
+    private static Map<String, Double> latencies(ToDoubleFunction<LatencyHistogram> statistic) {
+        var result = new TreeMap<String, Double>();
+
+        for (var entry : PHASES.entrySet())
+            result.put(entry.getKey(), statistic.applyAsDouble(entry.getValue().getLatency()) / 1000);
+
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getCounters() {
+        var result = new TreeMap<String, Long>();
+
+        for (var entry : PHASES.entrySet())
+            result.put(entry.getKey() + "_allocated_bytes", entry.getValue().getAllocated());
+        for (var entry : COUNTERS.entrySet())
+            result.put(entry.getKey(), entry.getValue().sum());
+
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getCounts() {
+        var result = new TreeMap<String, Long>();
+
+        for (var entry : PHASES.entrySet())
+            result.put(entry.getKey(), entry.getValue().getLatency().getCount());
+
+        return result;
+    }
+
+    @Override
+    public Map<String, Double> getMeanMicros() {
+        return latencies(LatencyHistogram::getMean);
+    }
+
+    @Override
+    public Map<String, Double> getP99Micros() {
+        return latencies(latency -> latency.getQuantile(0.99));
+    }
+
+    @Override
+    public Map<String, Double> getMaxMicros() {
+        return latencies(LatencyHistogram::getMax);
+    }
+
+    @Override
+    public String getPrometheusText() {
+        return toPrometheus();
+    }
+
+    @Override
+    public String getJson() {
+        return toJson();
+    }
+
+    @Override
+    public void reset() {
+        for (var phase : PHASES.values()) {
+            phase.latency.reset();
+            phase.allocated.reset();
+        }
+
+        for (var counter : COUNTERS.values())
+            counter.reset();
+    }
+
+    /**
+     * Formats nanoseconds as seconds.
+     */
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / 1e9);
+    }
+
+    /**
+     * Formats nanoseconds as microseconds.
+     */
+    private static String micros(double nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1000);
+    }
+}
@@ -0,0 +1,33 @@
+package ie.atu.sw;
+
+import java.util.Map;
+
+/**
+ * Management interface exposing the {@link Metrics} of the application over
+ * JMX, under the name {@value Metrics#OBJECT_NAME}.
+ */
+public interface MetricsMXBean {
+    /** Returns all counters by name */
+    Map<String, Long> getCounters();
+
+    /** Returns the number of timed operations by phase */
+    Map<String, Long> getCounts();
+
+    /** Returns the mean latency in microseconds by phase */
+    Map<String, Double> getMeanMicros();
+
+    /** Returns the 99th percentile latency in microseconds by phase */
+    Map<String, Double> getP99Micros();
+
+    /** Returns the maximum latency in microseconds by phase */
+    Map<String, Double> getMaxMicros();
+
+    /** Returns all metrics in the Prometheus text format */
+    String getPrometheusText();
+
+    /** Returns all metrics as JSON */
+    String getJson();
+
+    /** Clears all metrics */
+    void reset();
+}
@@ -0,0 +1,253 @@
+package ie.atu.sw;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * MinHash signatures for approximate Sørensen–Dice similarity.
+ *
+ * A signature holds, for each of {@code k} hash functions, the minimum hash
+ * value over all tokens of a document. The probability that two signatures
+ * agree at one position equals the Jaccard index J of the two token sets,
+ * so the fraction of agreeing positions is an unbiased estimate of J. The
+ * Dice coefficient is then derived as:
+ *
+ * <pre>
+ *     Dice = 2 × J / (1 + J)
+ * </pre>
+ *
+ * Comparing two signatures costs O(k) regardless of document size.
+ *
+ * <b>Error bounds.</b> The Jaccard estimate has a standard error of
+ * {@code sqrt(J × (1 - J) / k)}, at most {@code 0.5 / sqrt(k)}. Through the
+ * conversion above the standard error of the Dice estimate is at most
+ * {@code 0.56 / sqrt(k)}, reached around Dice = 0.36 and falling towards 0
+ * for identical or disjoint documents. For the default length of
+ * {@value #DEFAULT_LENGTH} this is about 0.05; quadrupling the length halves
+ * the error.
+ *
+ * Token hashes depend only on the token text and the seed, so signatures
+ * are independent of any {@link TokenDictionary} and can be merged: the
+ * signature of a union is the element-wise minimum of the signatures of its
+ * parts.
+ */
+public class MinHash {
+    /** Default number of hash functions per signature */
+    public static final int DEFAULT_LENGTH = 128;
+
+    /** Default seed of the hash functions */
+    public static final long DEFAULT_SEED = 0x5DEECE66DL;
+
+    /** Largest standard error of the Dice estimate for a signature of length 1 */
+    private static final double MAX_DICE_ERROR = 0.56;
+
+    /** Per-function seeds mixed into the token hash */
+    private final long[] seeds;
+
+    /**
+     * Creates signatures of the given length with the default seed.
+     *
+     * @param length number of hash functions, at least one
+     * @throws IllegalArgumentException if the length is less than one
+     */
+    public MinHash(int length) {
+        this(length, DEFAULT_SEED);
+    }
+
+    /**
+     * Creates signatures of the given length.
+     *
+     * Signatures can only be compared if created with the same length and
+     * seed.
+     *
+     * @param length number of hash functions, at least one
+     * @param seed   seed of the hash functions
+     * @throws IllegalArgumentException if the length is less than one
+     */
+    public MinHash(int length, long seed) {
+        if (length < 1)
+            throw new IllegalArgumentException("Signature length must be at least 1!!!");
+
+        var random = new SplittableRandom(seed);
+        seeds = new long[length];
+        for (var i = 0; i < length; i++)
+            seeds[i] = random.nextLong();
+    }
+
+    /** Returns the number of hash functions per signature */
+    public int getLength() {
+        return seeds.length;
+    }
+
+    /**
+     * Returns the signature of an empty document, to be filled by
+     * {@link #update(long[], String)}.
+     *
+     * @return a new signature
+     */
+    public long[] newSignature() {
+        var signature = new long[seeds.length];
+        Arrays.fill(signature, Long.MAX_VALUE);
+
+        return signature;
+    }
+
+    /**
+     * Adds a token to a signature.
+     *
+     * @param signature the signature to update
+     * @param token     the token
+     */
+    public void update(long[] signature, String token) {
+        var hash = hash(token);
+
+        for (var i = 0; i < seeds.length; i++) {
+            var value = mix(hash ^ seeds[i]);
+            if (value < signature[i])
+                signature[i] = value;
+        }
+    }
+
+    /**
+     * Computes the signature of a collection of tokens.
+     *
+     * @param tokens the tokens
+     * @return the signature
+     */
+    public long[] signature(Iterable<String> tokens) {
+        var signature = newSignature();
+
+        for (var token : tokens)
+            update(signature, token);
+
+        return signature;
+    }
+
+    /**
+     * Computes the signature of a set of token IDs.
+     *
+     * @param tokens     the token IDs
+     * @param dictionary the dictionary the IDs belong to
+     * @return the signature
+     */
+    public long[] signature(TokenIdSet tokens, TokenDictionary dictionary) {
+        var signature = newSignature();
+
+        for (var i = 0; i < tokens.size(); i++)
+            update(signature, dictionary.token(tokens.get(i)));
+
+        return signature;
+    }
+
+    /**
+     * Merges a signature into another, producing the signature of the union
+     * of both documents.
+     *
+     * @param into the signature to update
+     * @param from the signature to merge
+     */
+    public static void merge(long[] into, long[] from) {
+        checkLengths(into, from);
+
+        for (var i = 0; i < into.length; i++)
+            if (from[i] < into[i])
+                into[i] = from[i];
+    }
+
+    /**
+     * Estimates the Jaccard index of two documents from their signatures.
+     *
+     * @param signatureA the first signature
+     * @param signatureB the second signature
+     * @return the fraction of agreeing positions
+     * @throws IllegalArgumentException if the signatures differ in length
+     */
+    public static double estimateJaccard(long[] signatureA, long[] signatureB) {
+        checkLengths(signatureA, signatureB);
+
+        var agreeing = 0;
+        for (var i = 0; i < signatureA.length; i++)
+            if (signatureA[i] == signatureB[i])
+                agreeing++;
+
+        return (double) agreeing / signatureA.length;
+    }
+
+    /**
+     * Estimates the Sørensen–Dice coefficient of two documents from their
+     * signatures.
+     *
+     * @param signatureA the first signature
+     * @param signatureB the second signature
+     * @return the estimated Sørensen–Dice coefficient
+     * @throws IllegalArgumentException if the signatures differ in length
+     */
+    public static double estimateDice(long[] signatureA, long[] signatureB) {
+        var jaccard = estimateJaccard(signatureA, signatureB);
+
+        return 2 * jaccard / (1 + jaccard);
+    }
+
+    /**
+     * Returns the largest standard error of the Dice estimate for signatures
+     * of the given length, over all possible similarities.
+     *
+     * @param length the signature length
+     * @return the standard error bound
+     */
+    public static double standardError(int length) {
+        return MAX_DICE_ERROR / Math.sqrt(length);
+    }
+
+    /**
+     * Ensures two signatures can be compared.
+     */
+    private static void checkLengths(long[] signatureA, long[] signatureB) {
+        if (signatureA.length != signatureB.length)
+            throw new IllegalArgumentException("Signatures differ in length!!!");
+    }
+
+    /**
+     * Computes a 64-bit hash of a token (FNV-1a over the characters followed
+     * by a finalizing mix).
+     *
+     * @param token the token
+     * @return the hash
+     */
+    static long hash(String token) {
+        return hash(token, 0, token.length());
+    }
+
+    /**
+     * Computes the hash of a token held by a range of characters, equal to
+     * {@link #hash(String)} of the range as a String.
+     *
+     * @param chars the characters holding the token
+     * @param start index of the first character of the token
+     * @param end   index after the last character of the token
+     * @return the hash
+     */
+    static long hash(CharSequence chars, int start, int end) {
+        var hash = 0xCBF29CE484222325L;
+
+        for (var i = start; i < end; i++) {
+            hash ^= chars.charAt(i);
+            hash *= 0x100000001B3L;
+        }
+
+        return mix(hash);
+    }
+
+    /**
+     * Scrambles all bits of a value (the finalizer of SplitMix64).
+     *
+     * @param value the value
+     * @return the scrambled value
+     */
+    static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+        value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+
+        return value ^ (value >>> 31);
+    }
+}
@@ -0,0 +1,335 @@
+package ie.atu.sw;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.VarHandle;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Shared, thread-safe dictionary of tokens kept in native memory.
+ *
+ * The UTF-8 bytes of the tokens are appended to a slab of large
+ * {@link MemorySegment} chunks, each token prefixed by its length. The
+ * offset of every token is stored by ID in pages of longs, and tokens are
+ * found through an open-addressing hash index of longs holding the String
+ * hash and the ID of each token. A token thus costs its bytes plus about
+ * 28 bytes of native memory, and nothing on the heap, so very large
+ * vocabularies neither grow the heap nor add work to the garbage collector.
+ *
+ * All memory belongs to the dictionary and is released at once by
+ * {@link #close()}, independently of the garbage collector. Nothing is
+ * released earlier: a token stays until the dictionary is closed, even when
+ * no document uses it any more.
+ *
+ * Lookups of known tokens take no lock. The tables of chunks and pages are
+ * immutable once published and replaced when they grow, and every index
+ * entry is published only after the bytes and offset of its token. Inserting
+ * a new token takes a lock. An index that has grown is kept until the
+ * dictionary is closed, as lookups may still be probing it; all of them
+ * together are smaller than the current one.
+ *
+ * Tokens must be well-formed Unicode, as produced by
+ * {@link TextPreprocessor}: a token with unpaired surrogates cannot be
+ * encoded and would be returned with replacement characters.
+ */
+public class OffHeapTokenDictionary implements TokenDictionary {
+    /** Size of a slab chunk in bytes */
+    private static final int CHUNK_SIZE = 1 << 20;
+
+    /** Number of token offsets per page, as a number of bits */
+    private static final int PAGE_BITS = 16;
+
+    /** Initial number of index slots, a power of two */
+    private static final int INITIAL_CAPACITY = 1 << 12;
+
+    /** Access to the index slots with acquire and release ordering */
+    private static final VarHandle SLOT = ValueLayout.JAVA_LONG.arrayElementVarHandle();
+
+    /**
+     * Memory read by lookups, immutable once published.
+     *
+     * @param chunks   slab chunks holding the token bytes
+     * @param pages    offsets of the tokens by ID: chunk number in the upper,
+     *                 offset in the lower half
+     * @param index    hash index: String hash in the upper, ID + 1 in the
+     *                 lower half, 0 if empty
+     * @param capacity number of index slots
+     */
+    private record Tables(MemorySegment[] chunks, MemorySegment[] pages, MemorySegment index, int capacity) {
+    }
+
+    /** Owner of all native memory */
+    private final Arena arena = Arena.ofShared();
+
+    /** Serializes inserting tokens and closing */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /** Current tables */
+    private volatile Tables tables = new Tables(new MemorySegment[0], new MemorySegment[0],
+            arena.allocate(8L * INITIAL_CAPACITY, 8), INITIAL_CAPACITY);
+
+    /** Number of tokens, written after the tables holding them */
+    private volatile int size = 0;
+
+    /** Whether the memory has been released */
+    private volatile boolean isClosed = false;
+
+    /** Used bytes of the last chunk, guarded by the lock */
+    private long chunkUsed = 0;
+
+    /** Number of bytes allocated, guarded by the lock */
+    private long allocated = 8L * INITIAL_CAPACITY;
+
+    @Override
+    public int intern(String token) {
+        var hash = token.hashCode();
+        var id = find(hash, token);
+
+        if (id >= 0)
+            return id;
+
+        lock.lock();
+        try {
+            // Another thread may have added it in the meantime
+            id = find(hash, token);
+
+            return id >= 0 ? id : insert(hash, token.getBytes(StandardCharsets.UTF_8));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int lookup(String token) {
+        return find(token.hashCode(), token);
+    }
+
+    @Override
+    public String token(int id) {
+        checkOpen();
+        if (id < 0 || id >= size)
+            throw new IndexOutOfBoundsException("Unknown token ID: " + id);
+
+        var current = tables;
+        var offset = offset(current, id);
+        var chunk = current.chunks()[(int) (offset >>> 32)];
+        var start = offset & 0xFFFFFFFFL;
+        var length = chunk.get(ValueLayout.JAVA_INT_UNALIGNED, start);
+
+        return new String(chunk.asSlice(start + 4, length).toArray(ValueLayout.JAVA_BYTE), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the native memory held by the dictionary.
+     *
+     * @return the size in bytes, 0 once closed
+     */
+    public long memoryFootprint() {
+        lock.lock();
+        try {
+            return isClosed ? 0 : allocated;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Releases all native memory of the dictionary. Further use of the
+     * dictionary fails with an {@link IllegalStateException}. Closing again
+     * has no effect.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (isClosed)
+                return;
+
+            isClosed = true;
+            arena.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Finds a token in the index without locking.
+     *
+     * @param hash  the String hash of the token
+     * @param token the token
+     * @return the ID of the token, or -1 if it is unknown
+     */
+    private int find(int hash, String token) {
+        checkOpen();
+
+        var current = tables;
+        var mask = current.capacity() - 1;
+
+        for (var slot = spread(hash) & mask;; slot = (slot + 1) & mask) {
+            var entry = (long) SLOT.getAcquire(current.index(), (long) slot);
+
+            if (entry == 0)
+                return -1;
+
+            if ((int) (entry >>> 32) == hash && matches((int) entry - 1, token))
+                return (int) entry - 1;
+        }
+    }
+
+    /**
+     * Appends a new token to the slab and the index. The caller holds the
+     * lock.
+     *
+     * @param hash  the String hash of the token
+     * @param bytes the UTF-8 bytes of the token
+     * @return the ID of the new token
+     */
+    private int insert(int hash, byte[] bytes) {
+        var id = size;
+        var length = 4 + bytes.length;
+        var current = tables;
+        var chunks = current.chunks();
+
+        // Start a new chunk, or a dedicated one for a token larger than a chunk
+        if (chunks.length == 0 || chunkUsed + length > chunks[chunks.length - 1].byteSize()) {
+            var chunkSize = Math.max(CHUNK_SIZE, length);
+            chunks = Arrays.copyOf(chunks, chunks.length + 1);
+            chunks[chunks.length - 1] = arena.allocate(chunkSize, 8);
+            allocated += chunkSize;
+            chunkUsed = 0;
+        }
+
+        var chunk = chunks[chunks.length - 1];
+        chunk.set(ValueLayout.JAVA_INT_UNALIGNED, chunkUsed, bytes.length);
+        MemorySegment.copy(bytes, 0, chunk, ValueLayout.JAVA_BYTE, chunkUsed + 4, bytes.length);
+
+        var pages = current.pages();
+        if ((id & ((1 << PAGE_BITS) - 1)) == 0) {
+            pages = Arrays.copyOf(pages, pages.length + 1);
+            pages[pages.length - 1] = arena.allocate(8L << PAGE_BITS, 8);
+            allocated += 8L << PAGE_BITS;
+        }
+        pages[pages.length - 1].setAtIndex(ValueLayout.JAVA_LONG, id & ((1 << PAGE_BITS) - 1),
+                (long) (chunks.length - 1) << 32 | chunkUsed);
+        chunkUsed += length;
+
+        current = (size + 1) * 2L > current.capacity() ? grow(chunks, pages, current)
+                : chunks != current.chunks() || pages != current.pages()
+                        ? new Tables(chunks, pages, current.index(), current.capacity())
+                        : current;
+
+        // The token is found only once its bytes and tables are published
+        tables = current;
+        place(current, hash, id);
+        size = id + 1;
+
+        return id;
+    }
+
+    /**
+     * Builds tables with an index of twice the capacity holding all tokens.
+     * The old index is kept for lookups still probing it.
+     *
+     * @param chunks the slab chunks
+     * @param pages  the offset pages
+     * @param old    the current tables
+     * @return the new tables
+     */
+    private Tables grow(MemorySegment[] chunks, MemorySegment[] pages, Tables old) {
+        var capacity = old.capacity() * 2;
+        var grown = new Tables(chunks, pages, arena.allocate(8L * capacity, 8), capacity);
+        allocated += 8L * capacity;
+
+        for (var slot = 0L; slot < old.capacity(); slot++) {
+            var entry = old.index().getAtIndex(ValueLayout.JAVA_LONG, slot);
+            if (entry != 0)
+                place(grown, (int) (entry >>> 32), (int) entry - 1);
+        }
+
+        return grown;
+    }
+
+    /**
+     * Puts a token into the first free index slot of its probe sequence,
+     * publishing it to lookups.
+     */
+    private static void place(Tables tables, int hash, int id) {
+        var mask = tables.capacity() - 1;
+        var slot = spread(hash) & mask;
+
+        while (tables.index().getAtIndex(ValueLayout.JAVA_LONG, slot) != 0)
+            slot = (slot + 1) & mask;
+
+        SLOT.setRelease(tables.index(), (long) slot, (long) hash << 32 | (id + 1L));
+    }
+
+    /**
+     * Checks whether the stored token with the given ID equals a token. The
+     * tables are read again, as the ID may be newer than the tables the
+     * index was probed with.
+     *
+     * A token is as long in UTF-8 as in chars only if it is ASCII, so such a
+     * token is compared char by char without encoding it. Other tokens are
+     * encoded and compared as bytes.
+     */
+    private boolean matches(int id, String token) {
+        var current = tables;
+        var offset = offset(current, id);
+        var chunk = current.chunks()[(int) (offset >>> 32)];
+        var start = offset & 0xFFFFFFFFL;
+        var length = chunk.get(ValueLayout.JAVA_INT_UNALIGNED, start);
+
+        if (length == token.length()) {
+            for (var i = 0; i < length; i++) {
+                var c = token.charAt(i);
+                if (c >= 0x80 || chunk.get(ValueLayout.JAVA_BYTE, start + 4 + i) != (byte) c)
+                    return false;
+            }
+
+            return true;
+        }
+
+        if (length < token.length())
+            return false;
+
+        var bytes = token.getBytes(StandardCharsets.UTF_8);
+
+        return bytes.length == length && MemorySegment.mismatch(chunk, start + 4, start + 4 + length,
+                MemorySegment.ofArray(bytes), 0, length) == -1;
+    }
+
+    /**
+     * Returns the slab position of a token: chunk number in the upper,
+     * offset in the lower half.
+     */
+    private static long offset(Tables tables, int id) {
+        return tables.pages()[id >>> PAGE_BITS].getAtIndex(ValueLayout.JAVA_LONG, id & ((1 << PAGE_BITS) - 1));
+    }
+
+    /**
+     * Spreads the bits of a String hash over the index slots.
+     */
+    private static int spread(int hash) {
+        var h = hash * 0x9E3779B9;
+
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Ensures the memory has not been released.
+     *
+     * @throws IllegalStateException if the dictionary was closed
+     */
+    private void checkOpen() {
+        if (isClosed)
+            throw new IllegalStateException("Token dictionary closed!!!");
+    }
+}
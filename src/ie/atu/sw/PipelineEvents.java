@@ -0,0 +1,311 @@
+package ie.atu.sw;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.file.Path;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events of the ingestion and comparison pipeline.
+ *
+ * Every stage emits its own event type, so a recording attributes latency
+ * and allocation to document loads, tokenized chunks, stop-word filtering,
+ * noise analysis and similarity calculations instead of anonymous lambdas
+ * running under a {@code StructuredTaskScope}. All events are in the
+ * {@code Sørensen-Dice} category and enabled by default:
+ *
+ * <pre>
+ * java -XX:StartFlightRecording:filename=dice.jfr ...
+ * jfr print --events ie.atu.sw.DocumentLoad dice.jfr
+ * </pre>
+ *
+ * An event is begun before the stage and committed after it through its
+ * {@code commit(...)} method, which fills in the fields only if the event
+ * is recorded. While no recording is running, an event costs a
+ * {@code nanoTime()} call and an allocation removed by escape analysis; line
+ * counts, which need another pass over the chunk, are only taken for
+ * recorded events.
+ */
+final class PipelineEvents {
+    /** Category of all pipeline events */
+    private static final String CATEGORY = "Sørensen-Dice";
+
+    private PipelineEvents() {
+    }
+
+    /**
+     * Loading or reloading a text file as a document.
+     */
+    @Name("ie.atu.sw.DocumentLoad")
+    @Label("Document Load")
+    @Description("Loading or reloading a text file as a document")
+    @Category({ CATEGORY, "Ingestion" })
+    @StackTrace(false)
+    static final class DocumentLoad extends Event {
+        @Label("Path")
+        String path;
+
+        @Label("Size")
+        @Description("Size of the file")
+        @DataAmount
+        long bytes;
+
+        @Label("Bytes Tokenized")
+        @Description("Bytes tokenized, less than the size for cached files and incremental reloads")
+        @DataAmount
+        long bytesTokenized;
+
+        @Label("Tokens")
+        @Description("Unique tokens of the document")
+        int tokens;
+
+        @Label("Strategy")
+        @Description("streamed, mapped, cached or incremental")
+        String strategy;
+
+        @Label("Similarity Mode")
+        String mode;
+
+        /**
+         * Records the load of a document if the event is recorded.
+         *
+         * @param document the loaded document
+         * @param mode     the similarity mode of the loader
+         */
+        void commit(Document document, SimilarityMode mode) {
+            if (!shouldCommit())
+                return;
+
+            this.path = document.getPath().toString();
+            this.tokens = document.getTokens().size();
+            this.mode = mode.name();
+            commit();
+        }
+    }
+
+    /**
+     * Tokenizing one streamed block or mapped slice of a file.
+     */
+    @Name("ie.atu.sw.ChunkTokenization")
+    @Label("Chunk Tokenization")
+    @Description("Tokenizing one block or slice of a file by an ingestion worker")
+    @Category({ CATEGORY, "Ingestion" })
+    @StackTrace(false)
+    static final class ChunkTokenization extends Event {
+        @Label("Path")
+        String path;
+
+        @Label("Size")
+        @Description("Bytes of a mapped slice, or characters of a streamed block")
+        long size;
+
+        @Label("Lines")
+        int lines;
+
+        @Label("New Tokens")
+        @Description("Tokens first seen by the worker in this chunk")
+        int newTokens;
+
+        @Label("Strategy")
+        @Description("streamed or mapped")
+        String strategy;
+
+        /**
+         * Records a streamed block if the event is recorded.
+         *
+         * @param path      the file
+         * @param block     the block
+         * @param newTokens the number of tokens first seen in the block
+         */
+        void commit(Path path, String block, int newTokens) {
+            if (!shouldCommit())
+                return;
+
+            var lines = 0;
+            for (var i = block.indexOf('\n'); i >= 0; i = block.indexOf('\n', i + 1))
+                lines++;
+
+            set(path, block.length(), lines, newTokens, "streamed");
+        }
+
+        /**
+         * Records a mapped slice if the event is recorded.
+         *
+         * @param path      the file
+         * @param segment   the mapped file
+         * @param from      start of the slice
+         * @param to        end of the slice
+         * @param newTokens the number of tokens first seen in the slice
+         */
+        void commit(Path path, MemorySegment segment, long from, long to, int newTokens) {
+            if (!shouldCommit())
+                return;
+
+            var lines = 0;
+            for (var i = from; i < to; i++)
+                if (segment.get(ValueLayout.JAVA_BYTE, i) == '\n')
+                    lines++;
+
+            set(path, to - from, lines, newTokens, "mapped");
+        }
+
+        /**
+         * Fills in the fields and commits the event.
+         */
+        private void set(Path path, long size, int lines, int newTokens, String strategy) {
+            this.path = path.toString();
+            this.size = size;
+            this.lines = lines;
+            this.newTokens = newTokens;
+            this.strategy = strategy;
+            commit();
+        }
+    }
+
+    /**
+     * Removing the stop-words from the tokens of a document.
+     */
+    @Name("ie.atu.sw.StopWordFiltering")
+    @Label("Stop-Word Filtering")
+    @Description("Removing the stop-words from a set of tokens")
+    @Category({ CATEGORY, "Comparison" })
+    @StackTrace(false)
+    static final class StopWordFiltering extends Event {
+        @Label("Path")
+        @Description("Path of the document, if filtered as a document")
+        String path;
+
+        @Label("Tokens")
+        int tokens;
+
+        @Label("Remaining Tokens")
+        int remaining;
+
+        @Label("Stop-Words")
+        @Description("Size of the stop-word list")
+        int stopWords;
+
+        @Label("Strategy")
+        @Description("strings, ids, bag or mask")
+        String strategy;
+
+        /**
+         * Records the filtering if the event is recorded.
+         *
+         * @param path      the document path, or {@code null}
+         * @param tokens    the number of tokens before filtering
+         * @param remaining the number of tokens after filtering
+         * @param stopWords the size of the stop-word list
+         * @param strategy  the kind of filtered tokens
+         */
+        void commit(Path path, int tokens, int remaining, int stopWords, String strategy) {
+            if (!shouldCommit())
+                return;
+
+            this.path = path == null ? null : path.toString();
+            this.tokens = tokens;
+            this.remaining = remaining;
+            this.stopWords = stopWords;
+            this.strategy = strategy;
+            commit();
+        }
+    }
+
+    /**
+     * Calculating the stop-word noise ratio of a document.
+     */
+    @Name("ie.atu.sw.NoiseAnalysis")
+    @Label("Noise Analysis")
+    @Description("Calculating the share of stop-words among the tokens")
+    @Category({ CATEGORY, "Comparison" })
+    @StackTrace(false)
+    static final class NoiseAnalysis extends Event {
+        @Label("Path")
+        @Description("Path of the document, if analysed as a document")
+        String path;
+
+        @Label("Tokens")
+        int tokens;
+
+        @Label("Noise Tokens")
+        int noiseTokens;
+
+        @Label("Noise Ratio")
+        double noiseRatio;
+
+        @Label("Strategy")
+        @Description("strings, ids or mask")
+        String strategy;
+
+        /**
+         * Records the analysis if the event is recorded.
+         *
+         * @param path        the document path, or {@code null}
+         * @param tokens      the number of tokens
+         * @param noiseTokens the number of stop-words among them
+         * @param strategy    the kind of analysed tokens
+         */
+        void commit(Path path, int tokens, int noiseTokens, String strategy) {
+            if (!shouldCommit())
+                return;
+
+            this.path = path == null ? null : path.toString();
+            this.tokens = tokens;
+            this.noiseTokens = noiseTokens;
+            this.noiseRatio = tokens == 0 ? 0 : (double) noiseTokens / tokens;
+            this.strategy = strategy;
+            commit();
+        }
+    }
+
+    /**
+     * Calculating the Sørensen–Dice similarity of two token collections.
+     */
+    @Name("ie.atu.sw.SimilarityCalculation")
+    @Label("Similarity Calculation")
+    @Description("Calculating the Sørensen–Dice similarity of two token sets, bags or shingle sets")
+    @Category({ CATEGORY, "Comparison" })
+    @StackTrace(false)
+    static final class SimilarityCalculation extends Event {
+        @Label("Size A")
+        @Description("Tokens, token occurrences or shingles of the first collection")
+        long sizeA;
+
+        @Label("Size B")
+        @Description("Tokens, token occurrences or shingles of the second collection")
+        long sizeB;
+
+        @Label("Similarity")
+        double similarity;
+
+        @Label("Strategy")
+        @Description("MERGE, GALLOP or BITMAP for token sets, MULTISET or SHINGLES otherwise")
+        String strategy;
+
+        /**
+         * Records the calculation if the event is recorded.
+         *
+         * @param sizeA      the size of the first collection
+         * @param sizeB      the size of the second collection
+         * @param similarity the calculated similarity
+         * @param strategy   the way the collections were intersected
+         */
+        void commit(long sizeA, long sizeB, double similarity, String strategy) {
+            if (!shouldCommit())
+                return;
+
+            this.sizeA = sizeA;
+            this.sizeB = sizeB;
+            this.similarity = similarity;
+            this.strategy = strategy;
+            commit();
+        }
+    }
+}
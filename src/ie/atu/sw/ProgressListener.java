@@ -0,0 +1,34 @@
+package ie.atu.sw;
+
+/**
+ * Receives progress updates from long-running operations such as text
+ * loading or similarity calculation.
+ *
+ * Operations accept an optional listener and stay completely silent when
+ * none is given, so the same code can run in batch jobs without any console
+ * cost.
+ */
+@FunctionalInterface
+public interface ProgressListener {
+    /**
+     * Called once before the operation starts.
+     *
+     * @param total the total amount of work
+     */
+    default void onStart(long total) {
+    }
+
+    /**
+     * Called when part of the work is done.
+     *
+     * @param done  the amount of work done so far
+     * @param total the total amount of work
+     */
+    void onProgress(long done, long total);
+
+    /**
+     * Called once after the operation has finished.
+     */
+    default void onFinish() {
+    }
+}
@@ -1,5 +1,7 @@
 package ie.atu.sw;
 
+import java.util.Arrays;
+
 /**
  * Application entry point.
  *
@@ -35,9 +37,34 @@ public class Runner {
      * Main method invoked by the Java Virtual Machine (JVM).
      *
      * Starts the application by launching the interactive
-     * console menu.
+     * console menu, with the token dictionary kept in native memory if the
+     * only argument is {@code --off-heap}. With other command-line
+     * arguments, the files they name are compared without any interaction
+     * instead, see {@link BatchRunner}, and with {@code --serve} the
+     * similarity service is started, see {@link SimilarityServer}.
+     *
+     * @param args command-line arguments of the batch mode, {@code --off-heap}
+     *             or none
      */
     public static void main(String[] args) {
+        // Serve comparisons over HTTP until the JVM is stopped
+        if (args.length > 0 && args[0].equals("--serve")) {
+            var status = SimilarityServer.run(Arrays.copyOfRange(args, 1, args.length), System.out, System.err);
+            if (status != BatchRunner.EXIT_OK)
+                System.exit(status);
+            return;
+        }
+
+        // Start the menu with the token dictionary off the heap
+        if (args.length == 1 && args[0].equals("--off-heap")) {
+            Menu.performMenu(new OffHeapTokenDictionary());
+            return;
+        }
+
+        // Compare the files given on the command line and exit
+        if (args.length > 0)
+            System.exit(BatchRunner.run(args, System.out, System.err));
+
         // Start the application by invoking the main menu loop
         Menu.performMenu();
     }
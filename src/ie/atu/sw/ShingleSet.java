@@ -0,0 +1,268 @@
+package ie.atu.sw;
+
+import java.util.Arrays;
+
+/**
+ * Immutable set of 64-bit shingle fingerprints stored as a sorted primitive
+ * array.
+ *
+ * A shingle is a run of {@link #getSize()} consecutive characters or words
+ * of a line, produced by {@link TextPreprocessor#shingle}. Only its rolling
+ * hash is kept, so a document of millions of shingles is a {@code long[]}
+ * rather than millions of short substrings. Distinct shingles collide with a
+ * probability of about {@code n² / 2^65} for n shingles, which is negligible
+ * for any realistic document.
+ *
+ * The set remembers how its shingles were made, and only sets made the same
+ * way can be compared.
+ */
+public final class ShingleSet {
+    /** Sorted, distinct fingerprints */
+    private final long[] fingerprints;
+
+    /** Shingle kind, {@link SimilarityMode#CHARACTER_NGRAMS} or {@link SimilarityMode#WORD_SHINGLES} */
+    private final SimilarityMode mode;
+
+    /** Number of characters or words per shingle */
+    private final int size;
+
+    /**
+     * Creates a set from a sorted array of distinct fingerprints without
+     * copying it.
+     */
+    private ShingleSet(long[] fingerprints, SimilarityMode mode, int size) {
+        this.fingerprints = fingerprints;
+        this.mode = mode;
+        this.size = size;
+    }
+
+    /**
+     * Returns an empty set of shingles made a given way.
+     *
+     * @param mode the shingle kind
+     * @param size the number of characters or words per shingle
+     * @return the empty set
+     */
+    public static ShingleSet empty(SimilarityMode mode, int size) {
+        return new ShingleSet(new long[0], mode, size);
+    }
+
+    /**
+     * Returns the union of two sets made the same way.
+     *
+     * @param a the first set
+     * @param b the second set
+     * @return a set of the fingerprints contained in either set
+     * @throws IllegalArgumentException if the sets were made differently
+     */
+    public static ShingleSet union(ShingleSet a, ShingleSet b) {
+        a.checkCompatible(b);
+
+        if (b.fingerprints.length == 0)
+            return a;
+        if (a.fingerprints.length == 0)
+            return b;
+
+        var merged = new long[a.fingerprints.length + b.fingerprints.length];
+        var i = 0;
+        var j = 0;
+        var length = 0;
+
+        while (i < a.fingerprints.length && j < b.fingerprints.length) {
+            if (a.fingerprints[i] < b.fingerprints[j])
+                merged[length++] = a.fingerprints[i++];
+            else if (a.fingerprints[i] > b.fingerprints[j])
+                merged[length++] = b.fingerprints[j++];
+            else {
+                merged[length++] = a.fingerprints[i++];
+                j++;
+            }
+        }
+
+        while (i < a.fingerprints.length)
+            merged[length++] = a.fingerprints[i++];
+        while (j < b.fingerprints.length)
+            merged[length++] = b.fingerprints[j++];
+
+        return new ShingleSet(Arrays.copyOf(merged, length), a.mode, a.size);
+    }
+
+    /**
+     * Returns the number of fingerprints in the set.
+     *
+     * @return the number of distinct shingles
+     */
+    public int size() {
+        return fingerprints.length;
+    }
+
+    /**
+     * Returns the fingerprint at the given position in ascending order.
+     *
+     * @param index the position
+     * @return the fingerprint
+     */
+    public long get(int index) {
+        return fingerprints[index];
+    }
+
+    /** Returns the shingle kind */
+    public SimilarityMode getMode() {
+        return mode;
+    }
+
+    /** Returns the number of characters or words per shingle */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Checks whether this set was made the same way as the given parameters.
+     *
+     * @param mode the shingle kind
+     * @param size the number of characters or words per shingle
+     * @return {@code true} if the set can be compared with such shingles
+     */
+    public boolean isMadeBy(SimilarityMode mode, int size) {
+        return this.mode == mode && this.size == size;
+    }
+
+    /**
+     * Ensures another set was made the same way as this one.
+     *
+     * @param other the other set
+     * @throws IllegalArgumentException if the sets were made differently
+     */
+    void checkCompatible(ShingleSet other) {
+        if (!other.isMadeBy(mode, size))
+            throw new IllegalArgumentException("Shingle sets made differently!!!");
+    }
+
+    /**
+     * Returns the approximate memory used by the set.
+     *
+     * @return the size in bytes
+     */
+    public long memoryFootprint() {
+        return 32 + 16 + 8L * fingerprints.length;
+    }
+
+    /**
+     * Mutable, unordered collector of fingerprints.
+     *
+     * Duplicates are dropped on insertion by an open-addressing table of
+     * primitive longs, kept at most half full, so memory follows the number
+     * of distinct shingles rather than the length of the text. A builder is
+     * not thread-safe; every ingestion worker fills its own.
+     */
+    public static final class Builder {
+        /** Fingerprints, 0 marking an unused slot */
+        private long[] table = new long[1024];
+
+        /** Whether the fingerprint 0 itself was added */
+        private boolean hasZero;
+
+        /** Number of distinct non-zero fingerprints */
+        private int size;
+
+        /** Shingle kind */
+        private final SimilarityMode mode;
+
+        /** Number of characters or words per shingle */
+        private final int shingleSize;
+
+        /**
+         * Creates an empty builder.
+         *
+         * @param mode        the shingle kind
+         * @param shingleSize the number of characters or words per shingle
+         */
+        public Builder(SimilarityMode mode, int shingleSize) {
+            this.mode = mode;
+            this.shingleSize = shingleSize;
+        }
+
+        /**
+         * Adds a fingerprint.
+         *
+         * @param fingerprint the fingerprint
+         */
+        public void add(long fingerprint) {
+            if (fingerprint == 0) {
+                hasZero = true;
+                return;
+            }
+
+            var mask = table.length - 1;
+            var slot = (int) (fingerprint ^ (fingerprint >>> 32)) & mask;
+
+            while (table[slot] != 0) {
+                if (table[slot] == fingerprint)
+                    return;
+                slot = (slot + 1) & mask;
+            }
+
+            table[slot] = fingerprint;
+            if (++size * 2 > table.length)
+                grow();
+        }
+
+        /** Returns the shingle kind */
+        public SimilarityMode getMode() {
+            return mode;
+        }
+
+        /** Returns the number of characters or words per shingle */
+        public int getShingleSize() {
+            return shingleSize;
+        }
+
+        /**
+         * Returns the number of distinct fingerprints added so far.
+         *
+         * @return the number of fingerprints
+         */
+        public int size() {
+            return size + (hasZero ? 1 : 0);
+        }
+
+        /**
+         * Builds the immutable set.
+         *
+         * @return the set of all added fingerprints
+         */
+        public ShingleSet build() {
+            var fingerprints = new long[size()];
+            var length = 0;
+
+            if (hasZero)
+                fingerprints[length++] = 0;
+            for (var fingerprint : table)
+                if (fingerprint != 0)
+                    fingerprints[length++] = fingerprint;
+
+            Arrays.sort(fingerprints);
+
+            return new ShingleSet(fingerprints, mode, shingleSize);
+        }
+
+        /**
+         * Doubles the table and rehashes all fingerprints.
+         */
+        private void grow() {
+            var old = table;
+            var mask = old.length * 2 - 1;
+            table = new long[old.length * 2];
+
+            for (var fingerprint : old) {
+                if (fingerprint == 0)
+                    continue;
+
+                var slot = (int) (fingerprint ^ (fingerprint >>> 32)) & mask;
+                while (table[slot] != 0)
+                    slot = (slot + 1) & mask;
+                table[slot] = fingerprint;
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package ie.atu.sw;
+
+/**
+ * Defines how documents are compared.
+ */
+public enum SimilarityMode {
+    /** Sørensen–Dice over the sets of unique tokens */
+    SET("Set"),
+
+    /**
+     * Weighted Sørensen–Dice over token counts:
+     * {@code 2 × Σ min(fa, fb) / (Σ fa + Σ fb)}
+     */
+    MULTISET("Multiset"),
+
+    /** Sørensen–Dice over the sets of character n-grams of every line */
+    CHARACTER_NGRAMS("Character n-grams"),
+
+    /** Sørensen–Dice over the sets of word k-shingles of every line */
+    WORD_SHINGLES("Word shingles");
+
+    private final String displayName;
+
+    SimilarityMode(String displayName) {
+        this.displayName = displayName;
+    }
+
+    /**
+     * Indicates whether documents are compared by shingle fingerprints.
+     *
+     * @return {@code true} for the n-gram and k-shingle modes
+     */
+    public boolean isShingled() {
+        return this == CHARACTER_NGRAMS || this == WORD_SHINGLES;
+    }
+
+    /**
+     * Returns the number of characters or words per shingle used unless
+     * another size is chosen: character bigrams and word 3-shingles.
+     *
+     * @return the default shingle size, 0 for the token modes
+     */
+    public int getDefaultShingleSize() {
+        return switch (this) {
+            case CHARACTER_NGRAMS -> 2;
+            case WORD_SHINGLES -> 3;
+            default -> 0;
+        };
+    }
+
+    /**
+     * Returns a human-readable name of the mode.
+     */
+    @Override
+    public String toString() {
+        return displayName;
+    }
+}
@@ -0,0 +1,618 @@
+package ie.atu.sw;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Long-running similarity service with an HTTP/JSON API.
+ *
+ * Documents are kept tokenized in a {@link DocumentStore}, so after the
+ * first load a comparison takes microseconds instead of a JVM start and a
+ * full reload. The service uses the JDK's built-in {@link HttpServer} and
+ * handles every request on its own virtual thread; it has no external
+ * dependencies.
+ *
+ * <pre>
+ * GET    /health                       status and number of documents
+ * GET    /documents                    list of stored documents
+ * POST   /documents?path=file          register a file (again: reload it)
+ * POST   /documents?name=name          upload the request body as text
+ * GET    /documents/{id}               one stored document
+ * DELETE /documents/{id}               remove a document
+ * GET    /compare?a={id}&amp;b={id}        Dice similarity of two documents
+ * GET    /compare/{id}?limit=n         all other documents ranked by Dice
+ * PUT    /stopwords?path=file          load a stop-word list from a file
+ * PUT    /stopwords                    load the request body as stop-word list
+ * GET    /metrics                      metrics in the Prometheus text format
+ * GET    /metrics?format=json          metrics as JSON
+ * </pre>
+ *
+ * The comparison endpoints accept {@code filter=true} to remove stop-words
+ * first. Files named by {@code path=} are resolved against the document
+ * root ({@code --root}, the working directory by default), and files outside
+ * of it are refused, so clients can only make the server read what was
+ * shared with them. Errors are answered with a JSON object holding the message:
+ * 400 for invalid requests, 413 for bodies larger than {@code --max-body}
+ * bytes, and 500 for unexpected failures of the server itself. With
+ * {@code --off-heap}, the token dictionary of the store is kept in native
+ * memory. It is released only when the server stops: deleting a document
+ * does not free its tokens, so the dictionary of a long-running server grows
+ * with every distinct token it has seen.
+ */
+public class SimilarityServer implements AutoCloseable {
+    /** Port used unless another one is given */
+    public static final int DEFAULT_PORT = 8080;
+
+    /** Number of documents returned by a ranking unless a limit is given */
+    private static final int DEFAULT_RANKING_LIMIT = 10;
+
+    /** Largest request body accepted unless another limit is given (16 MiB) */
+    public static final int DEFAULT_MAX_BODY_BYTES = 16 * 1024 * 1024;
+
+    /** Logger of unexpected failures, which are answered with 500 */
+    private static final System.Logger LOGGER = System.getLogger(SimilarityServer.class.getName());
+
+    /** Latencies of answering requests */
+    private static final Metrics.Phase REQUEST = Metrics.phase("request");
+
+    /** Usage summary printed on invalid arguments */
+    private static final String USAGE = """
+            Usage: --serve [--host address] [--port n] [--root directory] [--threads n] [--stop file]
+                   [--max-body bytes] [--off-heap]""";
+
+    /**
+     * Error answered with a specific HTTP status.
+     */
+    private static final class HttpError extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        /** HTTP status code */
+        private final int status;
+
+        HttpError(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    /**
+     * Handles one request of an endpoint.
+     */
+    @FunctionalInterface
+    private interface Endpoint {
+        /**
+         * Handles a request.
+         *
+         * @param exchange the request and response
+         * @return the response
+         * @throws Exception if the request cannot be answered
+         */
+        Response handle(HttpExchange exchange) throws Exception;
+    }
+
+    /**
+     * Answer of an endpoint.
+     *
+     * @param status the HTTP status code
+     * @param body   the response body
+     */
+    private record Response(int status, String body) {
+        /** Returns a response with status 200 OK */
+        static Response ok(String body) {
+            return new Response(200, body);
+        }
+
+        /** Returns a response with status 201 Created */
+        static Response created(String body) {
+            return new Response(201, body);
+        }
+    }
+
+    /** Store of the tokenized documents */
+    private final DocumentStore store;
+
+    /** Directory of the files clients may name, as a real path */
+    private final Path root;
+
+    /** Server accepting the connections */
+    private final HttpServer httpServer;
+
+    /** Executor running every request on a new virtual thread */
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    /** Largest request body accepted, in bytes */
+    private int maxBodyBytes = DEFAULT_MAX_BODY_BYTES;
+
+    /**
+     * Creates a server for a document store. The server does not accept
+     * requests before it is started.
+     *
+     * @param store   the document store
+     * @param address the address to listen on, port 0 for any free port
+     * @param root    the directory of the files clients may register or load
+     *                as stop-words
+     * @throws Exception if the address cannot be bound or the root is not a
+     *                   directory
+     */
+    public SimilarityServer(DocumentStore store, InetSocketAddress address, Path root) throws Exception {
+        this.store = store;
+
+        try {
+            this.root = root.toRealPath();
+        } catch (IOException e) {
+            throw new Exception("Document root not found: " + root + "!!!");
+        }
+        if (!Files.isDirectory(this.root))
+            throw new Exception("Document root is not a directory: " + root + "!!!");
+
+        try {
+            this.httpServer = HttpServer.create(address, 0);
+        } catch (IOException e) {
+            throw new Exception("Cannot listen on " + address + "!!!");
+        }
+
+        httpServer.setExecutor(executor);
+        httpServer.createContext("/health", exchange -> handle(exchange, this::health));
+        httpServer.createContext("/documents", exchange -> handle(exchange, this::documents));
+        httpServer.createContext("/compare", exchange -> handle(exchange, this::compare));
+        httpServer.createContext("/stopwords", exchange -> handle(exchange, this::stopWords));
+        httpServer.createContext("/metrics", exchange -> handle(exchange, this::metrics));
+    }
+
+    /**
+     * Parses the arguments of the server mode, starts the server and keeps
+     * it running until the JVM is stopped.
+     *
+     * @param args the command-line arguments following {@code --serve}
+     * @param out  the stream receiving status messages
+     * @param err  the stream receiving usage errors
+     * @return 0 once the server has started, 2 for invalid arguments
+     */
+    public static int run(String[] args, PrintStream out, PrintStream err) {
+        var host = "127.0.0.1";
+        var port = DEFAULT_PORT;
+        var root = Path.of("");
+        var maxBodyBytes = DEFAULT_MAX_BODY_BYTES;
+        var isOffHeap = Arrays.asList(args).contains("--off-heap");
+        var store = isOffHeap ? new DocumentStore(new OffHeapTokenDictionary()) : new DocumentStore();
+
+        try {
+            for (var i = 0; i < args.length; i++) {
+                if (args[i].equals("--off-heap"))
+                    continue; // Chosen above
+
+                if (i + 1 >= args.length)
+                    throw new Exception("Missing value for " + args[i]);
+
+                switch (args[i]) {
+                    case "--host" -> host = args[++i];
+                    case "--port" -> port = Integer.parseInt(args[++i]);
+                    case "--root" -> root = Path.of(args[++i]);
+                    case "--threads" -> store.setParallelism(Integer.parseInt(args[++i]));
+                    case "--stop" -> store.setStopWords(StopWordFilter.readStopWords(Path.of(args[++i])));
+                    case "--max-body" -> maxBodyBytes = Integer.parseInt(args[++i]);
+                    default -> throw new Exception("Unknown argument: " + args[i]);
+                }
+            }
+
+            try {
+                Metrics.registerMXBean();
+            } catch (Exception e) {
+                // JMX is optional - the metrics are still served over HTTP
+            }
+
+            var server = new SimilarityServer(store, new InetSocketAddress(host, port), root);
+            server.setMaxBodyBytes(maxBodyBytes);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.close();
+                store.close();
+            }));
+            server.start();
+
+            out.println("Listening on http://" + host + ":" + server.getPort());
+        } catch (Exception e) {
+            err.println(e instanceof NumberFormatException ? "Not a number: " + e.getMessage() : e.getMessage());
+            err.println(USAGE);
+            store.close();
+            return BatchRunner.EXIT_USAGE;
+        }
+
+        return BatchRunner.EXIT_OK;
+    }
+
+    /**
+     * Starts accepting requests.
+     */
+    public void start() {
+        httpServer.start();
+    }
+
+    /**
+     * Sets the largest request body accepted. Larger bodies are refused with
+     * 413 Content Too Large.
+     *
+     * @param maxBodyBytes the limit in bytes
+     * @throws Exception if the limit is not positive or too large for an array
+     */
+    public void setMaxBodyBytes(int maxBodyBytes) throws Exception {
+        if (maxBodyBytes < 1 || maxBodyBytes > Integer.MAX_VALUE - 8)
+            throw new Exception("Max Body - Format Error!!!");
+
+        this.maxBodyBytes = maxBodyBytes;
+    }
+
+    /** Returns the port the server listens on */
+    public int getPort() {
+        return httpServer.getAddress().getPort();
+    }
+
+    /**
+     * Stops accepting requests and waits for running requests to finish.
+     */
+    @Override
+    public void close() {
+        httpServer.stop(0);
+        executor.close();
+    }
+
+    /**
+     * Answers a request with the result of an endpoint, or with the error it
+     * raised. Checked exceptions reject the request with 400 unless they
+     * carry a status; runtime exceptions are failures of the server and are
+     * answered with 500, without their details.
+     *
+     * @param exchange the request and response
+     * @param endpoint the endpoint
+     */
+    private void handle(HttpExchange exchange, Endpoint endpoint) {
+        var sample = REQUEST.begin();
+
+        try (exchange) {
+            int status;
+            String body;
+
+            try {
+                var response = endpoint.handle(exchange);
+                status = response.status();
+                body = response.body();
+            } catch (HttpError e) {
+                status = e.status;
+                body = error(e.getMessage());
+            } catch (RuntimeException e) {
+                LOGGER.log(System.Logger.Level.ERROR, "Request failed: " + exchange.getRequestURI(), e);
+                status = 500;
+                body = error(null);
+            } catch (Exception e) {
+                status = 400;
+                body = error(e.getMessage());
+            }
+
+            var bytes = body.getBytes(StandardCharsets.UTF_8);
+            if (status != 200 || !exchange.getResponseHeaders().containsKey("Content-Type"))
+                exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(status, bytes.length);
+            exchange.getResponseBody().write(bytes);
+        } catch (IOException e) {
+            // Client disconnected - nothing left to answer
+        } finally {
+            REQUEST.end(sample);
+        }
+    }
+
+    /**
+     * {@code GET /health}
+     */
+    private Response health(HttpExchange exchange) throws Exception {
+        requireMethod(exchange, "GET");
+
+        var filter = store.getStopWordFilter();
+
+        return Response.ok("{\"status\": \"ok\", \"documents\": " + store.size()
+                + ", \"stopWords\": " + (filter == null ? 0 : filter.getSize()) + "}");
+    }
+
+    /**
+     * {@code GET /metrics}
+     */
+    private Response metrics(HttpExchange exchange) throws Exception {
+        requireMethod(exchange, "GET");
+
+        if ("json".equals(query(exchange).get("format")))
+            return Response.ok(Metrics.toJson());
+
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+
+        return Response.ok(Metrics.toPrometheus());
+    }
+
+    /**
+     * {@code /documents} and {@code /documents/{id}}
+     */
+    private Response documents(HttpExchange exchange) throws Exception {
+        var id = pathId(exchange, "/documents");
+        var query = query(exchange);
+
+        if (id == null) {
+            switch (exchange.getRequestMethod()) {
+                case "GET" -> {
+                    var sb = new StringBuilder("{\"documents\": [");
+                    var first = true;
+
+                    for (var entry : store.getDocuments().entrySet()) {
+                        sb.append(first ? "" : ", ").append(toJson(entry.getKey(), entry.getValue()));
+                        first = false;
+                    }
+
+                    return Response.ok(sb.append("]}").toString());
+                }
+                case "POST" -> {
+                    var start = System.nanoTime();
+                    String newId;
+                    var isCreated = true;
+
+                    if (query.containsKey("path")) {
+                        var path = resolve(query.get("path"));
+                        isCreated = store.getId(path) == null;
+                        newId = store.register(path);
+                    } else if (query.containsKey("name")) {
+                        newId = store.upload(query.get("name"), body(exchange));
+                    } else {
+                        throw new Exception("Parameter path or name required!!!");
+                    }
+
+                    var body = withMicros(toJson(newId, store.get(newId)), start);
+
+                    // Registering a known file again reloads it
+                    return isCreated ? Response.created(body) : Response.ok(body);
+                }
+                default -> throw new HttpError(405, "Method not allowed: " + exchange.getRequestMethod());
+            }
+        }
+
+        var document = store.get(id);
+        if (document == null)
+            throw new HttpError(404, "Unknown document: " + id);
+
+        switch (exchange.getRequestMethod()) {
+            case "GET" -> {
+                return Response.ok(toJson(id, document));
+            }
+            case "DELETE" -> {
+                store.remove(id);
+                return Response.ok("{\"deleted\": " + Json.quote(id) + "}");
+            }
+            default -> throw new HttpError(405, "Method not allowed: " + exchange.getRequestMethod());
+        }
+    }
+
+    /**
+     * {@code /compare?a={id}&b={id}} and {@code /compare/{id}}
+     */
+    private Response compare(HttpExchange exchange) throws Exception {
+        requireMethod(exchange, "GET");
+
+        var id = pathId(exchange, "/compare");
+        var query = query(exchange);
+        var filtering = Boolean.parseBoolean(query.get("filter"));
+        var start = System.nanoTime();
+
+        if (id == null) {
+            var idA = requireDocument(query.get("a"));
+            var idB = requireDocument(query.get("b"));
+            var similarity = store.compare(idA, idB, filtering);
+
+            return Response.ok(withMicros("{\"a\": " + Json.quote(idA) + ", \"b\": " + Json.quote(idB)
+                    + ", \"dice\": " + format(similarity) + ", \"filtering\": " + filtering + "}", start));
+        }
+
+        requireDocument(id);
+
+        var limit = DEFAULT_RANKING_LIMIT;
+        try {
+            if (query.containsKey("limit"))
+                limit = Integer.parseInt(query.get("limit"));
+        } catch (NumberFormatException e) {
+            throw new Exception("Limit - Format Error!!!");
+        }
+        if (limit < 1)
+            throw new Exception("Limit - Format Error!!!");
+
+        var sb = new StringBuilder("{\"id\": ").append(Json.quote(id))
+                .append(", \"filtering\": ").append(filtering).append(", \"matches\": [");
+        var matches = store.rank(id, filtering, limit);
+
+        for (var i = 0; i < matches.size(); i++) {
+            var match = matches.get(i);
+            sb.append(i == 0 ? "" : ", ").append("{\"id\": ").append(Json.quote(match.id()))
+                    .append(", \"name\": ").append(Json.quote(match.document().toString()))
+                    .append(", \"dice\": ").append(format(match.dice())).append("}");
+        }
+
+        return Response.ok(withMicros(sb.append("]}").toString(), start));
+    }
+
+    /**
+     * {@code PUT /stopwords}
+     */
+    private Response stopWords(HttpExchange exchange) throws Exception {
+        requireMethod(exchange, "PUT");
+
+        var query = query(exchange);
+        var stopWords = query.containsKey("path") ? StopWordFilter.readStopWords(resolve(query.get("path")))
+                : StopWordFilter.parseStopWords(body(exchange).lines().toList());
+
+        return Response.ok("{\"stopWords\": " + store.setStopWords(stopWords) + "}");
+    }
+
+    /**
+     * Resolves a file named by a client against the document root.
+     *
+     * @param path the path, relative to the root or absolute
+     * @return the real path of the file
+     * @throws HttpError if the file is outside of the root or does not exist
+     */
+    private Path resolve(String path) throws HttpError {
+        Path file;
+
+        try {
+            file = root.resolve(path).normalize();
+        } catch (InvalidPathException e) {
+            throw new HttpError(400, "Invalid path: " + path);
+        }
+        if (!file.startsWith(root))
+            throw new HttpError(403, "Outside of the document root: " + path);
+
+        try {
+            // Symbolic links must not lead out of the root either
+            file = file.toRealPath();
+        } catch (IOException e) {
+            throw new HttpError(404, "File not found: " + path);
+        }
+        if (!file.startsWith(root))
+            throw new HttpError(403, "Outside of the document root: " + path);
+
+        return file;
+    }
+
+    /**
+     * Ensures a request uses the given method.
+     *
+     * @throws HttpError if it uses another method
+     */
+    private static void requireMethod(HttpExchange exchange, String method) throws HttpError {
+        if (!exchange.getRequestMethod().equals(method))
+            throw new HttpError(405, "Method not allowed: " + exchange.getRequestMethod());
+    }
+
+    /**
+     * Ensures a document ID is given and stored.
+     *
+     * @return the ID
+     * @throws HttpError if the ID is missing or unknown
+     */
+    private String requireDocument(String id) throws HttpError {
+        if (id == null)
+            throw new HttpError(400, "Parameters a and b required!!!");
+        if (store.get(id) == null)
+            throw new HttpError(404, "Unknown document: " + id);
+
+        return id;
+    }
+
+    /**
+     * Returns the path segment following the context path, or {@code null}
+     * if the request is for the context itself.
+     *
+     * @throws HttpError if the path has further segments
+     */
+    private static String pathId(HttpExchange exchange, String context) throws HttpError {
+        var rest = exchange.getRequestURI().getPath().substring(context.length());
+
+        if (rest.isEmpty() || rest.equals("/"))
+            return null;
+        if (rest.indexOf('/', 1) >= 0)
+            throw new HttpError(404, "Not found: " + exchange.getRequestURI().getPath());
+
+        return rest.substring(1);
+    }
+
+    /**
+     * Decodes the query parameters of a request.
+     *
+     * @throws HttpError if a parameter is not properly encoded
+     */
+    private static Map<String, String> query(HttpExchange exchange) throws HttpError {
+        var parameters = new HashMap<String, String>();
+        var query = exchange.getRequestURI().getRawQuery();
+
+        if (query == null)
+            return parameters;
+
+        for (var parameter : query.split("&")) {
+            var separator = parameter.indexOf('=');
+            var name = separator < 0 ? parameter : parameter.substring(0, separator);
+            var value = separator < 0 ? "" : parameter.substring(separator + 1);
+
+            try {
+                parameters.put(URLDecoder.decode(name, StandardCharsets.UTF_8),
+                        URLDecoder.decode(value, StandardCharsets.UTF_8));
+            } catch (IllegalArgumentException e) {
+                throw new HttpError(400, "Invalid query parameter: " + parameter);
+            }
+        }
+
+        return parameters;
+    }
+
+    /**
+     * Reads the body of a request as UTF-8 text.
+     *
+     * The declared length is checked before reading, and the read stops one
+     * byte past the limit, so a body without a length (chunked) or with a
+     * wrong one cannot make the server buffer more than the limit either.
+     *
+     * @throws HttpError if the body is larger than the limit
+     */
+    private String body(HttpExchange exchange) throws IOException, HttpError {
+        var length = exchange.getRequestHeaders().getFirst("Content-Length");
+
+        try {
+            if (length != null && Long.parseLong(length.trim()) > maxBodyBytes)
+                throw new HttpError(413, "Body larger than " + maxBodyBytes + " bytes");
+        } catch (NumberFormatException e) {
+            throw new HttpError(400, "Invalid Content-Length: " + length);
+        }
+
+        var bytes = exchange.getRequestBody().readNBytes(maxBodyBytes + 1);
+        if (bytes.length > maxBodyBytes)
+            throw new HttpError(413, "Body larger than " + maxBodyBytes + " bytes");
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Formats a stored document as a JSON object.
+     */
+    private static String toJson(String id, Document document) {
+        return "{\"id\": " + Json.quote(id) + ", \"name\": " + Json.quote(document.toString())
+                + ", \"tokens\": " + document.getTokens().size()
+                + ", \"stopWords\": " + document.getNoiseCount() + "}";
+    }
+
+    /**
+     * Adds the time elapsed since the start of a request to a JSON object.
+     */
+    private static String withMicros(String json, long start) {
+        return json.substring(0, json.length() - 1) + ", \"micros\": "
+                + String.format(Locale.ROOT, "%.1f", (System.nanoTime() - start) / 1000d) + "}";
+    }
+
+    /**
+     * Formats a similarity.
+     */
+    private static String format(double similarity) {
+        return String.format(Locale.ROOT, "%.6f", similarity);
+    }
+
+    /**
+     * Formats an error message as a JSON object.
+     */
+    private static String error(String message) {
+        return "{\"error\": " + Json.quote(message == null ? "Internal error" : message) + "}";
+    }
+}
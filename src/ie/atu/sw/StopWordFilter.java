@@ -1,7 +1,14 @@
 package ie.atu.sw;
 
+import java.nio.file.Path;
+import java.util.AbstractSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Stop-word filtering and noise analysis utility.
@@ -12,16 +19,43 @@ import java.util.TreeSet;
  * <li>calculating the stop-word noise ratio of a text</li>
  * </ul>
  *
+ * Stop-words are also interned in the shared {@link TokenDictionary} and
+ * compiled into a bitset over the token ID space, so every membership test
+ * for a document stored as {@link TokenIdSet} is a single bit lookup with no
+ * allocation. Stop-words given as strings are kept in a hash-based set.
+ *
  * The class also enforces a minimum number of meaningful tokens
  * required for similarity calculation. If this condition is violated,
  * an exception is thrown to prevent invalid comparisons.
+ *
+ * Filtering and noise analysis are timed in {@link Metrics} under
+ * {@code filter} and {@code noise_ratio}, and recorded as
+ * {@link PipelineEvents} for Java Flight Recorder.
  */
 public class StopWordFilter {
+    /** Latencies and allocations of filtering */
+    private static final Metrics.Phase FILTER = Metrics.phase("filter");
+
+    /** Latencies and allocations of noise analysis */
+    private static final Metrics.Phase NOISE_RATIO = Metrics.phase("noise_ratio");
+
+    /** Number of tokens passed to filtering */
+    private static final LongAdder FILTER_TOKENS = Metrics.counter("filter_tokens");
+
+    /** Number of tokens passed to noise analysis */
+    private static final LongAdder NOISE_TOKENS = Metrics.counter("noise_ratio_tokens");
+
     /**
      * Set of stop-words used for filtering and noise analysis.
      */
     private final Set<String> stopWords;
 
+    /**
+     * Bitset over the IDs of the shared token dictionary, with the bits of
+     * the stop-word IDs set.
+     */
+    private final long[] stopWordBits;
+
     /**
      * Minimum number of tokens required after filtering.
      * Used as a safety threshold to avoid meaningless similarity calculations.
@@ -34,12 +68,69 @@ public class StopWordFilter {
      *
      * @param stopWords  the set of stop-words
      * @param min_tokens the minimum number of tokens required after filtering
+     * @param dictionary the dictionary shared with the filtered documents
      */
-    public StopWordFilter(Set<String> stopWords, int min_tokens) {
-        this.stopWords = stopWords;
+    public StopWordFilter(Set<String> stopWords, int min_tokens, TokenDictionary dictionary) {
+        this.stopWords = new HashSet<>(stopWords);
         this.MIN_TOKENS = min_tokens;
+
+        var ids = TokenIdSet.of(stopWords, dictionary);
+        this.stopWordBits = new long[ids.size() == 0 ? 0 : (ids.get(ids.size() - 1) >>> 6) + 1];
+        for (var i = 0; i < ids.size(); i++)
+            stopWordBits[ids.get(i) >>> 6] |= 1L << ids.get(i);
     };
 
+    /**
+     * Reads and validates a stop-word list from a file.
+     *
+     * Each line of the file must contain exactly one word.
+     * Empty lines are ignored.
+     *
+     * @param filePath path to the stop-word list file
+     * @return the lower-case stop-words
+     * @throws Exception if the file cannot be read, a line contains more
+     *                   than one word or the list is empty
+     */
+    public static Set<String> readStopWords(Path filePath) throws Exception {
+        return parseStopWords(FileIO.readFile(filePath));
+    }
+
+    /**
+     * Parses and validates the lines of a stop-word list.
+     *
+     * Works like {@link #readStopWords(Path)} on lines already in memory.
+     *
+     * @param lines the lines of the list
+     * @return the lower-case stop-words
+     * @throws Exception if a line contains more than one word or the list is
+     *                   empty
+     */
+    public static Set<String> parseStopWords(List<String> lines) throws Exception {
+        var stopWordsSet = new TreeSet<String>();
+
+        // Try to parse Stop Words List. Every lien has to consist exactly one word
+        // else throw Exception
+        for (var line : lines) {
+            var words = line.toLowerCase().split("\\s+");
+            // Empty line - continue
+            if (words.length == 0)
+                continue;
+
+            // More than one word - Format Error !!!
+            if (words.length > 1)
+                throw new Exception("Stop Words List File - Format Error!!!");
+
+            // If not empty string - add word to stop words set
+            if (!words[0].equals(""))
+                stopWordsSet.add(words[0]);
+        }
+
+        if (stopWordsSet.size() == 0)
+            throw new Exception("Stop Word List - Empty!!!");
+
+        return stopWordsSet;
+    }
+
     /**
      * Return stop words list size
      * 
@@ -49,33 +140,244 @@ public class StopWordFilter {
         return stopWords.size();
     }
 
+    /**
+     * Checks whether a token is a stop-word.
+     *
+     * @param token the token
+     * @return {@code true} if the token is in the stop-word list
+     */
+    public boolean isStopWord(String token) {
+        return stopWords.contains(token);
+    }
+
+    /**
+     * Checks whether a token ID belongs to a stop-word.
+     *
+     * @param id the token ID in the shared dictionary
+     * @return {@code true} if the token is in the stop-word list
+     */
+    public boolean isStopWord(int id) {
+        var word = id >>> 6;
+
+        return word < stopWordBits.length && (stopWordBits[word] & (1L << id)) != 0;
+    }
+
     /**
      * Filters stop-words from the provided token set.
      *
-     * All tokens present in the stop-word list are removed.
+     * All tokens present in the stop-word list are removed. Instead of
+     * copying the remaining tokens, a read-only view of the given set is
+     * returned that skips the stop-words; the given set must not be modified
+     * while the view is in use.
      *
      * If the number of remaining tokens falls below the configured
      * minimum threshold, an exception is thrown
      *
      * @param tokens the original set of tokens
-     * @return a new set of tokens with stop-words removed
+     * @return a view of the tokens with stop-words removed
      * @throws Exception if too few tokens remain after filtering
      */
     public Set<String> filter(Set<String> tokens) throws Exception {
-        var filteredTokens = new TreeSet<String>();
+        var event = new PipelineEvents.StopWordFiltering();
+        event.begin();
+        var sample = FILTER.begin();
+        FILTER_TOKENS.add(tokens.size());
+
+        try {
+            var size = 0;
+
+            for (var token : tokens)
+                if (!stopWords.contains(token))
+                    size++;
 
-        var iter = tokens.iterator();
+            if (size < MIN_TOKENS)
+                throw new Exception("Too few tokens after filtering - Disable Filtering!!!");
 
-        while (iter.hasNext()) {
-            var token = iter.next();
-            if (!stopWords.contains(token))
-                filteredTokens.add(token);
+            event.commit(null, tokens.size(), size, getSize(), "strings");
+
+            return new FilteredView(tokens, size);
+        } finally {
+            FILTER.end(sample);
         }
+    }
+
+    /**
+     * Filters stop-words from the provided set of token IDs.
+     *
+     * Works like {@link #filter(Set)}, but on IDs from the shared dictionary.
+     *
+     * @param tokens the original set of token IDs
+     * @return a new set of token IDs with stop-words removed
+     * @throws Exception if too few tokens remain after filtering
+     */
+    public TokenIdSet filter(TokenIdSet tokens) throws Exception {
+        var event = new PipelineEvents.StopWordFiltering();
+        event.begin();
+        var sample = FILTER.begin();
+        FILTER_TOKENS.add(tokens.size());
+
+        try {
+            var filteredIds = new int[tokens.size()];
+            var length = 0;
 
-        if (filteredTokens.size() < MIN_TOKENS)
-            throw new Exception("Too few tokens after filtering - Disable Filtering!!!");
+            for (var i = 0; i < tokens.size(); i++) {
+                var id = tokens.get(i);
+                if (!isStopWord(id))
+                    filteredIds[length++] = id;
+            }
 
-        return filteredTokens;
+            if (length < MIN_TOKENS)
+                throw new Exception("Too few tokens after filtering - Disable Filtering!!!");
+
+            event.commit(null, tokens.size(), length, getSize(), "ids");
+
+            return TokenIdSet.ofSorted(filteredIds, length);
+        } finally {
+            FILTER.end(sample);
+        }
+    }
+
+    /**
+     * Filters stop-words from a bag of token IDs.
+     *
+     * Works like {@link #filter(TokenIdSet)}, keeping the counts of the
+     * remaining tokens. The minimum threshold applies to the number of
+     * distinct tokens.
+     *
+     * @param bag the original bag of token IDs
+     * @return a new bag with stop-words removed
+     * @throws Exception if too few tokens remain after filtering
+     */
+    public TokenBag filter(TokenBag bag) throws Exception {
+        var event = new PipelineEvents.StopWordFiltering();
+        event.begin();
+        var sample = FILTER.begin();
+        FILTER_TOKENS.add(bag.size());
+
+        try {
+            var filtered = bag.filter(id -> !isStopWord(id));
+
+            if (filtered.size() < MIN_TOKENS)
+                throw new Exception("Too few tokens after filtering - Disable Filtering!!!");
+
+            event.commit(null, bag.size(), filtered.size(), getSize(), "bag");
+
+            return filtered;
+        } finally {
+            FILTER.end(sample);
+        }
+    }
+
+    /**
+     * Marks the stop-words of a document.
+     *
+     * The result carries a mask with one bit per token and the number of
+     * stop-words, so {@link #filter(Document)} and
+     * {@link #calculateNoiseRatio(Document)} no longer need to test the
+     * tokens.
+     *
+     * @param document the document
+     * @return the document with the stop-word mask of this filter
+     */
+    public Document apply(Document document) {
+        if (document.getStopWordFilter() == this)
+            return document;
+
+        var tokens = document.getTokens();
+        var mask = new long[(tokens.size() + 63) >>> 6];
+        var noiseCount = 0;
+
+        for (var i = 0; i < tokens.size(); i++) {
+            if (isStopWord(tokens.get(i))) {
+                mask[i >>> 6] |= 1L << i;
+                noiseCount++;
+            }
+        }
+
+        return document.withStopWords(this, mask, noiseCount);
+    }
+
+    /**
+     * Filters stop-words from a document.
+     *
+     * Works like {@link #filter(TokenIdSet)}. If the document carries the
+     * mask of this filter, the check of the minimum threshold is O(1) and the
+     * result is copied from the mask without any stop-word lookups.
+     *
+     * @param document the document
+     * @return a new set of token IDs with stop-words removed
+     * @throws Exception if too few tokens remain after filtering
+     */
+    public TokenIdSet filter(Document document) throws Exception {
+        var event = new PipelineEvents.StopWordFiltering();
+        event.begin();
+        var sample = FILTER.begin();
+        FILTER_TOKENS.add(document.getTokens().size());
+
+        try {
+            document = apply(document);
+
+            var tokens = document.getTokens();
+            var mask = document.getStopWordMask();
+            var length = tokens.size() - document.getNoiseCount();
+
+            if (length < MIN_TOKENS)
+                throw new Exception("Too few tokens after filtering - Disable Filtering!!!");
+
+            var filteredIds = new int[length];
+            var next = 0;
+
+            for (var w = 0; w < mask.length; w++) {
+                // Walk the kept tokens of every mask word
+                var kept = ~mask[w];
+                if (w == mask.length - 1 && (tokens.size() & 63) != 0)
+                    kept &= (1L << tokens.size()) - 1;
+
+                while (kept != 0) {
+                    filteredIds[next++] = tokens.get((w << 6) + Long.numberOfTrailingZeros(kept));
+                    kept &= kept - 1;
+                }
+            }
+
+            event.commit(document.getPath(), tokens.size(), length, getSize(), "mask");
+
+            return TokenIdSet.ofSorted(filteredIds, length);
+        } finally {
+            FILTER.end(sample);
+        }
+    }
+
+    /**
+     * Calculates the noise ratio of a document.
+     *
+     * Works like {@link #calculateNoiseRatio(TokenIdSet)}, but is O(1) if the
+     * document carries the mask of this filter.
+     *
+     * @param document the document
+     * @return the noise ratio in the range {@code [0.0, 1.0]}
+     * @throws Exception if too few tokens would remain after filtering
+     */
+    public double calculateNoiseRatio(Document document) throws Exception {
+        var event = new PipelineEvents.NoiseAnalysis();
+        event.begin();
+        var sample = NOISE_RATIO.begin();
+        NOISE_TOKENS.add(document.getTokens().size());
+
+        try {
+            document = apply(document);
+
+            var size = document.getTokens().size();
+            double noiseCounter = document.getNoiseCount();
+
+            if (size - noiseCounter < MIN_TOKENS)
+                throw new Exception("Too few tokens after filtering!!!");
+
+            event.commit(document.getPath(), size, document.getNoiseCount(), "mask");
+
+            return noiseCounter / size;
+        } finally {
+            NOISE_RATIO.end(sample);
+        }
     }
 
     /**
@@ -99,19 +401,126 @@ public class StopWordFilter {
      */
     public double calculateNoiseRatio(
             Set<String> tokens) throws Exception {
-        var noiseCounter = 0d;
-        var iter = tokens.iterator();
+        var event = new PipelineEvents.NoiseAnalysis();
+        event.begin();
+        var sample = NOISE_RATIO.begin();
+        NOISE_TOKENS.add(tokens.size());
+
+        try {
+            var noiseCounter = 0d;
+            var iter = tokens.iterator();
 
-        while (iter.hasNext()) {
-            var token = iter.next();
+            while (iter.hasNext()) {
+                var token = iter.next();
 
-            if (stopWords.contains(token))
-                noiseCounter += 1;
+                if (stopWords.contains(token))
+                    noiseCounter += 1;
+            }
+
+            if (tokens.size() - noiseCounter < MIN_TOKENS)
+                throw new Exception("Too few tokens after filtering!!!");
+
+            event.commit(null, tokens.size(), (int) noiseCounter, "strings");
+
+            return noiseCounter / tokens.size();
+        } finally {
+            NOISE_RATIO.end(sample);
         }
+    }
+
+    /**
+     * Calculates the noise ratio of a set of token IDs based on stop-words.
+     *
+     * Works like {@link #calculateNoiseRatio(Set)}, but on IDs from the
+     * shared dictionary.
+     *
+     * @param tokens the set of token IDs to analyze
+     * @return the noise ratio in the range {@code [0.0, 1.0]}
+     * @throws Exception if too few tokens would remain after filtering
+     */
+    public double calculateNoiseRatio(TokenIdSet tokens) throws Exception {
+        var event = new PipelineEvents.NoiseAnalysis();
+        event.begin();
+        var sample = NOISE_RATIO.begin();
+        NOISE_TOKENS.add(tokens.size());
+
+        try {
+            var noiseCounter = 0d;
+
+            for (var i = 0; i < tokens.size(); i++)
+                if (isStopWord(tokens.get(i)))
+                    noiseCounter += 1;
+
+            if (tokens.size() - noiseCounter < MIN_TOKENS)
+                throw new Exception("Too few tokens after filtering!!!");
 
-        if (tokens.size() - noiseCounter < MIN_TOKENS)
-            throw new Exception("Too few tokens after filtering!!!");
+            event.commit(null, tokens.size(), (int) noiseCounter, "ids");
 
-        return noiseCounter / tokens.size();
+            return noiseCounter / tokens.size();
+        } finally {
+            NOISE_RATIO.end(sample);
+        }
+    }
+
+    /**
+     * Read-only view of a token set without the stop-words.
+     */
+    private final class FilteredView extends AbstractSet<String> {
+        /** The unfiltered tokens */
+        private final Set<String> tokens;
+
+        /** Number of tokens that are not stop-words */
+        private final int size;
+
+        FilteredView(Set<String> tokens, int size) {
+            this.tokens = tokens;
+            this.size = size;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return tokens.contains(o) && !stopWords.contains(o);
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+            var base = tokens.iterator();
+
+            return new Iterator<>() {
+                /** Next token to return, or null at the end */
+                private String next = advance();
+
+                private String advance() {
+                    while (base.hasNext()) {
+                        var token = base.next();
+                        if (!stopWords.contains(token))
+                            return token;
+                    }
+
+                    return null;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return next != null;
+                }
+
+                @Override
+                public String next() {
+                    if (next == null)
+                        throw new NoSuchElementException();
+
+                    var token = next;
+                    next = advance();
+
+                    return token;
+                }
+            };
+        }
     }
 }
@@ -1,15 +1,13 @@
 package ie.atu.sw;
 
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Duration;
-import java.util.List;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Scanner;
-import java.util.Set;
-import java.util.TreeSet;
-import java.util.concurrent.ConcurrentSkipListSet;
-import java.util.concurrent.StructuredTaskScope;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import static ie.atu.sw.ConsoleIO.*;
 
@@ -65,14 +63,103 @@ public class TextComparator {
     /** Minimum number of unique tokens required for similarity calculation */
     public static final int MIN_TOKENS = 3;
 
+    /** Default Dice threshold when searching for similar documents */
+    private static final double DEFAULT_SIMILARITY_THRESHOLD = 0.5;
+
+    /** Number of documents listed when ranking a corpus against a file */
+    private static final int RANKING_LIMIT = 10;
+
+    /** Memory limits of the in-process caches in bytes */
+    private static final long DOCUMENT_CACHE_BYTES = 256L << 20;
+    private static final long FILTER_CACHE_BYTES = 128L << 20;
+    private static final long DICE_CACHE_BYTES = 1L << 20;
+
+    /** Approximate memory used by one cached Dice result and its key */
+    private static final long DICE_ENTRY_BYTES = 128;
+
+    /** Minimum time between progress bar updates */
+    private static final Duration PROGRESS_INTERVAL = Duration.ofMillis(100);
+
+    /** Amount of work after which the progress bar is updated regardless of time */
+    private static final long PROGRESS_STEPS = 1 << 20;
+
     /** Paths to input text files and stop-word list */
     private Path textFileAPath = null;
     private Path textFileBPath = null;
     private Path stopWordsFilePath = null;
 
-    /** Token sets extracted from the input text files */
-    private Set<String> tokensA = null;
-    private Set<String> tokensB = null;
+    /** Path to the directory of the last compared corpus */
+    private Path corpusDirectoryPath = null;
+
+    /**
+     * Settings the similarity index was built with.
+     *
+     * @param directory the indexed corpus directory
+     * @param threshold the Dice threshold the banding was chosen for, 0 if
+     *                  not applicable
+     * @param filter    the stop-word filter applied, or null if none
+     */
+    private record IndexKey(Path directory, double threshold, StopWordFilter filter) {
+    }
+
+    /**
+     * Identity of a loaded file: its path, the last modification time and
+     * size seen when it was loaded, and the mode and shingle size it was
+     * loaded for.
+     */
+    private record DocumentKey(Path path, long modified, long size, SimilarityMode mode, int shingleSize) {
+    }
+
+    /**
+     * A loaded file and the stop-word filter applied to its tokens, or null
+     * if none. The key holds no token set, so a cached entry weighs only its
+     * value.
+     */
+    private record FilterKey(DocumentKey document, StopWordFilter filter) {
+    }
+
+    /** A pair of filtered files, the first one not after the second in {@link #DOCUMENT_ORDER} */
+    private record PairKey(FilterKey a, FilterKey b) {
+    }
+
+    /** Order of loaded files, used to cache every pair in one order only */
+    private static final Comparator<DocumentKey> DOCUMENT_ORDER = Comparator.comparing(DocumentKey::path)
+            .thenComparingLong(DocumentKey::modified).thenComparingLong(DocumentKey::size);
+
+    /** Loaded files */
+    private final WeightedLruCache<DocumentKey, Document> documentCache = new WeightedLruCache<>(
+            DOCUMENT_CACHE_BYTES, (key, document) -> document.memoryFootprint());
+
+    /** Stop-word filtered token sets of loaded files */
+    private final WeightedLruCache<FilterKey, TokenIdSet> filterCache = new WeightedLruCache<>(
+            FILTER_CACHE_BYTES, (key, tokens) -> tokens.memoryFootprint());
+
+    /** Dice similarities of pairs of loaded files */
+    private final WeightedLruCache<PairKey, Double> diceCache = new WeightedLruCache<>(
+            DICE_CACHE_BYTES, (key, dice) -> DICE_ENTRY_BYTES);
+
+    /** Similarity index of the corpus and the settings it was built with */
+    private LshIndex similarityIndex = null;
+    private MinHash similarityIndexMinHash = null;
+    private IndexKey similarityIndexKey = null;
+
+    /** Inverted index of the corpus and the settings it was built with */
+    private InvertedIndex rankingIndex = null;
+    private IndexKey rankingIndexKey = null;
+
+    /** Documents loaded from the input text files, replaced by the watcher */
+    private volatile Document documentA = null;
+    private volatile Document documentB = null;
+
+    /**
+     * Keys of the loaded documents. A document is replaced before its key
+     * and read after it, so the document read is never older than its key.
+     */
+    private volatile DocumentKey documentKeyA = null;
+    private volatile DocumentKey documentKeyB = null;
+
+    /** Watcher reloading the input text files on change, or null if off */
+    private FileWatcher fileWatcher = null;
 
     /** Stop-word filter instance (optional) */
     private StopWordFilter stopWordsFilter = null;
@@ -80,9 +167,72 @@ public class TextComparator {
     /** Text preprocessing utility */
     private final TextPreprocessor textPreprocessor = new TextPreprocessor();
 
+    /** Dictionary of all tokens seen in this session, on or off the heap */
+    private final TokenDictionary dictionary;
+
+    /** Streaming, multithreaded loader of text files A and B */
+    private final TextLoader textLoader;
+
+    /**
+     * Loader of corpus files and queries, which only need token sets: it
+     * stays in set mode, so it uses the token set cache and neither counts
+     * nor shingles whatever mode texts A and B are compared in
+     */
+    private final TextLoader corpusLoader;
+
+    /** Many-to-many comparator sharing the corpus loader and its dictionary */
+    private final CorpusComparator corpusComparator;
+
+    /**
+     * Creates the comparator with a token dictionary on the heap, the
+     * persistent token set cache enabled and the metrics registered with JMX.
+     */
+    public TextComparator() {
+        this(new HeapTokenDictionary());
+    }
+
+    /**
+     * Creates the comparator with the given token dictionary, the persistent
+     * token set cache enabled and the metrics registered with JMX.
+     *
+     * @param dictionary the token dictionary, closed by {@link #close()}
+     */
+    public TextComparator(TokenDictionary dictionary) {
+        this.dictionary = dictionary;
+        textLoader = new TextLoader(textPreprocessor, dictionary);
+        corpusLoader = new TextLoader(textPreprocessor, dictionary);
+        corpusComparator = new CorpusComparator(corpusLoader);
+
+        var cache = new TokenSetCache(TokenSetCache.DEFAULT_DIRECTORY, TokenSetCache.DEFAULT_MAX_BYTES);
+        textLoader.setCache(cache);
+        corpusLoader.setCache(cache);
+
+        try {
+            Metrics.registerMXBean();
+        } catch (Exception e) {
+            // JMX is optional - the metrics are still shown in the menu
+        }
+    }
+
+    /**
+     * Stops file watching and releases the token dictionary. Called when
+     * the user quits; the comparator must not be used afterwards.
+     */
+    public synchronized void close() {
+        if (fileWatcher != null) {
+            fileWatcher.close();
+            fileWatcher = null;
+        }
+
+        dictionary.close();
+    }
+
     /** Indicates whether stop-word filtering is enabled */
     private boolean isFiltering = false;
 
+    /** How text files A and B are compared */
+    private SimilarityMode similarityMode = SimilarityMode.SET;
+
     /** Returns the current path to text file A */
     public Path getTextFileAPath() {
         return textFileAPath;
@@ -103,6 +253,37 @@ public class TextComparator {
         return isFiltering;
     }
 
+    /** Returns how text files A and B are compared */
+    public SimilarityMode getSimilarityMode() {
+        return similarityMode;
+    }
+
+    /** Returns the number of characters or words per shingle */
+    public int getShingleSize() {
+        return textLoader.getShingleSize();
+    }
+
+    /** Indicates whether the input text files are reloaded on change */
+    public boolean getIsWatching() {
+        return fileWatcher != null;
+    }
+
+    /** Returns the number of worker threads used for text preprocessing */
+    public int getParallelism() {
+        return textLoader.getParallelism();
+    }
+
+    /**
+     * Sets the number of worker threads used for text preprocessing.
+     *
+     * @param parallelism the number of workers, at least one
+     * @throws IllegalArgumentException if the number is less than one
+     */
+    public void setParallelism(int parallelism) {
+        textLoader.setParallelism(parallelism);
+        corpusLoader.setParallelism(parallelism);
+    }
+
     /**
      * Toggles stop-word filtering mode on or off.
      * Prints the updated filtering state to the console.
@@ -115,75 +296,179 @@ public class TextComparator {
     }
 
     /**
-     * Ensures that a token set contains at least the minimum
-     * required number of tokens.
+     * Prompts the user to select how text files A and B are compared: as
+     * token sets, token multisets, or sets of character n-grams or word
+     * shingles of a given size.
      *
-     * @throws Exception if the token set is too small
+     * Token counts and shingles are only collected in their modes, so the
+     * loaded text files are reloaded once after switching to them. If a
+     * reload fails, the previous mode and documents are kept.
      */
-    private void checkMinimumTokensNumber(Set<String> set) throws Exception {
-        if (set.size() < TextComparator.MIN_TOKENS)
-            throw new Exception("A minimum of three unique tokens is required!!!");
+    public void selectSimilarityMode() {
+        var s = new Scanner(System.in);
+        var modes = SimilarityMode.values();
+
+        System.out.print("Input Similarity Mode");
+        for (var i = 0; i < modes.length; i++)
+            System.out.print(" (" + (i + 1) + ") " + modes[i]);
+        System.out.print(" [Current - " + getSimilarityModeName() + "]> ");
+        var modeInput = s.nextLine().trim();
+
+        try {
+            var mode = similarityMode;
+
+            try {
+                if (modeInput.length() != 0)
+                    mode = modes[Integer.parseInt(modeInput) - 1];
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                throw new Exception("Similarity Mode - Format Error!!!");
+            }
+
+            var shingleSize = textLoader.getShingleSize();
+
+            if (mode.isShingled()) {
+                var defaultSize = mode.getDefaultShingleSize();
+
+                System.out.print("Input Shingle Size [Empty - " + defaultSize + "]> ");
+                var sizeInput = s.nextLine().trim();
+
+                try {
+                    shingleSize = sizeInput.length() == 0 ? defaultSize : Integer.parseInt(sizeInput);
+                } catch (NumberFormatException e) {
+                    throw new Exception("Shingle Size - Format Error!!!");
+                }
+
+                if (shingleSize < 1)
+                    throw new Exception("Shingle Size - Format Error!!!");
+            }
+
+            switchSimilarityMode(mode, shingleSize);
+        } catch (Exception e) {
+            printErr(e);
+            return;
+        }
+
+        // Print similarity mode
+        printMsg("Current similarity mode: ", getSimilarityModeName());
     }
 
     /**
-     * Loads and preprocesses a text file using multiple virtual threads.
+     * Reloads the loaded text files in a new similarity mode and switches to
+     * it once both have been reloaded.
      *
-     * Each line is processed independently and tokenized in parallel.
-     * A progress indicator is displayed while processing is in progress.
-     *
-     * @param lines the lines of the input text file
-     * @return a thread-safe set of unique tokens
-     * @throws Exception if any task fails
+     * @param mode        the new similarity mode
+     * @param shingleSize the number of characters or words per shingle
+     * @throws Exception if a text file cannot be reloaded; the previous mode
+     *                   and documents are kept
      */
-    private ConcurrentSkipListSet<String> multithreadUploadTextFile(List<String> lines) throws Exception {
-        var tokens = new ConcurrentSkipListSet<String>();
-        AtomicInteger processed = new AtomicInteger(); // Current progress counter
-        int total = lines.size();
-
-        try (var scope = new StructuredTaskScope.ShutdownOnFailure()) {
+    private synchronized void switchSimilarityMode(SimilarityMode mode, int shingleSize) throws Exception {
+        var previousMode = textLoader.getMode();
+        var previousShingleSize = textLoader.getShingleSize();
 
-            // Progress monitoring task
-            scope.fork(() -> {
-                System.out.print(ConsoleColour.YELLOW_BOLD_BRIGHT);
+        textLoader.setMode(mode);
+        textLoader.setShingleSize(shingleSize);
 
-                while (!Thread.currentThread().isInterrupted()
-                        && processed.get() < total) {
+        try {
+            var keyA = documentA != null ? documentKey(textFileAPath) : null;
+            var keyB = documentB != null ? documentKey(textFileBPath) : null;
+            var reloadedA = keyA != null ? loadDocument(textFileAPath, keyA, new ConsoleProgressListener(null)) : null;
+            var reloadedB = keyB != null ? loadDocument(textFileBPath, keyB, new ConsoleProgressListener(null)) : null;
+
+            documentA = reloadedA;
+            documentKeyA = keyA;
+            documentB = reloadedB;
+            documentKeyB = keyB;
+            similarityMode = mode;
+        } catch (Exception e) {
+            textLoader.setMode(previousMode);
+            textLoader.setShingleSize(previousShingleSize);
+            throw e;
+        }
+    }
 
-                    int done = processed.get();
-                    printProgress(done, total);
+    /**
+     * Returns the name of the similarity mode, with the shingle size in the
+     * shingle modes.
+     *
+     * @return the mode name
+     */
+    public String getSimilarityModeName() {
+        return similarityMode.isShingled() ? similarityMode + " (" + textLoader.getShingleSize() + ")"
+                : similarityMode.toString();
+    }
 
-                    try {
-                        Thread.sleep(Duration.ofMillis(100));
-                    } catch (InterruptedException e) {
-                        break;
-                    }
+    /**
+     * Toggles automatic reloading of the input text files on or off.
+     *
+     * While enabled, a changed text file is reloaded in the background; if
+     * it has only grown, just the appended text is tokenized.
+     */
+    public void switchFileWatching() {
+        try {
+            if (fileWatcher != null) {
+                fileWatcher.close();
+                fileWatcher = null;
+            } else {
+                var watcher = new FileWatcher(this::reloadChangedFile);
+
+                try {
+                    if (textFileAPath != null)
+                        watcher.watch(textFileAPath);
+                    if (textFileBPath != null)
+                        watcher.watch(textFileBPath);
+                } catch (Exception e) {
+                    // Stop the watching thread before giving up
+                    watcher.close();
+                    throw e;
                 }
 
-                printProgress(total, total);
-                System.out.print(ConsoleColour.BLACK_BOLD_BRIGHT);
-                System.out.println();
-                System.out.println();
-
-                return null;
-            });
+                fileWatcher = watcher;
+            }
+        } catch (Exception e) {
+            printErr(e);
+        }
 
-            // Parallel preprocessing tasks
-            for (var line : lines) {
-                // Process each line as separate task
-                scope.fork(() -> {
-                    var lineTokens = textPreprocessor.preprocess(line);
-                    tokens.addAll(lineTokens);
-                    processed.incrementAndGet();
+        // Print file watching mode
+        printMsg("Current file watching mode: ", fileWatcher != null ? "Enabled" : "Disabled");
+    }
 
-                    return null;
-                });
+    /**
+     * Reloads the input text file that has changed. Called by the watcher.
+     *
+     * The key, the load and the assignment happen under the same lock as a
+     * mode switch, so a reload never stores a document of another mode.
+     *
+     * @param file the changed file
+     */
+    private synchronized void reloadChangedFile(Path file) {
+        try {
+            if (textFileAPath != null && file.equals(textFileAPath.toAbsolutePath().normalize())) {
+                var key = documentKey(textFileAPath);
+                documentA = loadDocument(textFileAPath, key, null);
+                documentKeyA = key;
+                printMsg("Text File A reloaded: ", documentA.getTokens().size());
             }
 
-            scope.join();
-            scope.throwIfFailed();
+            if (textFileBPath != null && file.equals(textFileBPath.toAbsolutePath().normalize())) {
+                var key = documentKey(textFileBPath);
+                documentB = loadDocument(textFileBPath, key, null);
+                documentKeyB = key;
+                printMsg("Text File B reloaded: ", documentB.getTokens().size());
+            }
+        } catch (Exception e) {
+            printErr(e);
         }
+    }
 
-        return tokens;
+    /**
+     * Ensures that a token set contains at least the minimum
+     * required number of tokens.
+     *
+     * @throws Exception if the token set is too small
+     */
+    private void checkMinimumTokensNumber(TokenIdSet set) throws Exception {
+        if (set.size() < TextComparator.MIN_TOKENS)
+            throw new Exception("A minimum of three unique tokens is required!!!");
     }
 
     /**
@@ -208,17 +493,22 @@ public class TextComparator {
             textFileAPath = Paths.get(fileName);
 
         try {
-            var lines = FileIO.readFile(textFileAPath);
-            tokensA = multithreadUploadTextFile(lines);
+            var key = documentKey(textFileAPath);
+            documentA = loadDocument(textFileAPath, key, new ConsoleProgressListener(null));
+            documentKeyA = key;
+
+            if (fileWatcher != null)
+                fileWatcher.watch(textFileAPath);
 
-            checkMinimumTokensNumber(tokensA);
+            checkMinimumTokensNumber(documentA.getTokens());
 
             // Print number uploaded words
-            printMsg("Words was uploaded: ", tokensA.size());
+            printMsg("Words was uploaded: ", documentA.getTokens().size());
         } catch (Exception e) {
             printErr(e);
             textFileAPath = null;
-            tokensA = null;
+            documentA = null;
+            documentKeyA = null;
         }
     };
 
@@ -244,20 +534,105 @@ public class TextComparator {
             textFileBPath = Paths.get(fileName);
 
         try {
-            var lines = FileIO.readFile(textFileBPath);
-            tokensB = multithreadUploadTextFile(lines);
+            var key = documentKey(textFileBPath);
+            documentB = loadDocument(textFileBPath, key, new ConsoleProgressListener(null));
+            documentKeyB = key;
+
+            if (fileWatcher != null)
+                fileWatcher.watch(textFileBPath);
 
-            checkMinimumTokensNumber(tokensB);
+            checkMinimumTokensNumber(documentB.getTokens());
 
             // Print number uploaded words
-            printMsg("Words was uploaded: ", tokensB.size());
+            printMsg("Words was uploaded: ", documentB.getTokens().size());
         } catch (Exception e) {
             printErr(e);
             textFileBPath = null;
-            tokensB = null;
+            documentB = null;
+            documentKeyB = null;
         }
     };
 
+    /**
+     * Loads a file, reusing the cached document if the file has not been
+     * modified since it was last loaded.
+     *
+     * If the file is already loaded as text A or B and has changed since, it
+     * is reloaded incrementally. If a stop-word list is loaded, the document
+     * carries its stop-word mask, computed during loading. Cached filtered
+     * sets and similarities of other versions of the file are dropped.
+     *
+     * @param path     path to the text file
+     * @param key      the identity of the file, see {@link #documentKey}
+     * @param listener the listener receiving progress updates, or
+     *                 {@code null} for none
+     * @return the loaded document
+     * @throws Exception if reading the file fails
+     */
+    private synchronized Document loadDocument(Path path, DocumentKey key, ProgressListener listener)
+            throws Exception {
+        var previous = documentA != null && documentA.getPath().equals(path) ? documentA
+                : documentB != null && documentB.getPath().equals(path) ? documentB : null;
+
+        var document = documentCache.get(key, k -> previous != null
+                ? textLoader.reload(previous, null, stopWordsFilter, listener)
+                : textLoader.loadDocument(path, null, stopWordsFilter, listener));
+
+        // Cached under an earlier stop-word list - masked once and cached again
+        if (stopWordsFilter != null && document.getStopWordFilter() != stopWordsFilter) {
+            document = stopWordsFilter.apply(document);
+            documentCache.put(key, document);
+        }
+
+        // Filtered sets and similarities of another version of the file are stale
+        filterCache.removeIf(k -> isStale(k, key));
+        diceCache.removeIf(k -> isStale(k.a(), key) || isStale(k.b(), key));
+
+        return document;
+    }
+
+    /**
+     * Returns the identity of a file as it is now, to be loaded in the
+     * current mode.
+     *
+     * @param path path to the text file
+     * @return the key of the file
+     * @throws Exception if the file cannot be read
+     */
+    private DocumentKey documentKey(Path path) throws Exception {
+        try {
+            return new DocumentKey(path.toAbsolutePath().normalize(), Files.getLastModifiedTime(path).toMillis(),
+                    Files.size(path), textLoader.getMode(), textLoader.getShingleSize());
+        } catch (IOException e) {
+            throw new Exception("Error reading file: " + path);
+        }
+    }
+
+    /**
+     * Checks whether a cached entry belongs to another version or mode of a
+     * file that has just been loaded.
+     *
+     * @param filterKey the key of the entry
+     * @param key       the key of the loaded file
+     * @return {@code true} if the entry can no longer be used
+     */
+    private static boolean isStale(FilterKey filterKey, DocumentKey key) {
+        return filterKey.document().path().equals(key.path()) && !filterKey.document().equals(key);
+    }
+
+    /**
+     * Returns the stop-word filtered token set of a document, computing it
+     * only once per loaded file and stop-word list.
+     *
+     * @param key      the key of the loaded file and the stop-word filter
+     * @param document the document loaded from the file
+     * @return the filtered token set
+     * @throws Exception if too few tokens remain after filtering
+     */
+    private TokenIdSet filtered(FilterKey key, Document document) throws Exception {
+        return filterCache.get(key, k -> k.filter().filter(document));
+    }
+
     /**
      * Loads and validates a stop-word list from a file.
      *
@@ -281,30 +656,20 @@ public class TextComparator {
             stopWordsFilePath = Paths.get(fileName);
 
         try {
-            var lines = FileIO.readFile(stopWordsFilePath);
-            var stopWordsSet = new TreeSet<String>();
-
-            // Try to parse Stop Words List. Every lien has to consist exactly one word
-            // else throw Exception
-            for (var line : lines) {
-                var words = line.toLowerCase().split("\\s+");
-                // Empty line - continue
-                if (words.length == 0)
-                    continue;
-
-                // More than one word - Format Error !!!
-                if (words.length > 1)
-                    throw new Exception("Stop Words List File - Format Error!!!");
-
-                // If not empty string - add word to stop words set
-                if (!words[0].equals(""))
-                    stopWordsSet.add(words[0]);
-            }
+            var stopWordsSet = StopWordFilter.readStopWords(stopWordsFilePath);
+
+            stopWordsFilter = new StopWordFilter(stopWordsSet, TextComparator.MIN_TOKENS, dictionary);
 
-            if (stopWordsSet.size() == 0)
-                throw new Exception("Stop Word List - Empty!!!");
+            // Results of the previous list are never used again
+            filterCache.clear();
+            diceCache.removeIf(k -> k.a().filter() != null);
 
-            stopWordsFilter = new StopWordFilter(stopWordsSet, TextComparator.MIN_TOKENS);
+            // Mark the stop-words of the loaded texts once, so filtering and
+            // noise analysis no longer look at their tokens
+            if (documentA != null)
+                documentA = stopWordsFilter.apply(documentA);
+            if (documentB != null)
+                documentB = stopWordsFilter.apply(documentB);
 
             // Print number uploaded words
             printMsg("Words was uploaded: ", stopWordsFilter.getSize());
@@ -324,14 +689,14 @@ public class TextComparator {
         printMsg("Current text file A: ", textFileAPath == null ? "Not Set" : textFileAPath);
 
         // Print out tokens A set status
-        printMsg("Current tokens A set: ", tokensA == null ? "Not Set" : tokensA.size());
+        printMsg("Current tokens A set: ", documentA == null ? "Not Set" : documentA.getTokens().size());
 
         // Print out text file B name
         System.out.println();
         printMsg("Current text file B: ", textFileBPath == null ? "Not Set" : textFileBPath);
 
         // Print out tokens B set status
-        printMsg("Current tokens B set: ", tokensB == null ? "Not Set" : tokensB.size());
+        printMsg("Current tokens B set: ", documentB == null ? "Not Set" : documentB.getTokens().size());
 
         // Print out stop words list name
         System.out.println();
@@ -343,6 +708,78 @@ public class TextComparator {
         // Print out text Filtering Mode
         System.out.println();
         printMsg("Filtering Mode: ", isFiltering ? "Enabled" : "Disabled");
+
+        // Print out similarity and file watching mode
+        printMsg("Similarity Mode: ", getSimilarityModeName());
+        printMsg("File Watching: ", fileWatcher != null ? "Enabled" : "Disabled");
+
+        // Print out size and storage of the token dictionary
+        printMsg("Token Dictionary: ", dictionary.size());
+        printMsg("Dictionary Storage: ", dictionary instanceof OffHeapTokenDictionary ? "Off-Heap" : "Heap");
+
+        // Print out number of preprocessing workers
+        printMsg("Worker Threads: ", textLoader.getParallelism());
+        printMsg("Tokenizer: ", textPreprocessor.getBackend() == TextPreprocessor.Backend.VECTOR ? "Vector API"
+                : "Scalar");
+
+        // Print out in-process cache statistics
+        System.out.println();
+        printMsg("Document Cache: ", documentCache);
+        printMsg("Filter Cache: ", filterCache);
+        printMsg("Dice Cache: ", diceCache);
+
+        // Print out token set cache statistics
+        var cache = textLoader.getCache();
+        printMsg("Token Cache: ", cache == null ? "Disabled"
+                : cache.getHits() + " hits, " + cache.getMisses() + " misses, "
+                        + (cache.size() >> 10) + " KiB in " + cache.getDirectory());
+    }
+
+    /**
+     * Displays the timings of every pipeline phase and the token and byte
+     * counters, and optionally exports them to a file: JSON if the file name
+     * ends with {@code .json}, the Prometheus text format otherwise.
+     */
+    public void getMetrics() {
+        // Print out latencies and allocations by phase
+        for (var entry : Metrics.getPhases().entrySet()) {
+            var latency = entry.getValue().getLatency();
+            var allocated = entry.getValue().getAllocated();
+
+            printMsg(entry.getKey() + ": ", latency.getCount() == 0 ? "No Samples"
+                    : String.format("%d calls, mean %.1f us, p50 %.1f us, p99 %.1f us, max %.1f us%s",
+                            latency.getCount(), latency.getMean() / 1000, latency.getQuantile(0.5) / 1000.0,
+                            latency.getQuantile(0.99) / 1000.0, latency.getMax() / 1000.0,
+                            allocated == 0 ? "" : ", " + (allocated >> 10) + " KiB allocated"));
+        }
+
+        // Print out token and byte counters
+        System.out.println();
+        for (var entry : Metrics.getCounterValues().entrySet())
+            printMsg(entry.getKey() + ": ", entry.getValue());
+
+        var s = new Scanner(System.in);
+
+        System.out.println();
+        System.out.print("Export Metrics File [Empty - Skip]> ");
+        var outputName = s.nextLine().trim();
+
+        if (outputName.length() == 0)
+            return;
+
+        try {
+            var text = outputName.endsWith(".json") ? Metrics.toJson() : Metrics.toPrometheus();
+
+            try {
+                Files.writeString(Paths.get(outputName), text);
+            } catch (Exception e) {
+                throw new Exception("Error writing file: " + outputName);
+            }
+
+            printMsg("Metrics written to: ", outputName);
+        } catch (Exception e) {
+            printErr(e);
+        }
     }
 
     /**
@@ -351,19 +788,42 @@ public class TextComparator {
      */
     public void compareFiles() {
         try {
-            if (tokensA == null)
+            if (documentA == null)
                 throw new Exception("Upload first text file!!!");
 
-            if (tokensB == null)
+            if (documentB == null)
                 throw new Exception("Upload second text file!!!");
 
             if (isFiltering && stopWordsFilter == null)
                 throw new Exception("Upload Stop Words List or disable filtering!!!");
 
-            var filteredTokensA = isFiltering ? stopWordsFilter.filter(tokensA) : tokensA;
-            var filteredTokensB = isFiltering ? stopWordsFilter.filter(tokensB) : tokensB;
+            if (similarityMode == SimilarityMode.MULTISET) {
+                compareBags();
+                return;
+            }
 
-            var similarity = DiceSimilarity.calculate(filteredTokensA, filteredTokensB);
+            if (similarityMode.isShingled()) {
+                compareShingles();
+                return;
+            }
+
+            // Keys first, see documentKeyA
+            var keyA = new FilterKey(documentKeyA, isFiltering ? stopWordsFilter : null);
+            var keyB = new FilterKey(documentKeyB, isFiltering ? stopWordsFilter : null);
+            var loadedA = documentA;
+            var loadedB = documentB;
+
+            var filteredTokensA = isFiltering ? filtered(keyA, loadedA) : loadedA.getTokens();
+            var filteredTokensB = isFiltering ? filtered(keyB, loadedB) : loadedB.getTokens();
+
+            // The similarity is symmetric, so the pair is cached in one order
+            var isOrdered = DOCUMENT_ORDER.compare(keyA.document(), keyB.document()) <= 0;
+            var pair = isOrdered ? new PairKey(keyA, keyB) : new PairKey(keyB, keyA);
+
+            var similarity = diceCache.get(pair, k -> DiceSimilarity.calculate(
+                    isOrdered ? filteredTokensA : filteredTokensB, isOrdered ? filteredTokensB : filteredTokensA,
+                    new ThrottledProgressListener(new ConsoleProgressListener("Process:"), PROGRESS_INTERVAL,
+                            PROGRESS_STEPS)));
 
             // Print out compearing results
             System.out.println();
@@ -376,6 +836,334 @@ public class TextComparator {
         }
     }
 
+    /**
+     * Performs the weighted Sørensen–Dice comparison of the token counts of
+     * the two loaded text files.
+     *
+     * @throws Exception if too few tokens remain after filtering
+     */
+    private void compareBags() throws Exception {
+        var bagA = documentA.getBag();
+        var bagB = documentB.getBag();
+
+        if (isFiltering) {
+            bagA = stopWordsFilter.filter(bagA);
+            bagB = stopWordsFilter.filter(bagB);
+        }
+
+        var similarity = DiceSimilarity.calculate(bagA, bagB);
+
+        // Print out compearing results
+        System.out.println();
+        printMsg("Dice Similarity: ", String.format("%.2f", similarity));
+        printMsg("Token Occurrences: ", bagA.total() + " / " + bagB.total());
+
+        // Print out text Filtering and Similarity Mode
+        printMsg("Filtering Mode: ", isFiltering ? "Enabled" : "Disabled");
+        printMsg("Similarity Mode: ", getSimilarityModeName());
+    }
+
+    /**
+     * Performs the Sørensen–Dice comparison of the shingles of the two loaded
+     * text files.
+     *
+     * Shingles are made of consecutive words including stop-words, so they
+     * cannot be filtered afterwards.
+     *
+     * @throws Exception if filtering is enabled
+     */
+    private void compareShingles() throws Exception {
+        if (isFiltering)
+            throw new Exception("Shingles cannot be filtered - Disable Filtering!!!");
+
+        var shinglesA = documentA.getShingles();
+        var shinglesB = documentB.getShingles();
+
+        var similarity = DiceSimilarity.calculate(shinglesA, shinglesB);
+
+        // Print out compearing results
+        System.out.println();
+        printMsg("Dice Similarity: ", String.format("%.2f", similarity));
+        printMsg("Unique Shingles: ", shinglesA.size() + " / " + shinglesB.size());
+
+        // Print out Similarity Mode
+        printMsg("Similarity Mode: ", getSimilarityModeName());
+    }
+
+    /**
+     * Compares every document of a directory against each other.
+     *
+     * The user selects the corpus directory, the number of neighbours per
+     * document (empty or 0 for the full similarity matrix), the similarity
+     * engine (exact, or MinHash estimates with a given signature length) and
+     * the CSV file the results are written to.
+     */
+    public void compareCorpus() {
+        var s = new Scanner(System.in);
+
+        System.out.print("Input Corpus Directory [Current - "
+                + (corpusDirectoryPath == null ? "Not Set" : corpusDirectoryPath) + "]> ");
+        var directoryName = s.nextLine();
+
+        if (directoryName.length() == 0 && corpusDirectoryPath == null)
+            return;
+
+        if (directoryName.length() != 0)
+            corpusDirectoryPath = Paths.get(directoryName);
+
+        try {
+            if (isFiltering && stopWordsFilter == null)
+                throw new Exception("Upload Stop Words List or disable filtering!!!");
+
+            System.out.print("Input Number of Neighbours [Empty - Full Matrix]> ");
+            var neighboursInput = s.nextLine().trim();
+            var neighbours = 0;
+
+            try {
+                neighbours = neighboursInput.length() == 0 ? 0 : Integer.parseInt(neighboursInput);
+            } catch (NumberFormatException e) {
+                throw new Exception("Number of Neighbours - Format Error!!!");
+            }
+
+            if (neighbours < 0)
+                throw new Exception("Number of Neighbours - Format Error!!!");
+
+            System.out.print("Input MinHash Signature Length [Empty - Exact]> ");
+            var lengthInput = s.nextLine().trim();
+            MinHash minHash = null;
+
+            try {
+                if (lengthInput.length() != 0)
+                    minHash = new MinHash(Integer.parseInt(lengthInput));
+            } catch (IllegalArgumentException e) {
+                throw new Exception("Signature Length - Format Error!!!");
+            }
+
+            corpusComparator.setMinHash(minHash);
+
+            System.out.print("Input Output CSV File Name> ");
+            var outputName = s.nextLine();
+
+            if (outputName.length() == 0)
+                throw new Exception("Output File Name - Empty!!!");
+
+            var documents = corpusComparator.loadDirectory(corpusDirectoryPath,
+                    new ConsoleProgressListener("Loading:"));
+            var compared = new ArrayList<Document>(documents.size());
+
+            // Drop documents too small to compare, before or after filtering
+            for (var document : documents) {
+                try {
+                    compared.add(prepareDocument(document, minHash));
+                } catch (Exception e) {
+                    printMsg("Skipped " + document + ": ", e.getMessage());
+                }
+            }
+
+            if (compared.size() < 2)
+                throw new Exception("At least two comparable documents are required!!!");
+
+            var listener = new ThrottledProgressListener(
+                    new ConsoleProgressListener("Process:"), PROGRESS_INTERVAL, PROGRESS_STEPS);
+
+            if (neighbours == 0)
+                corpusComparator.writeMatrix(compared, Paths.get(outputName), listener);
+            else
+                corpusComparator.writeTopK(compared, neighbours, Paths.get(outputName), listener);
+
+            // Print out comparing results
+            System.out.println();
+            printMsg("Documents Compared: ", compared.size());
+            printMsg("Results written to: ", outputName);
+            printMsg("Similarity Engine: ", minHash == null ? "Exact"
+                    : String.format("MinHash (k = %d, standard error <= %.3f)", minHash.getLength(),
+                            MinHash.standardError(minHash.getLength())));
+
+            // Print out text Filtering Mode
+            printMsg("Filtering Mode: ", isFiltering ? "Enabled" : "Disabled");
+        } catch (Exception e) {
+            printErr(e);
+        }
+    }
+
+    /**
+     * Finds the documents of a corpus directory similar to a text file.
+     *
+     * The corpus is indexed once with MinHash signatures and locality-
+     * sensitive hashing; the index is reused by later queries as long as the
+     * directory, threshold and filtering do not change. Only the candidates
+     * returned by the index are compared exactly.
+     */
+    public void findSimilarDocuments() {
+        var s = new Scanner(System.in);
+
+        System.out.print("Input Corpus Directory [Current - "
+                + (corpusDirectoryPath == null ? "Not Set" : corpusDirectoryPath) + "]> ");
+        var directoryName = s.nextLine();
+
+        if (directoryName.length() == 0 && corpusDirectoryPath == null)
+            return;
+
+        if (directoryName.length() != 0)
+            corpusDirectoryPath = Paths.get(directoryName);
+
+        try {
+            if (isFiltering && stopWordsFilter == null)
+                throw new Exception("Upload Stop Words List or disable filtering!!!");
+
+            System.out.print("Input Query Text File Name> ");
+            var queryName = s.nextLine();
+
+            if (queryName.length() == 0)
+                throw new Exception("Query File Name - Empty!!!");
+
+            System.out.print("Input Dice Threshold [Empty - " + DEFAULT_SIMILARITY_THRESHOLD + "]> ");
+            var thresholdInput = s.nextLine().trim();
+            var threshold = DEFAULT_SIMILARITY_THRESHOLD;
+
+            try {
+                if (thresholdInput.length() != 0)
+                    threshold = Double.parseDouble(thresholdInput);
+            } catch (NumberFormatException e) {
+                throw new Exception("Dice Threshold - Format Error!!!");
+            }
+
+            if (!(threshold > 0 && threshold <= 1))
+                throw new Exception("Dice Threshold - Format Error!!!");
+
+            var key = new IndexKey(corpusDirectoryPath, threshold, isFiltering ? stopWordsFilter : null);
+
+            // (Re)build the index if the corpus or its settings have changed
+            if (!key.equals(similarityIndexKey)) {
+                var minHash = new MinHash(MinHash.DEFAULT_LENGTH);
+                var index = LshIndex.forThreshold(threshold, minHash.getLength());
+
+                corpusComparator.setMinHash(minHash);
+                for (var document : corpusComparator.loadDirectory(corpusDirectoryPath,
+                        new ConsoleProgressListener("Indexing:"))) {
+                    try {
+                        index.add(prepareDocument(document, minHash));
+                    } catch (Exception e) {
+                        printMsg("Skipped " + document + ": ", e.getMessage());
+                    }
+                }
+
+                similarityIndex = index;
+                similarityIndexMinHash = minHash;
+                similarityIndexKey = key;
+            }
+
+            var query = prepareDocument(corpusLoader.loadDocument(Paths.get(queryName), similarityIndexMinHash,
+                    isFiltering ? stopWordsFilter : null, new ConsoleProgressListener(null)), similarityIndexMinHash);
+            var matches = similarityIndex.query(query, threshold);
+
+            // Print out query results
+            System.out.println();
+            printMsg("Indexed Documents: ", similarityIndex.size());
+            printMsg("Bands x Rows: ", similarityIndex.getBands() + " x " + similarityIndex.getRows());
+            printMsg("Similar Documents: ", matches.size());
+
+            for (var match : matches)
+                printMsg(match.document() + ": ", String.format("%.2f", match.dice()));
+
+            // Print out text Filtering Mode
+            printMsg("Filtering Mode: ", isFiltering ? "Enabled" : "Disabled");
+        } catch (Exception e) {
+            printErr(e);
+        }
+    }
+
+    /**
+     * Ranks the documents of a corpus directory by their exact similarity to
+     * a text file.
+     *
+     * The corpus is loaded once into an inverted index, which is reused by
+     * later queries as long as the directory and filtering do not change. A
+     * query then only walks the postings of its own tokens.
+     */
+    public void rankCorpus() {
+        var s = new Scanner(System.in);
+
+        System.out.print("Input Corpus Directory [Current - "
+                + (corpusDirectoryPath == null ? "Not Set" : corpusDirectoryPath) + "]> ");
+        var directoryName = s.nextLine();
+
+        if (directoryName.length() == 0 && corpusDirectoryPath == null)
+            return;
+
+        if (directoryName.length() != 0)
+            corpusDirectoryPath = Paths.get(directoryName);
+
+        try {
+            if (isFiltering && stopWordsFilter == null)
+                throw new Exception("Upload Stop Words List or disable filtering!!!");
+
+            System.out.print("Input Query Text File Name> ");
+            var queryName = s.nextLine();
+
+            if (queryName.length() == 0)
+                throw new Exception("Query File Name - Empty!!!");
+
+            var key = new IndexKey(corpusDirectoryPath, 0, isFiltering ? stopWordsFilter : null);
+
+            // (Re)build the index if the corpus or its settings have changed
+            if (!key.equals(rankingIndexKey)) {
+                var index = new InvertedIndex();
+
+                corpusComparator.setMinHash(null);
+                for (var document : corpusComparator.loadDirectory(corpusDirectoryPath,
+                        new ConsoleProgressListener("Indexing:"))) {
+                    try {
+                        index.add(prepareDocument(document, null));
+                    } catch (Exception e) {
+                        printMsg("Skipped " + document + ": ", e.getMessage());
+                    }
+                }
+
+                rankingIndex = index;
+                rankingIndexKey = key;
+            }
+
+            var query = prepareDocument(corpusLoader.loadDocument(Paths.get(queryName), null,
+                    isFiltering ? stopWordsFilter : null, new ConsoleProgressListener(null)), null);
+            var matches = rankingIndex.query(query, Double.MIN_VALUE, RANKING_LIMIT);
+
+            // Print out ranking results
+            System.out.println();
+            printMsg("Indexed Documents: ", rankingIndex.size());
+            printMsg("Most Similar Documents: ", matches.size());
+
+            for (var match : matches)
+                printMsg(match.document() + ": ", String.format("%.2f", match.dice()));
+
+            // Print out text Filtering Mode
+            printMsg("Filtering Mode: ", isFiltering ? "Enabled" : "Disabled");
+        } catch (Exception e) {
+            printErr(e);
+        }
+    }
+
+    /**
+     * Prepares a loaded document for comparison: applies the stop-word filter
+     * if filtering is enabled and checks the minimum number of tokens.
+     *
+     * @param document the loaded document
+     * @param minHash  the signature scheme of the document, or {@code null}
+     * @return the document to compare
+     * @throws Exception if too few tokens remain
+     */
+    private Document prepareDocument(Document document, MinHash minHash) throws Exception {
+        var tokens = isFiltering ? stopWordsFilter.filter(document) : document.getTokens();
+        checkMinimumTokensNumber(tokens);
+
+        // Filtering changes the token set, so its signature is recomputed
+        var signature = minHash != null && isFiltering
+                ? minHash.signature(tokens, dictionary)
+                : document.getSignature();
+
+        return new Document(document.getPath(), tokens, signature);
+    }
+
     /**
      * Prints a visual representation of a text's noise ratio.
      */
@@ -392,7 +1180,7 @@ public class TextComparator {
      * provides a filtering recommendation.
      */
     public void noiseAnalyzer() {
-        if (stopWordsFilter == null || tokensA == null || tokensB == null) {
+        if (stopWordsFilter == null || documentA == null || documentB == null) {
             // Print out notification and exit
             System.out.print(ConsoleColour.RED_BOLD_BRIGHT);
             System.out.println("Please Upload Text A, Text B and Stop Word List!!!");
@@ -416,7 +1204,7 @@ public class TextComparator {
 
         System.out.println();
         try {
-            textANoiseRatio = stopWordsFilter.calculateNoiseRatio(tokensA);
+            textANoiseRatio = stopWordsFilter.calculateNoiseRatio(documentA);
 
             // Print out text Filtering Mode
             printTextNoiseRatio("Text A Noise Ratio: ", textANoiseRatio);
@@ -427,7 +1215,7 @@ public class TextComparator {
 
         System.out.println();
         try {
-            textBNoiseRatio = stopWordsFilter.calculateNoiseRatio(tokensB);
+            textBNoiseRatio = stopWordsFilter.calculateNoiseRatio(documentB);
 
             // Print out text Filtering Mode
             printTextNoiseRatio("Text B Noise Ratio: ", textBNoiseRatio);
@@ -0,0 +1,1085 @@
+package ie.atu.sw;
+
+import java.lang.foreign.Arena;
+import java.nio.charset.CharacterCodingException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.StructuredTaskScope;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32C;
+
+/**
+ * Streaming, multithreaded text file loader.
+ *
+ * The file is read in fixed-size blocks by a single reader task and the
+ * blocks are handed over through a bounded queue to a configurable number
+ * of preprocessing workers. Every worker collects tokens into its own local
+ * set and interns them in the shared {@link TokenDictionary}; the resulting
+ * ID arrays are merged into one {@link TokenIdSet} at the end.
+ *
+ * Loading is silent unless a {@link ProgressListener} is given.
+ *
+ * Only a few blocks are in flight at any time, so peak memory depends on the
+ * number of unique tokens rather than on the size of the file.
+ *
+ * Files above a size threshold are memory-mapped instead. The mapping is
+ * split at line boundaries into one segment per worker and every worker
+ * tokenizes its segment straight from the bytes.
+ *
+ * When a {@link MinHash} is given, every worker also computes the signature
+ * of its local tokens and the signatures are merged with the token IDs, so
+ * the document is never traversed a second time.
+ *
+ * With a {@link TokenSetCache}, files whose content has been loaded before
+ * are read from the cache without any tokenization, and newly loaded token
+ * sets are stored in it.
+ *
+ * In {@link SimilarityMode#MULTISET} mode every worker also counts the
+ * occurrences of its tokens in a primitive {@link TokenCounter}, and the
+ * counters are merged into the {@link TokenBag} of the document. In the
+ * shingle modes every worker hashes the tokens of each line into shingle
+ * fingerprints, and the fingerprints are merged into the {@link ShingleSet}
+ * of the document. Files are always mapped in the shingle modes, as a
+ * streamed block may end within a line.
+ *
+ * Loaded documents carry a {@link Document.Checkpoint} of the complete lines
+ * ingested so far, checksummed while they are read. {@link #reload} uses it
+ * to tokenize only the bytes appended to a growing file, and falls back to a
+ * full load if anything before the checkpoint has changed.
+ *
+ * Every load is timed in {@link Metrics}, as a whole under {@code load} and
+ * by phase: {@code preprocess} per block or slice, {@code intern} per worker
+ * and {@code merge} for the combination of the worker results. Loads and
+ * tokenized chunks are also recorded as {@link PipelineEvents} for Java
+ * Flight Recorder.
+ */
+public class TextLoader {
+    /** Number of bytes read from the file at once */
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+
+    /** Files of at least this size are memory-mapped */
+    public static final long DEFAULT_MAPPED_THRESHOLD = 64L << 20;
+
+    /** Number of queued blocks per worker */
+    private static final int BLOCKS_PER_WORKER = 2;
+
+    /** Marker placed in the queue once the whole file has been read */
+    private static final String END_OF_FILE = new String();
+
+    /** Latencies of whole loads and reloads */
+    private static final Metrics.Phase LOAD = Metrics.phase("load");
+
+    /** Latencies of tokenizing one block or slice */
+    private static final Metrics.Phase PREPROCESS = Metrics.phase("preprocess");
+
+    /** Latencies of interning the tokens of one worker */
+    private static final Metrics.Phase INTERN = Metrics.phase("intern");
+
+    /** Latencies of merging the results of the workers */
+    private static final Metrics.Phase MERGE = Metrics.phase("merge");
+
+    /** Number of characters tokenized from streamed blocks */
+    private static final LongAdder PREPROCESS_CHARS = Metrics.counter("preprocess_chars");
+
+    /** Number of bytes tokenized from mapped slices */
+    private static final LongAdder PREPROCESS_BYTES = Metrics.counter("preprocess_bytes");
+
+    /** Number of tokens interned by workers */
+    private static final LongAdder INTERN_TOKENS = Metrics.counter("intern_tokens");
+
+    /** Number of unique tokens of loaded documents */
+    private static final LongAdder LOAD_TOKENS = Metrics.counter("load_tokens");
+
+    /** Memory retained by loaded documents, as an estimate of allocations */
+    private static final LongAdder LOAD_RETAINED_BYTES = Metrics.counter("load_retained_bytes");
+
+    /**
+     * Result of one ingestion worker.
+     *
+     * @param ids       the IDs of the worker's unique tokens
+     * @param signature the MinHash signature of the tokens, or {@code null}
+     * @param counter   the occurrence counts of the tokens, or {@code null}
+     * @param shingles  the shingle fingerprints of the lines, or {@code null}
+     */
+    private record Partial(int[] ids, long[] signature, TokenCounter counter, ShingleSet shingles) {
+    }
+
+    /**
+     * Sink receiving the tokens of one ingestion worker.
+     */
+    private interface WorkerSink extends TextPreprocessor.TokenSink {
+        /** Returns the number of unique tokens received so far */
+        int size();
+    }
+
+    /**
+     * Sink keeping the unique tokens of a worker in
+     * {@link SimilarityMode#SET} mode.
+     */
+    private static final class SetSink implements WorkerSink {
+        /** Unique tokens */
+        private final Set<String> tokens = new HashSet<>();
+
+        @Override
+        public void accept(String token) {
+            tokens.add(token);
+        }
+
+        @Override
+        public int size() {
+            return tokens.size();
+        }
+    }
+
+    /**
+     * Sink receiving the tokens of a worker in {@link SimilarityMode#MULTISET}
+     * mode: every token is interned and counted, without keeping the token
+     * itself.
+     */
+    private static final class CountingSink implements WorkerSink {
+        /** Dictionary assigning IDs to tokens */
+        private final TokenDictionary dictionary;
+
+        /** Occurrence counts by token ID */
+        private final TokenCounter counter = new TokenCounter(1024);
+
+        CountingSink(TokenDictionary dictionary) {
+            this.dictionary = dictionary;
+        }
+
+        @Override
+        public void accept(String token) {
+            counter.increment(dictionary.intern(token));
+        }
+
+        @Override
+        public int size() {
+            return counter.size();
+        }
+    }
+
+    /**
+     * Sink receiving the tokens of a worker in the shingle modes: the unique
+     * tokens are kept, and the tokens of every line are shingled when the
+     * line ends. For word shingles only the hashes of the tokens of a line
+     * are kept.
+     */
+    private static final class ShingleSink implements WorkerSink {
+        /** Unique tokens */
+        private final Set<String> tokens = new HashSet<>();
+
+        /** Tokens of the current line, for character n-grams */
+        private final List<String> lineTokens = new ArrayList<>();
+
+        /** Hashes of the tokens of the current line, for word shingles */
+        private long[] lineHashes = new long[64];
+
+        /** Number of tokens of the current line, for word shingles */
+        private int lineSize = 0;
+
+        /** Shingle fingerprints of all lines */
+        private final ShingleSet.Builder shingles;
+
+        /** Preprocessor computing the shingles */
+        private final TextPreprocessor textPreprocessor;
+
+        ShingleSink(TextPreprocessor textPreprocessor, SimilarityMode mode, int shingleSize) {
+            this.textPreprocessor = textPreprocessor;
+            this.shingles = new ShingleSet.Builder(mode, shingleSize);
+        }
+
+        @Override
+        public void accept(String token) {
+            tokens.add(token);
+
+            if (shingles.getMode() != SimilarityMode.WORD_SHINGLES) {
+                lineTokens.add(token);
+                return;
+            }
+
+            if (lineSize == lineHashes.length)
+                lineHashes = Arrays.copyOf(lineHashes, lineSize * 2);
+            lineHashes[lineSize++] = MinHash.hash(token);
+        }
+
+        @Override
+        public void endLine() {
+            if (shingles.getMode() == SimilarityMode.WORD_SHINGLES) {
+                textPreprocessor.shingleWords(lineHashes, lineSize, shingles.getShingleSize(), shingles);
+                lineSize = 0;
+                return;
+            }
+
+            textPreprocessor.shingle(lineTokens, shingles.getMode(), shingles.getShingleSize(), shingles);
+            lineTokens.clear();
+        }
+
+        @Override
+        public int size() {
+            return tokens.size();
+        }
+    }
+
+    /** Text preprocessing utility */
+    private final TextPreprocessor textPreprocessor;
+
+    /** Dictionary assigning IDs to tokens */
+    private final TokenDictionary dictionary;
+
+    /** Number of worker threads used for text preprocessing */
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    /** Number of bytes read from the file at once */
+    private int blockSize = DEFAULT_BLOCK_SIZE;
+
+    /** Files of at least this size are memory-mapped */
+    private long mappedThreshold = DEFAULT_MAPPED_THRESHOLD;
+
+    /** Cache of preprocessed token sets, or null if not cached */
+    private TokenSetCache cache = null;
+
+    /** Whether token occurrences are counted in addition to the token set */
+    private SimilarityMode mode = SimilarityMode.SET;
+
+    /** Number of characters or words per shingle in the shingle modes */
+    private int shingleSize = 3;
+
+    /**
+     * Creates a loader using the given preprocessor and dictionary.
+     *
+     * @param textPreprocessor the preprocessor applied to every block
+     * @param dictionary       the dictionary assigning IDs to tokens
+     */
+    public TextLoader(TextPreprocessor textPreprocessor, TokenDictionary dictionary) {
+        this.textPreprocessor = textPreprocessor;
+        this.dictionary = dictionary;
+    }
+
+    /** Returns the number of worker threads used for text preprocessing */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the number of worker threads used for text preprocessing.
+     *
+     * @param parallelism the number of workers, at least one
+     * @throws IllegalArgumentException if the number is less than one
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("Parallelism must be at least 1!!!");
+
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Sets the number of bytes read from the file at once.
+     *
+     * @param blockSize the block size in bytes, at least
+     *                  {@link FileIO#MIN_BLOCK_SIZE} to hold any UTF-8
+     *                  sequence
+     * @throws IllegalArgumentException if the block size is too small
+     */
+    public void setBlockSize(int blockSize) {
+        if (blockSize < FileIO.MIN_BLOCK_SIZE)
+            throw new IllegalArgumentException("Block size must be at least " + FileIO.MIN_BLOCK_SIZE + "!!!");
+
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Sets the file size from which files are memory-mapped instead of
+     * streamed.
+     *
+     * @param mappedThreshold the size in bytes
+     */
+    public void setMappedThreshold(long mappedThreshold) {
+        this.mappedThreshold = mappedThreshold;
+    }
+
+    /** Returns whether token occurrences are counted */
+    public SimilarityMode getMode() {
+        return mode;
+    }
+
+    /**
+     * Sets whether token occurrences are counted or shingles are computed. In
+     * {@link SimilarityMode#MULTISET} mode loaded documents carry a
+     * {@link TokenBag}, in the shingle modes a {@link ShingleSet}, and the
+     * token set cache, which stores unique tokens only, is not read.
+     *
+     * @param mode the similarity mode the documents are loaded for
+     */
+    public void setMode(SimilarityMode mode) {
+        this.mode = mode;
+    }
+
+    /** Returns the number of characters or words per shingle */
+    public int getShingleSize() {
+        return shingleSize;
+    }
+
+    /**
+     * Sets the number of characters or words per shingle in the shingle
+     * modes.
+     *
+     * @param shingleSize the shingle size, at least one
+     * @throws IllegalArgumentException if the size is less than one
+     */
+    public void setShingleSize(int shingleSize) {
+        if (shingleSize < 1)
+            throw new IllegalArgumentException("Shingle size must be at least 1!!!");
+
+        this.shingleSize = shingleSize;
+    }
+
+    /** Returns the cache of preprocessed token sets, or null if not cached */
+    public TokenSetCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Sets the cache of preprocessed token sets.
+     *
+     * @param cache the cache, or {@code null} to always preprocess files
+     */
+    public void setCache(TokenSetCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Loads and preprocesses a text file using multiple virtual threads.
+     *
+     * Large files are memory-mapped, smaller ones are streamed in blocks.
+     * No progress is reported.
+     *
+     * @param filePath path to the text file
+     * @return a set of unique token IDs
+     * @throws Exception if reading the file or any task fails
+     */
+    public TokenIdSet load(Path filePath) throws Exception {
+        return load(filePath, null);
+    }
+
+    /**
+     * Loads and preprocesses a text file using multiple virtual threads,
+     * reporting the number of bytes processed.
+     *
+     * @param filePath path to the text file
+     * @param listener the listener receiving progress updates, or
+     *                 {@code null} for none
+     * @return a set of unique token IDs
+     * @throws Exception if reading the file or any task fails
+     */
+    public TokenIdSet load(Path filePath, ProgressListener listener) throws Exception {
+        return loadDocument(filePath, null, listener).getTokens();
+    }
+
+    /**
+     * Loads a text file as a document, optionally computing its MinHash
+     * signature during the same pass.
+     *
+     * @param filePath path to the text file
+     * @param minHash  the signature scheme, or {@code null} for no signature
+     * @param listener the listener receiving progress updates, or
+     *                 {@code null} for none
+     * @return the loaded document
+     * @throws Exception if reading the file or any task fails
+     */
+    public Document loadDocument(Path filePath, MinHash minHash, ProgressListener listener) throws Exception {
+        return loadDocument(filePath, minHash, null, listener);
+    }
+
+    /**
+     * Loads a text file as a document, optionally computing its MinHash
+     * signature and its stop-word mask during the same load.
+     *
+     * The mask and the noise count are taken from the merged token IDs with
+     * one bit lookup per unique token, so filtering the document or analysing
+     * its noise later never touches the tokens again.
+     *
+     * @param filePath       path to the text file
+     * @param minHash        the signature scheme, or {@code null} for no
+     *                       signature
+     * @param stopWordFilter the stop-word filter, or {@code null} for no mask
+     * @param listener       the listener receiving progress updates, or
+     *                       {@code null} for none
+     * @return the loaded document
+     * @throws Exception if reading the file or any task fails
+     */
+    public Document loadDocument(Path filePath, MinHash minHash, StopWordFilter stopWordFilter,
+            ProgressListener listener) throws Exception {
+        var event = new PipelineEvents.DocumentLoad();
+        event.begin();
+        var sample = LOAD.begin();
+
+        try {
+            var document = read(filePath, minHash, listener, event);
+
+            return loaded(stopWordFilter == null ? document : stopWordFilter.apply(document), event);
+        } finally {
+            LOAD.end(sample);
+        }
+    }
+
+    /**
+     * Reads a text file as a document, from the cache if possible.
+     *
+     * @param filePath path to the text file
+     * @param minHash  the signature scheme, or {@code null} for no signature
+     * @param listener the listener receiving progress updates, or
+     *                 {@code null} for none
+     * @param event    the flight recorder event receiving the size and
+     *                 strategy of the load
+     * @return the loaded document
+     * @throws Exception if reading the file or any task fails
+     */
+    private Document read(Path filePath, MinHash minHash, ProgressListener listener,
+            PipelineEvents.DocumentLoad event) throws Exception {
+        var size = fileSize(filePath);
+        event.bytes = size;
+
+        // Only token sets are cached - other modes skip digesting the file
+        var isCached = cache != null && mode == SimilarityMode.SET;
+        TokenSetCache.Key key = null;
+
+        if (isCached) {
+            key = cache.key(filePath);
+            var cached = cache.get(key);
+
+            // Without a checkpoint, so the file is not read again for one
+            if (cached != null) {
+                event.strategy = "cached";
+                return loadCached(filePath, size, cached, minHash, listener);
+            }
+        }
+
+        event.bytesTokenized = size;
+        // A streamed block may end within a long line, which would cut its shingles
+        var isStreamed = size < mappedThreshold && !mode.isShingled();
+        event.strategy = isStreamed ? "streamed" : "mapped";
+
+        var document = ingest(filePath, emptyCheckpoint(minHash), new CRC32C(), size, isStreamed, minHash,
+                listener);
+
+        if (isCached) {
+            var tokens = new ArrayList<String>(document.getTokens().size());
+            for (var i = 0; i < document.getTokens().size(); i++)
+                tokens.add(dictionary.token(document.getTokens().get(i)));
+
+            try {
+                cache.put(key, tokens);
+            } catch (Exception e) {
+                // The cache is an optimisation - loading succeeds without it
+            }
+        }
+
+        return document;
+    }
+
+    /**
+     * Reloads a document whose file may have changed since it was loaded.
+     *
+     * If the file still starts with the checkpointed prefix of the document,
+     * only the bytes after it are tokenized and merged with the tokens of the
+     * prefix. Otherwise, or if the document has no matching checkpoint, the
+     * whole file is loaded again.
+     *
+     * The checkpoint only covers complete lines, so a line that was still
+     * being written when the document was loaded is tokenized again as a
+     * whole. A document read from the {@link TokenSetCache} has no
+     * checkpoint, so its first reload is a full load.
+     *
+     * @param previous       the previously loaded document
+     * @param minHash        the signature scheme, or {@code null} for no
+     *                       signature
+     * @param stopWordFilter the stop-word filter, or {@code null} for no mask
+     * @param listener       the listener receiving progress updates, or
+     *                       {@code null} for none
+     * @return the reloaded document
+     * @throws Exception if reading the file or any task fails
+     */
+    public Document reload(Document previous, MinHash minHash, StopWordFilter stopWordFilter,
+            ProgressListener listener) throws Exception {
+        var event = new PipelineEvents.DocumentLoad();
+        event.begin();
+        var sample = LOAD.begin();
+
+        try {
+            var document = reread(previous, minHash, listener, event);
+
+            return loaded(stopWordFilter == null ? document : stopWordFilter.apply(document), event);
+        } finally {
+            LOAD.end(sample);
+        }
+    }
+
+    /**
+     * Reads a previously loaded document again, incrementally if its file has
+     * only grown.
+     *
+     * @param previous the previously loaded document
+     * @param minHash  the signature scheme, or {@code null} for no signature
+     * @param listener the listener receiving progress updates, or
+     *                 {@code null} for none
+     * @param event    the flight recorder event receiving the size and
+     *                 strategy of the load
+     * @return the reloaded document without stop-word mask
+     * @throws Exception if reading the file or any task fails
+     */
+    private Document reread(Document previous, MinHash minHash, ProgressListener listener,
+            PipelineEvents.DocumentLoad event) throws Exception {
+        var filePath = previous.getPath();
+        var size = fileSize(filePath);
+        var checkpoint = previous.getCheckpoint();
+        var checksum = new CRC32C();
+
+        var isValid = checkpoint != null && checkpoint.minHash() == minHash
+                && (mode != SimilarityMode.MULTISET || checkpoint.bag() != null)
+                && (!mode.isShingled()
+                        || checkpoint.shingles() != null && checkpoint.shingles().isMadeBy(mode, shingleSize))
+                && size >= checkpoint.offset();
+
+        // The checksum of the prefix is continued over the new lines
+        if (isValid) {
+            try (var arena = Arena.ofConfined()) {
+                FileIO.updateChecksum(checksum, FileIO.mapFile(filePath, arena), 0, checkpoint.offset());
+            }
+            isValid = checksum.getValue() == checkpoint.checksum();
+        }
+
+        // Anything before the checkpoint changed - start from scratch
+        if (!isValid) {
+            checkpoint = emptyCheckpoint(minHash);
+            checksum.reset();
+        }
+
+        event.bytes = size;
+        event.bytesTokenized = size - checkpoint.offset();
+        event.strategy = checkpoint.offset() == 0 ? "mapped" : "incremental";
+
+        return ingest(filePath, checkpoint, checksum, size, false, minHash, listener);
+    }
+
+    /**
+     * Returns the checkpoint of an empty prefix in the current mode.
+     *
+     * @param minHash the signature scheme, or {@code null} for no signature
+     * @return the checkpoint at offset 0
+     */
+    private Document.Checkpoint emptyCheckpoint(MinHash minHash) {
+        return new Document.Checkpoint(0, 0, TokenIdSet.EMPTY, minHash == null ? null : minHash.newSignature(),
+                minHash, mode == SimilarityMode.MULTISET ? TokenBag.EMPTY : null,
+                mode.isShingled() ? ShingleSet.empty(mode, shingleSize) : null);
+    }
+
+    /**
+     * Tokenizes a file from a checkpoint up to a size and merges the result
+     * with the checkpoint.
+     *
+     * The complete lines up to the last line terminator before the size are
+     * committed to the new checkpoint, and checksummed while they are read.
+     * The last unterminated line is added to the document only, so it is
+     * tokenized again as a whole once it is complete. Bytes after the size,
+     * appended while the file is read, are left for the next reload.
+     *
+     * A streamed read checksums exactly the bytes it tokenizes. A mapped read
+     * checksums the mapping while the workers tokenize it, so an in-place
+     * edit during the load may go unnoticed until the file changes again.
+     *
+     * @param filePath   path to the text file
+     * @param checkpoint the ingested prefix of the file, at a line boundary
+     * @param checksum   checksum of the prefix, continued over the new lines
+     * @param size       size of the file in bytes
+     * @param isStreamed whether the new lines are streamed rather than
+     *                   mapped
+     * @param minHash    the signature scheme, or {@code null} for no
+     *                   signature
+     * @param listener   the listener receiving progress updates, or
+     *                   {@code null} for none
+     * @return the document, with a checkpoint of its complete lines
+     * @throws Exception if reading the file or any task fails
+     */
+    private Document ingest(Path filePath, Document.Checkpoint checkpoint, CRC32C checksum, long size,
+            boolean isStreamed, MinHash minHash, ProgressListener listener) throws Exception {
+        var counting = mode == SimilarityMode.MULTISET;
+        var shingling = mode.isShingled();
+        var from = checkpoint.offset();
+        long lineStart;
+
+        try (var arena = Arena.ofConfined()) {
+            var segment = FileIO.mapFile(filePath, arena);
+
+            // The file may have been truncated since its size was read
+            size = Math.min(size, segment.byteSize());
+            lineStart = FileIO.lastLineStart(segment, from, size);
+        }
+
+        // Complete lines are committed to the new checkpoint, the last
+        // unterminated line only to the document
+        var lines = isStreamed ? loadStreamed(filePath, lineStart, checksum, minHash, listener)
+                : loadMapped(filePath, from, lineStart, checksum, minHash, listener);
+        var tail = loadMapped(filePath, lineStart, size, null, minHash, null);
+
+        var merging = MERGE.begin();
+        var committedTokens = TokenIdSet.union(checkpoint.tokens(), mergeTokenIds(lines));
+        var committedSignature = mergeSignatures(lines, minHash);
+        if (committedSignature != null)
+            MinHash.merge(committedSignature, checkpoint.signature());
+
+        var signature = mergeSignatures(tail, minHash);
+        if (signature != null)
+            MinHash.merge(signature, committedSignature);
+
+        TokenBag committedBag = null;
+        TokenBag bag = null;
+        if (counting) {
+            committedBag = TokenBag.sum(checkpoint.bag(), mergeCounters(lines));
+            bag = TokenBag.sum(committedBag, mergeCounters(tail));
+        }
+
+        ShingleSet committedShingles = null;
+        ShingleSet shingles = null;
+        if (shingling) {
+            committedShingles = ShingleSet.union(checkpoint.shingles(), mergeShingles(lines));
+            shingles = ShingleSet.union(committedShingles, mergeShingles(tail));
+        }
+
+        var document = new Document(filePath, TokenIdSet.union(committedTokens, mergeTokenIds(tail)), signature)
+                .withCheckpoint(new Document.Checkpoint(lineStart, checksum.getValue(), committedTokens,
+                        committedSignature, minHash, committedBag, committedShingles));
+        if (bag != null)
+            document = document.withBag(bag);
+        if (shingles != null)
+            document = document.withShingles(shingles);
+        MERGE.end(merging);
+
+        return document;
+    }
+
+    /**
+     * Counts the tokens and memory of a loaded document and records its
+     * flight recorder event.
+     *
+     * @param document the loaded document
+     * @param event    the flight recorder event of the load
+     * @return the same document
+     */
+    private Document loaded(Document document, PipelineEvents.DocumentLoad event) {
+        LOAD_TOKENS.add(document.getTokens().size());
+        LOAD_RETAINED_BYTES.add(document.memoryFootprint());
+        event.commit(document, mode);
+
+        return document;
+    }
+
+    /**
+     * Builds a document from cached tokens.
+     *
+     * @param filePath path to the text file
+     * @param size     size of the file in bytes
+     * @param tokens   the cached unique tokens
+     * @param minHash  the signature scheme, or {@code null} for no signature
+     * @param listener the listener receiving progress updates, or
+     *                 {@code null} for none
+     * @return the loaded document
+     */
+    private Document loadCached(Path filePath, long size, List<String> tokens, MinHash minHash,
+            ProgressListener listener) {
+        var total = Math.max(1, size);
+
+        if (listener != null)
+            listener.onStart(total);
+
+        var ids = new int[tokens.size()];
+        for (var i = 0; i < ids.length; i++)
+            ids[i] = dictionary.intern(tokens.get(i));
+
+        var document = new Document(filePath, TokenIdSet.of(ids, ids.length),
+                minHash == null ? null : minHash.signature(tokens));
+
+        if (listener != null) {
+            listener.onProgress(total, total);
+            listener.onFinish();
+        }
+
+        return document;
+    }
+
+    /**
+     * Streams the first bytes of the file in blocks through a bounded queue
+     * to the workers.
+     *
+     * @param filePath path to the text file
+     * @param size     number of bytes read, at a line boundary
+     * @param checksum checksum updated with the bytes read
+     * @param minHash  the signature scheme, or {@code null} for no signature
+     * @param listener the listener receiving progress updates, or
+     *                 {@code null} for none
+     * @return the finished worker subtasks
+     * @throws Exception if reading the file or any task fails
+     */
+    private List<StructuredTaskScope.Subtask<Partial>> loadStreamed(Path filePath, long size, CRC32C checksum,
+            MinHash minHash, ProgressListener listener) throws Exception {
+        var total = Math.max(1, size);
+        var bytesRead = new AtomicLong(); // Current progress counter
+        var blocks = new ArrayBlockingQueue<String>(parallelism * BLOCKS_PER_WORKER);
+        var workers = new ArrayList<StructuredTaskScope.Subtask<Partial>>();
+
+        try (var scope = new StructuredTaskScope.ShutdownOnFailure()) {
+
+            // Progress monitoring task
+            if (listener != null)
+                scope.fork(() -> monitorProgress(bytesRead, total, listener));
+
+            // Reader task - streams the file into the queue
+            scope.fork(() -> {
+                FileIO.readBlocks(filePath, blockSize, size, checksum, (block, read) -> {
+                    blocks.put(block);
+                    bytesRead.set(read);
+                });
+
+                bytesRead.set(total);
+                for (var i = 0; i < parallelism; i++)
+                    blocks.put(END_OF_FILE);
+
+                return null;
+            });
+
+            // Parallel preprocessing workers, each with a thread-local token set
+            for (var i = 0; i < parallelism; i++) {
+                workers.add(scope.fork(() -> {
+                    var localTokens = newSink();
+                    String block;
+
+                    while ((block = blocks.take()) != END_OF_FILE) {
+                        var event = new PipelineEvents.ChunkTokenization();
+                        var known = localTokens.size();
+                        event.begin();
+                        var startNanos = System.nanoTime();
+                        textPreprocessor.preprocess(block, localTokens);
+                        PREPROCESS.record(startNanos);
+                        PREPROCESS_CHARS.add(block.length());
+                        event.commit(filePath, block, localTokens.size() - known);
+                    }
+
+                    return partial(localTokens, minHash);
+                }));
+            }
+
+            scope.join();
+            scope.throwIfFailed(e -> e instanceof Exception ex ? ex : new Exception(e));
+        }
+
+        return workers;
+    }
+
+    /**
+     * Memory-maps the file and splits a range of it at line boundaries into
+     * one segment per worker. Every worker tokenizes its segment straight from
+     * the bytes, so the file is never decoded into Strings as a whole.
+     *
+     * @param filePath path to the text file
+     * @param from     start of the range, at a line boundary
+     * @param to       end of the range
+     * @param checksum checksum updated with the range alongside the workers,
+     *                 or {@code null} for none
+     * @param minHash  the signature scheme, or {@code null} for no signature
+     * @param listener the listener receiving progress updates, or
+     *                 {@code null} for none
+     * @return the finished worker subtasks
+     * @throws Exception if mapping the file or any task fails
+     */
+    private List<StructuredTaskScope.Subtask<Partial>> loadMapped(Path filePath, long from, long to,
+            CRC32C checksum, MinHash minHash, ProgressListener listener) throws Exception {
+        var size = to - from;
+        var total = Math.max(1, size);
+        var bytesProcessed = new AtomicLong(); // Current progress counter
+        var workers = new ArrayList<StructuredTaskScope.Subtask<Partial>>();
+
+        // Nothing to tokenize, e.g. nothing appended since the last load
+        if (size <= 0) {
+            if (listener != null) {
+                listener.onStart(total);
+                listener.onProgress(total, total);
+                listener.onFinish();
+            }
+
+            return workers;
+        }
+
+        try (var arena = Arena.ofShared()) {
+            var segment = FileIO.mapFile(filePath, arena);
+
+            try (var scope = new StructuredTaskScope.ShutdownOnFailure()) {
+
+                // Progress monitoring task
+                if (listener != null)
+                    scope.fork(() -> monitorProgress(bytesProcessed, total, listener));
+
+                // Checksum task, reading the file alongside the workers through
+                // a confined mapping, as checksums reject shared ones
+                if (checksum != null)
+                    scope.fork(() -> {
+                        try (var confined = Arena.ofConfined()) {
+                            FileIO.updateChecksum(checksum, FileIO.mapFile(filePath, confined), from, to);
+                        }
+                        return null;
+                    });
+
+                // One worker per segment, each with a thread-local token set
+                var next = from;
+                for (var i = 1; i <= parallelism && next < to; i++) {
+                    var start = next;
+                    var end = i == parallelism ? to
+                            : Math.min(to, FileIO.nextLineStart(segment, from + size * i / parallelism));
+                    next = Math.max(next, end);
+
+                    if (end <= start)
+                        continue;
+
+                    workers.add(scope.fork(() -> {
+                        var localTokens = newSink();
+
+                        // Process the segment in slices to report progress
+                        for (var slice = start; slice < end;) {
+                            var sliceEnd = Math.min(end, FileIO.nextLineStart(segment, slice + blockSize));
+                            var event = new PipelineEvents.ChunkTokenization();
+                            var known = localTokens.size();
+                            event.begin();
+                            var startNanos = System.nanoTime();
+                            textPreprocessor.preprocess(segment, slice, sliceEnd, localTokens);
+                            PREPROCESS.record(startNanos);
+                            PREPROCESS_BYTES.add(sliceEnd - slice);
+                            event.commit(filePath, segment, slice, sliceEnd, localTokens.size() - known);
+                            bytesProcessed.addAndGet(sliceEnd - slice);
+                            slice = sliceEnd;
+                        }
+
+                        return partial(localTokens, minHash);
+                    }));
+                }
+
+                scope.join();
+                scope.throwIfFailed(e -> e instanceof Exception ex ? ex : new Exception(e));
+            }
+        } catch (CharacterCodingException e) {
+            throw new Exception("Error reading file: " + filePath);
+        }
+
+        return workers;
+    }
+
+    /**
+     * Reports progress to the listener every 100 ms until all bytes have been
+     * processed.
+     *
+     * @param done     number of bytes processed so far
+     * @param total    total number of bytes
+     * @param listener the listener receiving progress updates
+     * @return nothing, allows use as a subtask
+     */
+    private Void monitorProgress(AtomicLong done, long total, ProgressListener listener) {
+        listener.onStart(total);
+
+        while (!Thread.currentThread().isInterrupted()
+                && done.get() < total) {
+
+            listener.onProgress(done.get(), total);
+
+            try {
+                Thread.sleep(Duration.ofMillis(100));
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+
+        listener.onProgress(total, total);
+        listener.onFinish();
+
+        return null;
+    }
+
+    /**
+     * Returns the size of a file in bytes.
+     *
+     * @param filePath path to the file
+     * @return the size of the file
+     * @throws Exception if the file cannot be accessed
+     */
+    private static long fileSize(Path filePath) throws Exception {
+        try {
+            return Files.size(filePath);
+        } catch (Exception e) {
+            throw new Exception("Error reading file: " + filePath);
+        }
+    }
+
+    /**
+     * Creates the sink receiving the tokens of a worker: a set of unique
+     * tokens, a counting sink in {@link SimilarityMode#MULTISET} mode or a
+     * shingling sink in the shingle modes.
+     *
+     * @return an empty token sink
+     */
+    private WorkerSink newSink() {
+        if (mode == SimilarityMode.MULTISET)
+            return new CountingSink(dictionary);
+        if (mode.isShingled())
+            return new ShingleSink(textPreprocessor, mode, shingleSize);
+
+        return new SetSink();
+    }
+
+    /**
+     * Interns the tokens collected by a worker and computes their signature.
+     *
+     * @param sink    the token sink of a worker
+     * @param minHash the signature scheme, or {@code null} for no signature
+     * @return the IDs, signature and counts of the tokens
+     */
+    private Partial partial(WorkerSink sink, MinHash minHash) {
+        var sample = INTERN.begin();
+
+        try {
+            return intern(sink, minHash);
+        } finally {
+            INTERN.end(sample);
+        }
+    }
+
+    /**
+     * Interns the tokens collected by a worker and computes their signature,
+     * without timing.
+     *
+     * @param sink    the token sink of a worker
+     * @param minHash the signature scheme, or {@code null} for no signature
+     * @return the IDs, signature and counts of the tokens
+     */
+    private Partial intern(WorkerSink sink, MinHash minHash) {
+        if (sink instanceof CountingSink counting) {
+            // Tokens already interned and counted
+            var keys = counting.counter.keys();
+            var ids = new int[keys.size()];
+            for (var i = 0; i < ids.length; i++)
+                ids[i] = keys.get(i);
+            INTERN_TOKENS.add(ids.length);
+
+            return new Partial(ids, minHash == null ? null : minHash.signature(keys, dictionary), counting.counter,
+                    null);
+        }
+
+        ShingleSet shingles = null;
+        Set<String> tokens;
+        if (sink instanceof ShingleSink shingling) {
+            shingles = shingling.shingles.build();
+            tokens = shingling.tokens;
+        } else {
+            tokens = ((SetSink) sink).tokens;
+        }
+
+        var ids = new int[tokens.size()];
+        var length = 0;
+
+        for (var token : tokens)
+            ids[length++] = dictionary.intern(token);
+        INTERN_TOKENS.add(length);
+
+        return new Partial(ids, minHash == null ? null : minHash.signature(tokens), null, shingles);
+    }
+
+    /**
+     * Merges the token IDs produced by ingestion workers into one set.
+     *
+     * @param workers the finished worker subtasks
+     * @return the union of all token IDs
+     */
+    private TokenIdSet mergeTokenIds(List<StructuredTaskScope.Subtask<Partial>> workers) {
+        var length = 0;
+        for (var worker : workers)
+            length += worker.get().ids().length;
+
+        var ids = new int[length];
+        var offset = 0;
+        for (var worker : workers) {
+            var localIds = worker.get().ids();
+            System.arraycopy(localIds, 0, ids, offset, localIds.length);
+            offset += localIds.length;
+        }
+
+        return TokenIdSet.of(ids, length);
+    }
+
+    /**
+     * Merges the occurrence counts produced by ingestion workers.
+     *
+     * @param workers the finished worker subtasks
+     * @return the counts of the whole document, or {@code null} if not
+     *         counted
+     */
+    private TokenBag mergeCounters(List<StructuredTaskScope.Subtask<Partial>> workers) {
+        if (mode != SimilarityMode.MULTISET)
+            return null;
+
+        var expected = 0;
+        for (var worker : workers)
+            if (worker.get().counter() != null)
+                expected = Math.max(expected, worker.get().counter().size());
+
+        var counter = new TokenCounter(expected);
+        for (var worker : workers)
+            if (worker.get().counter() != null)
+                counter.addAll(worker.get().counter());
+
+        return counter.toBag();
+    }
+
+    /**
+     * Merges the shingle fingerprints produced by ingestion workers.
+     *
+     * @param workers the finished worker subtasks
+     * @return the shingles of the whole document, or {@code null} if not
+     *         shingled
+     */
+    private ShingleSet mergeShingles(List<StructuredTaskScope.Subtask<Partial>> workers) {
+        if (!mode.isShingled())
+            return null;
+
+        var shingles = ShingleSet.empty(mode, shingleSize);
+        for (var worker : workers)
+            if (worker.get().shingles() != null)
+                shingles = ShingleSet.union(shingles, worker.get().shingles());
+
+        return shingles;
+    }
+
+    /**
+     * Merges the signatures produced by ingestion workers by element-wise
+     * minimum.
+     *
+     * @param workers the finished worker subtasks
+     * @param minHash the signature scheme, or {@code null} for no signature
+     * @return the signature of the whole document, or {@code null} if none
+     *         was requested
+     */
+    private long[] mergeSignatures(List<StructuredTaskScope.Subtask<Partial>> workers, MinHash minHash) {
+        if (minHash == null)
+            return null;
+
+        var signature = minHash.newSignature();
+
+        for (var worker : workers)
+            MinHash.merge(signature, worker.get().signature());
+
+        return signature;
+    }
+}
@@ -1,7 +1,14 @@
 package ie.atu.sw;
 
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
+import java.util.Locale;
 
 /**
  * Responsible for low-level text preprocessing.
@@ -15,8 +22,176 @@ import java.util.List;
  *
  * The class does not apply any semantic logic such as stop-word filtering
  * or similarity calculation. It prepares text for further analysis.
+ *
+ * All three steps are performed by a single-pass, regex-free scanner over
+ * the code points of each line. The original regex pipeline is kept as a
+ * reference implementation for differential checks.
+ *
+ * The tokens of a line can also be turned into shingles - character
+ * n-grams or word k-shingles - by a rolling hash into 64-bit fingerprints,
+ * without creating a substring for any shingle.
+ *
+ * Blocks of text can be tokenized by one of two {@link Backend}s producing
+ * the same tokens: the scalar scanner, or a SIMD scanner of ASCII lines
+ * built on the incubating Vector API, which falls back to the scalar
+ * scanner for lines containing other characters.
  */
 public class TextPreprocessor {
+    /**
+     * Implementations of the block tokenizer.
+     */
+    public enum Backend {
+        /** Code point by code point scanner */
+        SCALAR,
+
+        /**
+         * Vector API scanner of ASCII lines, 32 or 64 bytes at a time.
+         * Requires {@code --add-modules jdk.incubator.vector}.
+         */
+        VECTOR;
+
+        /**
+         * Checks whether the backend can be used in the running JVM, i.e.
+         * for the vector backend whether the JVM was started with
+         * {@code --add-modules jdk.incubator.vector}.
+         *
+         * @return {@code true} if the backend is available
+         */
+        public boolean isAvailable() {
+            return this == SCALAR || ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+        }
+    }
+
+    /**
+     * Receiver of the tokens of a block of text, line by line.
+     */
+    @FunctionalInterface
+    public interface TokenSink {
+        /**
+         * Accepts the next token of the current line.
+         *
+         * @param token the token
+         */
+        void accept(String token);
+
+        /**
+         * Ends the current line. Called once after the last token of every
+         * line that has tokens.
+         */
+        default void endLine() {
+        }
+    }
+
+    /**
+     * Receiver of the tokens of one line from the scanner, as ranges of its
+     * buffer of token characters.
+     */
+    private interface LineTokens {
+        /**
+         * Adds a token.
+         *
+         * @param run   the buffer holding the token
+         * @param start index of the first character of the token
+         * @param end   index after the last character of the token
+         */
+        void add(CharSequence run, int start, int end);
+
+        /** Returns the number of tokens added */
+        int size();
+
+        /**
+         * Discards the tokens added after the first ones.
+         *
+         * @param size the number of tokens kept
+         */
+        void truncate(int size);
+    }
+
+    /**
+     * Tokens of one line as Strings.
+     */
+    private static final class StringTokens extends ArrayList<String> implements LineTokens {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void add(CharSequence run, int start, int end) {
+            add(run.subSequence(start, end).toString());
+        }
+
+        @Override
+        public void truncate(int size) {
+            subList(size, size()).clear();
+        }
+    }
+
+    /**
+     * Tokens of one line as their {@link MinHash#hash} values only, for
+     * word shingles, so no String is created for a token.
+     */
+    private static final class HashTokens implements LineTokens {
+        /** Hashes of the tokens */
+        private long[] hashes = new long[64];
+
+        /** Number of tokens */
+        private int size = 0;
+
+        @Override
+        public void add(CharSequence run, int start, int end) {
+            if (size == hashes.length)
+                hashes = Arrays.copyOf(hashes, size * 2);
+
+            hashes[size++] = MinHash.hash(run, start, end);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public void truncate(int size) {
+            this.size = size;
+        }
+    }
+
+    /** Multiplier of the polynomial rolling hash (the 64-bit FNV prime) */
+    private static final long ROLLING_BASE = 0x100000001B3L;
+
+    /**
+     * Version of the tokenization rules. It must be incremented whenever the
+     * tokens produced for a text change, so that token sets cached by
+     * {@link TokenSetCache} under an older version are rebuilt.
+     */
+    public static final int VERSION = 1;
+
+    /** Tokenizer of blocks of text */
+    private final Backend backend;
+
+    /**
+     * Creates a preprocessor using the vector backend if the Vector API is
+     * available, and the scalar backend otherwise.
+     */
+    public TextPreprocessor() {
+        this(Backend.VECTOR.isAvailable() ? Backend.VECTOR : Backend.SCALAR);
+    }
+
+    /**
+     * Creates a preprocessor using the given backend.
+     *
+     * @param backend the tokenizer of blocks of text
+     * @throws IllegalArgumentException if the backend is not available
+     */
+    public TextPreprocessor(Backend backend) {
+        if (!backend.isAvailable())
+            throw new IllegalArgumentException("Tokenizer backend not available: " + backend);
+
+        this.backend = backend;
+    }
+
+    /** Returns the tokenizer of blocks of text */
+    public Backend getBackend() {
+        return backend;
+    }
 
     /**
      * Converts all characters in the input text to lower case.
@@ -88,15 +263,590 @@ public class TextPreprocessor {
      * <li>tokenizing the cleaned text into words</li>
      * </ol>
      *
+     * All steps are fused into a single scan over the text, producing exactly
+     * the same tokens as {@link #preprocessRegex(String)}.
+     *
      * This method is intended to be the main entry point for text preprocessing.
      *
      * @param text the raw input text
      * @return a list of processed word tokens
      */
     public List<String> preprocess(String text) {
+        var tokens = new StringTokens();
+        scanLine(text, 0, text.length(), tokens);
+
+        return tokens;
+    }
+
+    /**
+     * Performs the full preprocessing pipeline on a block of text that may
+     * span several lines.
+     *
+     * Line terminators ({@code \n}, {@code \r}) are treated as line
+     * boundaries, so the result is the same as preprocessing each line of the
+     * block separately.
+     *
+     * @param text   the raw input text
+     * @param tokens the collection receiving the processed word tokens
+     */
+    public void preprocess(CharSequence text, Collection<String> tokens) {
+        preprocess(text, tokens::add);
+    }
+
+    /**
+     * Performs the full preprocessing pipeline on a block of text that may
+     * span several lines, passing the tokens to a sink line by line.
+     *
+     * Line terminators ({@code \n}, {@code \r}) are treated as line
+     * boundaries, and the end of every line with tokens is reported to the
+     * sink, so shingles or other per-line results can be computed as the
+     * tokens arrive.
+     *
+     * With the vector backend, a String is encoded to UTF-8 and tokenized
+     * like mapped bytes, and the lines containing non-ASCII characters are
+     * scanned from the String.
+     *
+     * @param text the raw input text
+     * @param sink the sink receiving the processed word tokens
+     */
+    public void preprocess(CharSequence text, TokenSink sink) {
+        if (backend == Backend.VECTOR && text instanceof String string && !hasSpecialCasingLocale()) {
+            preprocessVector(string, sink);
+            return;
+        }
+
+        var lineTokens = new StringTokens();
+        var from = 0;
+
+        for (var i = 0; i <= text.length(); i++) {
+            if (i < text.length() && text.charAt(i) != '\n' && text.charAt(i) != '\r')
+                continue;
+
+            if (i > from) {
+                scanLine(text, from, i, lineTokens);
+                endLine(lineTokens, sink);
+            }
+            from = i + 1;
+        }
+    }
+
+    /**
+     * Performs the full preprocessing pipeline directly on UTF-8 encoded
+     * bytes, for example a memory-mapped file.
+     *
+     * Lines consisting of ASCII bytes only are tokenized straight from the
+     * bytes without decoding. As soon as a non-ASCII byte is found, the tokens
+     * of its line are discarded and the line is decoded and processed by the
+     * regular code point scanner, so letters and digits outside ASCII are
+     * classified correctly.
+     *
+     * @param bytes  the UTF-8 encoded text
+     * @param from   offset of the first byte, at the start of a line
+     * @param to     offset after the last byte, at the end of a line
+     * @param tokens the collection receiving the processed word tokens
+     * @throws CharacterCodingException if a line is not valid UTF-8
+     */
+    public void preprocess(MemorySegment bytes, long from, long to, Collection<String> tokens)
+            throws CharacterCodingException {
+        preprocess(bytes, from, to, tokens::add);
+    }
+
+    /**
+     * Performs the full preprocessing pipeline directly on UTF-8 encoded
+     * bytes, passing the tokens to a sink line by line as
+     * {@link #preprocess(CharSequence, TokenSink)} does.
+     *
+     * @param bytes the UTF-8 encoded text
+     * @param from  offset of the first byte, at the start of a line
+     * @param to    offset after the last byte, at the end of a line
+     * @param sink  the sink receiving the processed word tokens
+     * @throws CharacterCodingException if a line is not valid UTF-8
+     */
+    public void preprocess(MemorySegment bytes, long from, long to, TokenSink sink)
+            throws CharacterCodingException {
+        var decoder = StandardCharsets.UTF_8.newDecoder();
+        var lineTokens = new StringTokens();
+        var run = new StringBuilder();
+        var ascii = !hasSpecialCasingLocale();
+        var vector = ascii && backend == Backend.VECTOR ? new VectorTokenizer() : null;
+
+        while (from < to) {
+            var end = !ascii ? -from - 1
+                    : vector != null ? vector.scanAscii(bytes, from, to, lineTokens)
+                            : scanAscii(bytes, from, to, run, lineTokens);
+
+            if (end < 0) {
+                // Non-ASCII line - decode it and use the code point scanner
+                lineTokens.clear();
+                end = lineEnd(bytes, -end - 1, to);
+                var line = decoder.decode(bytes.asSlice(from, end - from).asByteBuffer());
+                scanLine(line, 0, line.length(), lineTokens);
+            }
+
+            endLine(lineTokens, sink);
+            from = end + 1;
+        }
+    }
+
+    /**
+     * Tokenizes a block of text with the vector backend.
+     *
+     * The block is encoded to UTF-8, where every ASCII line keeps its length,
+     * so the lines of the bytes and of the String stay aligned. ASCII lines
+     * are tokenized from the bytes, other lines by the code point scanner
+     * from the String.
+     *
+     * @param text the raw input text
+     * @param sink the sink receiving the processed word tokens
+     */
+    private void preprocessVector(String text, TokenSink sink) {
+        var bytes = MemorySegment.ofArray(text.getBytes(StandardCharsets.UTF_8));
+        var vector = new VectorTokenizer();
+        var lineTokens = new StringTokens();
+        var from = 0L; // start of the line in the bytes
+        var charFrom = 0; // start of the line in the String
+
+        while (from < bytes.byteSize()) {
+            var end = vector.scanAscii(bytes, from, bytes.byteSize(), lineTokens);
+            var charEnd = charFrom + (int) (end - from);
+
+            if (end < 0) {
+                // Non-ASCII line - use the code point scanner on the String
+                lineTokens.clear();
+                end = lineEnd(bytes, -end - 1, bytes.byteSize());
+                charEnd = charFrom;
+                while (charEnd < text.length() && text.charAt(charEnd) != '\n' && text.charAt(charEnd) != '\r')
+                    charEnd++;
+                scanLine(text, charFrom, charEnd, lineTokens);
+            }
+
+            endLine(lineTokens, sink);
+            from = end + 1;
+            charFrom = charEnd + 1;
+        }
+    }
+
+    /**
+     * Passes the tokens of a line to a sink, ends the line if it has tokens
+     * and clears the tokens for the next line.
+     *
+     * @param lineTokens the tokens of the line
+     * @param sink       the sink receiving the tokens
+     */
+    private static void endLine(List<String> lineTokens, TokenSink sink) {
+        if (lineTokens.isEmpty())
+            return;
+
+        for (var token : lineTokens)
+            sink.accept(token);
+
+        sink.endLine();
+        lineTokens.clear();
+    }
+
+    /**
+     * Preprocesses a text and returns the fingerprints of its shingles.
+     *
+     * Every line is tokenized and shingled separately, see
+     * {@link #shingle(List, SimilarityMode, int, ShingleSet.Builder)}.
+     *
+     * @param text the raw input text
+     * @param mode {@link SimilarityMode#CHARACTER_NGRAMS} or
+     *             {@link SimilarityMode#WORD_SHINGLES}
+     * @param size the number of characters or words per shingle
+     * @return the set of shingle fingerprints
+     */
+    public ShingleSet shingles(String text, SimilarityMode mode, int size) {
+        var shingles = new ShingleSet.Builder(mode, size);
+        var isWords = mode == SimilarityMode.WORD_SHINGLES;
+        var lineTokens = new StringTokens();
+        var lineHashes = new HashTokens(); // word shingles need only the token hashes
+        var from = 0;
+
+        for (var i = 0; i <= text.length(); i++) {
+            if (i < text.length() && text.charAt(i) != '\n' && text.charAt(i) != '\r')
+                continue;
+
+            if (i > from && isWords) {
+                scanLine(text, from, i, lineHashes);
+                shingleWords(lineHashes.hashes, lineHashes.size, size, shingles);
+                lineHashes.truncate(0);
+            } else if (i > from) {
+                scanLine(text, from, i, lineTokens);
+                shingle(lineTokens, mode, size, shingles);
+                lineTokens.clear();
+            }
+            from = i + 1;
+        }
+
+        return shingles.build();
+    }
+
+    /**
+     * Adds the shingle fingerprints of the tokens of one line.
+     *
+     * <ul>
+     * <li>Character n-grams are taken from the tokens joined by single
+     * spaces, so they span word boundaries, and are counted in code
+     * points.</li>
+     * <li>Word k-shingles are runs of k consecutive tokens.</li>
+     * </ul>
+     *
+     * A line shorter than one shingle yields a single shingle of the whole
+     * line, so short lines are not lost. Shingles never span lines, which
+     * keeps the result independent of how a file is split between workers.
+     * Only a line longer than a streamed block, which is cut between words,
+     * is shingled in parts.
+     *
+     * Fingerprints are computed by a polynomial rolling hash over the code
+     * points or word hashes of the window and finished by a bit mixer; no
+     * substring or intermediate object is created.
+     *
+     * @param lineTokens the tokens of one line
+     * @param mode       {@link SimilarityMode#CHARACTER_NGRAMS} or
+     *                   {@link SimilarityMode#WORD_SHINGLES}
+     * @param size       the number of characters or words per shingle, at
+     *                   least one
+     * @param shingles   the builder receiving the fingerprints
+     * @throws IllegalArgumentException if the mode is not a shingle mode or
+     *                                  the size is less than one
+     */
+    public void shingle(List<? extends String> lineTokens, SimilarityMode mode, int size, ShingleSet.Builder shingles) {
+        if (size < 1)
+            throw new IllegalArgumentException("Shingle size must be at least 1!!!");
+
+        if (lineTokens.isEmpty())
+            return;
+
+        // Weight of the value leaving the window: ROLLING_BASE^(size - 1)
+        var outWeight = 1L;
+        for (var i = 1; i < size; i++)
+            outWeight *= ROLLING_BASE;
+
+        var window = new long[size]; // ring buffer of the values in the window
+        var count = 0; // number of values seen
+        var hash = 0L;
+
+        switch (mode) {
+            case CHARACTER_NGRAMS -> {
+                for (var t = 0; t < lineTokens.size(); t++) {
+                    var token = lineTokens.get(t);
+
+                    for (var i = (t == 0 ? 0 : -1); i < token.length();) {
+                        // A single space before every token but the first
+                        int cp = i < 0 ? ' ' : token.codePointAt(i);
+                        i += i < 0 ? 1 : Character.charCount(cp);
+
+                        hash = roll(hash, window, count++, cp, outWeight);
+                        if (count >= size)
+                            shingles.add(MinHash.mix(hash ^ size));
+                    }
+                }
+            }
+            case WORD_SHINGLES -> {
+                for (var token : lineTokens) {
+                    hash = roll(hash, window, count++, MinHash.hash(token), outWeight);
+                    if (count >= size)
+                        shingles.add(MinHash.mix(hash ^ size));
+                }
+            }
+            default -> throw new IllegalArgumentException("Not a shingle mode: " + mode);
+        }
+
+        // Line shorter than one shingle
+        if (count < size)
+            shingles.add(MinHash.mix(hash ^ size));
+    }
+
+    /**
+     * Adds the word shingle fingerprints of one line from the hashes of its
+     * tokens, exactly as {@link #shingle} does from the tokens, without
+     * keeping the tokens of the line.
+     *
+     * @param wordHashes the {@link MinHash#hash} values of the tokens
+     * @param count      the number of tokens
+     * @param size       the number of words per shingle, at least one
+     * @param shingles   the builder receiving the fingerprints
+     */
+    public void shingleWords(long[] wordHashes, int count, int size, ShingleSet.Builder shingles) {
+        if (size < 1)
+            throw new IllegalArgumentException("Shingle size must be at least 1!!!");
+
+        if (count == 0)
+            return;
+
+        var outWeight = 1L;
+        for (var i = 1; i < size; i++)
+            outWeight *= ROLLING_BASE;
+
+        var window = new long[size];
+        var hash = 0L;
+
+        for (var t = 0; t < count; t++) {
+            hash = roll(hash, window, t, wordHashes[t], outWeight);
+            if (t + 1 >= size)
+                shingles.add(MinHash.mix(hash ^ size));
+        }
+
+        // Line shorter than one shingle
+        if (count < size)
+            shingles.add(MinHash.mix(hash ^ size));
+    }
+
+    /**
+     * Moves the rolling hash window by one value.
+     *
+     * @param hash      the hash of the current window
+     * @param window    ring buffer of the values in the window
+     * @param count     number of values seen before this one
+     * @param value     the value entering the window
+     * @param outWeight the weight of the value leaving a full window
+     * @return the hash of the new window
+     */
+    private static long roll(long hash, long[] window, int count, long value, long outWeight) {
+        var slot = count % window.length;
+
+        if (count >= window.length)
+            hash -= window[slot] * outWeight;
+
+        window[slot] = value;
+
+        return hash * ROLLING_BASE + value;
+    }
+
+    /**
+     * Reference implementation of the preprocessing pipeline built on
+     * regular expressions.
+     *
+     * Kept for differential checks and benchmarks against
+     * {@link #preprocess(String)}.
+     *
+     * @param text the raw input text
+     * @return a list of processed word tokens
+     */
+    List<String> preprocessRegex(String text) {
         var normalizedText = normalizeCase(text);
         var cleanedText = removePunctuation(normalizedText);
 
         return tokenize(cleanedText);
     }
+
+    /**
+     * Tokenizes one line of text and appends the tokens to the given list.
+     *
+     * Lower-casing is done per code point, which matches
+     * {@link String#toLowerCase()} for everything except the context and
+     * locale sensitive special cases. When one of them is met, the tokens of
+     * the line are rolled back and the line is rescanned after a regular
+     * {@link String#toLowerCase()}.
+     *
+     * @param text   the text containing the line
+     * @param from   index of the first character of the line
+     * @param to     index after the last character of the line
+     * @param tokens the receiver of the tokens
+     */
+    private void scanLine(CharSequence text, int from, int to, LineTokens tokens) {
+        var mark = tokens.size();
+
+        if (!hasSpecialCasingLocale() && scan(text, from, to, false, tokens))
+            return;
+
+        // Special casing - fall back to full String lower-casing of the line
+        tokens.truncate(mark);
+        var lowered = text.subSequence(from, to).toString().toLowerCase();
+        scan(lowered, 0, lowered.length(), true, tokens);
+    }
+
+    /**
+     * Single-pass scanner: lower-cases, classifies every code point as a token
+     * character (letter, digit or hyphen) or a separator and emits the tokens.
+     *
+     * The free-standing hyphen rule of the regex pipeline is reproduced by
+     * tracking whether the separator before the current run of token
+     * characters has already been consumed by a hyphen of the previous run.
+     *
+     * @param text    the text to scan
+     * @param from    index of the first character to scan
+     * @param to      index after the last character to scan
+     * @param lowered {@code true} if the text is already lower-cased
+     * @param tokens  the receiver of the tokens
+     * @return {@code false} if a special casing character was found in a not
+     *         yet lower-cased text, otherwise {@code true}
+     */
+    private boolean scan(CharSequence text, int from, int to, boolean lowered, LineTokens tokens) {
+        var run = new StringBuilder();
+        var separated = false; // a separator precedes the current run
+        var consumed = false; // that separator was consumed by a hyphen
+        var i = from;
+
+        while (i < to) {
+            int cp = text.charAt(i++);
+
+            // Combine surrogate pairs into a single code point
+            if (Character.isHighSurrogate((char) cp) && i < to && Character.isLowSurrogate(text.charAt(i)))
+                cp = Character.toCodePoint((char) cp, text.charAt(i++));
+
+            if (cp < 0x80) {
+                // ASCII fast path
+                if ('A' <= cp && cp <= 'Z')
+                    cp += 'a' - 'A';
+            } else if (!lowered) {
+                // Sigma and dotted capital I depend on context in String.toLowerCase
+                if (cp == '\u03A3' || cp == '\u0130')
+                    return false;
+
+                cp = Character.toLowerCase(cp);
+            }
+
+            if (isTokenChar(cp)) {
+                run.appendCodePoint(cp);
+                continue;
+            }
+
+            // Consecutive separators collapse into one
+            if (run.length() > 0) {
+                consumed = emit(run, separated, consumed, true, tokens);
+                run.setLength(0);
+            }
+            separated = true;
+        }
+
+        if (run.length() > 0)
+            emit(run, separated, consumed, false, tokens);
+
+        return true;
+    }
+
+    /**
+     * ASCII-only variant of {@link #scan} working on one line of UTF-8 bytes.
+     *
+     * @param bytes  the UTF-8 encoded text
+     * @param from   offset of the first byte of the line
+     * @param to     offset after the last byte of the text
+     * @param run    reusable buffer for the current run of token characters
+     * @param tokens the receiver of the tokens
+     * @return offset of the line terminator (or {@code to}) that ended the
+     *         line, or {@code -offset - 1} of the first non-ASCII byte
+     */
+    private long scanAscii(MemorySegment bytes, long from, long to, StringBuilder run, LineTokens tokens) {
+        var separated = false; // a separator precedes the current run
+        var consumed = false; // that separator was consumed by a hyphen
+        var i = from;
+
+        run.setLength(0);
+
+        for (; i < to; i++) {
+            int b = bytes.get(ValueLayout.JAVA_BYTE, i);
+
+            if (b < 0)
+                return -i - 1;
+
+            if (b == '\n' || b == '\r')
+                break;
+
+            if ('A' <= b && b <= 'Z')
+                b += 'a' - 'A';
+
+            if (isTokenChar(b)) {
+                run.append((char) b);
+                continue;
+            }
+
+            // Consecutive separators collapse into one
+            if (run.length() > 0) {
+                consumed = emit(run, separated, consumed, true, tokens);
+                run.setLength(0);
+            }
+            separated = true;
+        }
+
+        if (run.length() > 0)
+            emit(run, separated, consumed, false, tokens);
+
+        return i;
+    }
+
+    /**
+     * Finds the end of the line containing the given offset.
+     *
+     * @param bytes  the UTF-8 encoded text
+     * @param offset offset inside the line
+     * @param to     offset after the last byte of the text
+     * @return offset of the line terminator, or {@code to}
+     */
+    private static long lineEnd(MemorySegment bytes, long offset, long to) {
+        for (var i = offset; i < to; i++) {
+            var b = bytes.get(ValueLayout.JAVA_BYTE, i);
+            if (b == '\n' || b == '\r')
+                return i;
+        }
+
+        return to;
+    }
+
+    /**
+     * Emits a run of token characters, stripping hyphens that touch a
+     * separator which is still available for matching.
+     *
+     * @param run       the run of token characters
+     * @param separated {@code true} if a separator precedes the run
+     * @param consumed  {@code true} if that separator was already consumed
+     * @param followed  {@code true} if a separator follows the run
+     * @param tokens    the receiver of the token
+     * @return {@code true} if the following separator was consumed
+     */
+    private boolean emit(StringBuilder run, boolean separated, boolean consumed, boolean followed,
+            LineTokens tokens) {
+        var start = 0;
+        var end = run.length();
+
+        if (separated && !consumed && run.charAt(0) == '-') {
+            // " - " - hyphen removed together with both separators
+            if (end == 1 && followed)
+                return true;
+
+            start = 1;
+        }
+
+        var trailing = followed && end - 1 >= start && run.charAt(end - 1) == '-';
+        if (trailing)
+            end -= 1;
+
+        if (end > start)
+            tokens.add(run, start, end);
+
+        return trailing;
+    }
+
+    /**
+     * Checks whether a (lower-cased) code point belongs to a token, i.e.
+     * matches {@code [\p{L}\p{N}-]}.
+     *
+     * @param cp the code point
+     * @return {@code true} for letters, digits and hyphens
+     */
+    private static boolean isTokenChar(int cp) {
+        if (cp < 0x80)
+            return ('a' <= cp && cp <= 'z') || ('0' <= cp && cp <= '9') || cp == '-';
+
+        return switch (Character.getType(cp)) {
+            case Character.UPPERCASE_LETTER, Character.LOWERCASE_LETTER, Character.TITLECASE_LETTER,
+                    Character.MODIFIER_LETTER, Character.OTHER_LETTER, Character.DECIMAL_DIGIT_NUMBER,
+                    Character.LETTER_NUMBER, Character.OTHER_NUMBER ->
+                true;
+            default -> false;
+        };
+    }
+
+    /**
+     * Checks whether the default locale applies language specific lower-casing
+     * rules (Turkish, Azeri, Lithuanian).
+     *
+     * @return {@code true} if the default locale has special casing rules
+     */
+    private static boolean hasSpecialCasingLocale() {
+        var language = Locale.getDefault().getLanguage();
+
+        return language.equals("tr") || language.equals("az") || language.equals("lt");
+    }
 }
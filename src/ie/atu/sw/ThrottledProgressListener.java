@@ -0,0 +1,63 @@
+package ie.atu.sw;
+
+import java.time.Duration;
+
+/**
+ * Progress listener decorator limiting how often updates are forwarded.
+ *
+ * An update is forwarded when either the given time has elapsed or the
+ * given amount of work has been done since the last forwarded update. The
+ * final update of an operation is always forwarded.
+ */
+public class ThrottledProgressListener implements ProgressListener {
+    /** Listener receiving the forwarded updates */
+    private final ProgressListener delegate;
+
+    /** Minimum time between forwarded updates in nanoseconds */
+    private final long intervalNanos;
+
+    /** Amount of work after which an update is forwarded regardless of time */
+    private final long steps;
+
+    /** Time and amount of work of the last forwarded update */
+    private long lastNanos;
+    private long lastDone;
+
+    /**
+     * Creates a throttled listener.
+     *
+     * @param delegate the listener receiving the forwarded updates
+     * @param interval the minimum time between forwarded updates
+     * @param steps    the amount of work after which an update is forwarded
+     *                 regardless of time
+     */
+    public ThrottledProgressListener(ProgressListener delegate, Duration interval, long steps) {
+        this.delegate = delegate;
+        this.intervalNanos = interval.toNanos();
+        this.steps = steps;
+    }
+
+    @Override
+    public synchronized void onStart(long total) {
+        lastNanos = System.nanoTime();
+        lastDone = 0;
+        delegate.onStart(total);
+    }
+
+    @Override
+    public synchronized void onProgress(long done, long total) {
+        var now = System.nanoTime();
+
+        if (done < total && now - lastNanos < intervalNanos && done - lastDone < steps)
+            return;
+
+        lastNanos = now;
+        lastDone = done;
+        delegate.onProgress(done, total);
+    }
+
+    @Override
+    public synchronized void onFinish() {
+        delegate.onFinish();
+    }
+}
@@ -0,0 +1,138 @@
+package ie.atu.sw;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * Immutable multiset of token IDs: every distinct token of a document with
+ * the number of times it occurs.
+ *
+ * The distinct IDs are kept as a {@link TokenIdSet} and the counts in a
+ * parallel primitive array in the same order, so the bag of a document is
+ * its token set plus four bytes per token.
+ */
+public final class TokenBag {
+    /** Empty bag */
+    public static final TokenBag EMPTY = new TokenBag(TokenIdSet.EMPTY, new int[0], 0);
+
+    /** Distinct token IDs */
+    private final TokenIdSet ids;
+
+    /** Occurrence counts, in the order of the IDs */
+    private final int[] counts;
+
+    /** Sum of all counts */
+    private final long total;
+
+    /**
+     * Creates a bag without copying the counts.
+     *
+     * @param ids    distinct token IDs
+     * @param counts occurrence counts, in the order of the IDs
+     * @param total  sum of all counts
+     */
+    TokenBag(TokenIdSet ids, int[] counts, long total) {
+        this.ids = ids;
+        this.counts = counts;
+        this.total = total;
+    }
+
+    /**
+     * Returns the sum of two bags, counting every token as often as in both
+     * bags together.
+     *
+     * @param a the first bag
+     * @param b the second bag
+     * @return the sum of the bags
+     */
+    public static TokenBag sum(TokenBag a, TokenBag b) {
+        if (b.total == 0)
+            return a;
+        if (a.total == 0)
+            return b;
+
+        var ids = TokenIdSet.union(a.ids, b.ids);
+        var counts = new int[ids.size()];
+        var i = 0;
+        var j = 0;
+
+        for (var k = 0; k < ids.size(); k++) {
+            var id = ids.get(k);
+
+            if (i < a.size() && a.id(i) == id)
+                counts[k] += a.counts[i++];
+            if (j < b.size() && b.id(j) == id)
+                counts[k] += b.counts[j++];
+        }
+
+        return new TokenBag(ids, counts, a.total + b.total);
+    }
+
+    /**
+     * Returns the bag without the tokens rejected by a predicate.
+     *
+     * @param keep the predicate accepting the token IDs to keep
+     * @return the filtered bag
+     */
+    public TokenBag filter(IntPredicate keep) {
+        var keptIds = new int[size()];
+        var keptCounts = new int[size()];
+        var length = 0;
+        var keptTotal = 0L;
+
+        for (var i = 0; i < size(); i++) {
+            if (keep.test(id(i))) {
+                keptIds[length] = id(i);
+                keptCounts[length++] = counts[i];
+                keptTotal += counts[i];
+            }
+        }
+
+        return new TokenBag(TokenIdSet.ofSorted(keptIds, length), Arrays.copyOf(keptCounts, length),
+                keptTotal);
+    }
+
+    /** Returns the number of distinct tokens */
+    public int size() {
+        return ids.size();
+    }
+
+    /**
+     * Returns the token ID at the given position in ascending order.
+     *
+     * @param index the position
+     * @return the token ID
+     */
+    public int id(int index) {
+        return ids.get(index);
+    }
+
+    /**
+     * Returns the count of the token at the given position.
+     *
+     * @param index the position
+     * @return the number of occurrences
+     */
+    public int count(int index) {
+        return counts[index];
+    }
+
+    /** Returns the sum of all counts, i.e. the number of token occurrences */
+    public long total() {
+        return total;
+    }
+
+    /** Returns the distinct token IDs */
+    public TokenIdSet ids() {
+        return ids;
+    }
+
+    /**
+     * Returns the approximate memory used by the bag.
+     *
+     * @return the size in bytes
+     */
+    public long memoryFootprint() {
+        return 32 + ids.memoryFootprint() + 16 + 4L * counts.length;
+    }
+}
@@ -0,0 +1,188 @@
+package ie.atu.sw;
+
+import java.util.Arrays;
+
+/**
+ * Mutable map from token ID to occurrence count.
+ *
+ * Keys and counts are stored in two parallel primitive arrays with open
+ * addressing and linear probing, so counting never boxes an integer or
+ * allocates an entry object. The table is kept at most half full and grows
+ * by doubling.
+ *
+ * A counter is not thread-safe: every ingestion worker counts into its own
+ * counter, and the counters are merged with {@link #addAll(TokenCounter)}
+ * once the workers have finished.
+ */
+public final class TokenCounter {
+    /** Marks an unused slot; token IDs are never negative */
+    private static final int EMPTY = -1;
+
+    /** Token IDs, or {@link #EMPTY} */
+    private int[] keys;
+
+    /** Counts, by slot */
+    private int[] counts;
+
+    /** Number of distinct token IDs */
+    private int size;
+
+    /** Sum of all counts */
+    private long total;
+
+    /**
+     * Creates an empty counter.
+     */
+    public TokenCounter() {
+        this(16);
+    }
+
+    /**
+     * Creates an empty counter sized for an expected number of distinct
+     * tokens.
+     *
+     * @param expected the expected number of distinct tokens
+     */
+    public TokenCounter(int expected) {
+        var capacity = Integer.highestOneBit(Math.max(8, expected) * 2 - 1) << 1;
+
+        keys = new int[capacity];
+        counts = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+    }
+
+    /**
+     * Counts one more occurrence of a token.
+     *
+     * @param id the token ID
+     */
+    public void increment(int id) {
+        add(id, 1);
+    }
+
+    /**
+     * Counts further occurrences of a token.
+     *
+     * @param id    the token ID
+     * @param count the number of occurrences
+     */
+    public void add(int id, int count) {
+        var mask = keys.length - 1;
+        var slot = slot(id, mask);
+
+        while (keys[slot] != EMPTY && keys[slot] != id)
+            slot = (slot + 1) & mask;
+
+        if (keys[slot] == EMPTY) {
+            keys[slot] = id;
+            size++;
+        }
+
+        counts[slot] += count;
+        total += count;
+
+        if (size * 2 > keys.length)
+            grow();
+    }
+
+    /**
+     * Returns the count of a token.
+     *
+     * @param id the token ID
+     * @return the number of occurrences, 0 if never counted
+     */
+    public int get(int id) {
+        var mask = keys.length - 1;
+
+        for (var slot = slot(id, mask); keys[slot] != EMPTY; slot = (slot + 1) & mask)
+            if (keys[slot] == id)
+                return counts[slot];
+
+        return 0;
+    }
+
+    /**
+     * Adds all counts of another counter to this one.
+     *
+     * @param other the other counter
+     */
+    public void addAll(TokenCounter other) {
+        for (var slot = 0; slot < other.keys.length; slot++)
+            if (other.keys[slot] != EMPTY)
+                add(other.keys[slot], other.counts[slot]);
+    }
+
+    /** Returns the number of distinct token IDs */
+    public int size() {
+        return size;
+    }
+
+    /** Returns the sum of all counts */
+    public long total() {
+        return total;
+    }
+
+    /**
+     * Returns the counted token IDs.
+     *
+     * @return the distinct IDs as a set
+     */
+    public TokenIdSet keys() {
+        var ids = new int[size];
+        var length = 0;
+
+        for (var key : keys)
+            if (key != EMPTY)
+                ids[length++] = key;
+
+        return TokenIdSet.of(ids, length);
+    }
+
+    /**
+     * Returns an immutable snapshot of the counts.
+     *
+     * @return the counts as a bag sorted by token ID
+     */
+    public TokenBag toBag() {
+        var ids = keys();
+        var bagCounts = new int[ids.size()];
+
+        for (var i = 0; i < ids.size(); i++)
+            bagCounts[i] = get(ids.get(i));
+
+        return new TokenBag(ids, bagCounts, total);
+    }
+
+    /**
+     * Doubles the table and rehashes all entries.
+     */
+    private void grow() {
+        var oldKeys = keys;
+        var oldCounts = counts;
+        var mask = oldKeys.length * 2 - 1;
+
+        keys = new int[oldKeys.length * 2];
+        counts = new int[oldKeys.length * 2];
+        Arrays.fill(keys, EMPTY);
+
+        for (var i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == EMPTY)
+                continue;
+
+            var slot = slot(oldKeys[i], mask);
+            while (keys[slot] != EMPTY)
+                slot = (slot + 1) & mask;
+
+            keys[slot] = oldKeys[i];
+            counts[slot] = oldCounts[i];
+        }
+    }
+
+    /**
+     * Returns the home slot of a token ID. Dense IDs are scattered by a
+     * multiplicative hash to avoid long probe runs.
+     */
+    private static int slot(int id, int mask) {
+        return (id * 0x9E3779B9 ^ (id * 0x9E3779B9) >>> 16) & mask;
+    }
+}
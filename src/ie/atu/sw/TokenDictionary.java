@@ -0,0 +1,58 @@
+package ie.atu.sw;
+
+/**
+ * Shared, thread-safe dictionary of tokens.
+ *
+ * Every distinct token gets a dense integer ID the first time it is
+ * interned. Documents and stop-word lists can then be stored as sets of
+ * IDs, and all set operations become integer operations.
+ *
+ * IDs are assigned in the order tokens are first seen and are never
+ * reused, so they are only meaningful within one dictionary instance.
+ *
+ * Two implementations are available: {@link HeapTokenDictionary} keeps the
+ * tokens as Strings on the heap, {@link OffHeapTokenDictionary} keeps their
+ * bytes in native memory that is released by {@link #close()}.
+ */
+public interface TokenDictionary extends AutoCloseable {
+    /**
+     * Returns the ID of a token, assigning a new one if the token has not
+     * been seen before.
+     *
+     * @param token the token
+     * @return the ID of the token
+     */
+    int intern(String token);
+
+    /**
+     * Returns the ID of a token without assigning a new one.
+     *
+     * @param token the token
+     * @return the ID of the token, or -1 if it is unknown
+     */
+    int lookup(String token);
+
+    /**
+     * Returns the token with the given ID.
+     *
+     * @param id the ID of the token
+     * @return the token
+     */
+    String token(int id);
+
+    /**
+     * Returns the number of distinct tokens in the dictionary.
+     *
+     * @return the number of tokens, which is also the next free ID
+     */
+    int size();
+
+    /**
+     * Releases the memory held by the dictionary. The dictionary, and the
+     * token IDs of documents using it, must not be used afterwards. Does
+     * nothing for dictionaries left to the garbage collector.
+     */
+    @Override
+    default void close() {
+    }
+}
@@ -0,0 +1,221 @@
+package ie.atu.sw;
+
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Immutable set of token IDs stored as a sorted primitive array.
+ *
+ * This is the compact representation of a document: four bytes per
+ * unique token, no per-element objects, and membership tests and set
+ * operations work on integers only.
+ */
+public final class TokenIdSet {
+    /** Empty set */
+    public static final TokenIdSet EMPTY = new TokenIdSet(new int[0]);
+
+    /** Minimum density (IDs per ID range) for which a bitmap is kept */
+    private static final int DENSE_RATIO = 16;
+
+    /** Sorted, distinct token IDs */
+    private final int[] ids;
+
+    /** Lazily built bitmap of the IDs, starting at word {@link #bitmapBase} */
+    private volatile long[] bitmap;
+
+    /**
+     * Creates a set from a sorted array of distinct IDs without copying it.
+     *
+     * @param ids sorted, distinct token IDs
+     */
+    private TokenIdSet(int[] ids) {
+        this.ids = ids;
+    }
+
+    /**
+     * Creates a set from the first {@code length} elements of an array of
+     * IDs in any order, possibly with duplicates.
+     *
+     * The array is sorted in place.
+     *
+     * @param ids    token IDs
+     * @param length number of IDs used from the array
+     * @return a set of the distinct IDs
+     */
+    public static TokenIdSet of(int[] ids, int length) {
+        Arrays.sort(ids, 0, length);
+
+        // Remove duplicates in place
+        var distinct = 0;
+        for (var i = 0; i < length; i++)
+            if (distinct == 0 || ids[i] != ids[distinct - 1])
+                ids[distinct++] = ids[i];
+
+        return new TokenIdSet(Arrays.copyOf(ids, distinct));
+    }
+
+    /**
+     * Creates a set from the first {@code length} elements of an array of
+     * IDs that are already sorted and distinct.
+     *
+     * @param ids    sorted, distinct token IDs
+     * @param length number of IDs used from the array
+     * @return a set of the IDs
+     */
+    public static TokenIdSet ofSorted(int[] ids, int length) {
+        return new TokenIdSet(Arrays.copyOf(ids, length));
+    }
+
+    /**
+     * Creates a set of the IDs of the given tokens, interning them in the
+     * dictionary.
+     *
+     * @param tokens     the tokens
+     * @param dictionary the dictionary assigning the IDs
+     * @return a set of token IDs
+     */
+    public static TokenIdSet of(Set<String> tokens, TokenDictionary dictionary) {
+        var ids = new int[tokens.size()];
+        var length = 0;
+
+        for (var token : tokens)
+            ids[length++] = dictionary.intern(token);
+
+        return of(ids, length);
+    }
+
+    /**
+     * Returns the union of two sets.
+     *
+     * @param a the first set
+     * @param b the second set
+     * @return a set of the IDs contained in either set
+     */
+    public static TokenIdSet union(TokenIdSet a, TokenIdSet b) {
+        if (b.ids.length == 0)
+            return a;
+        if (a.ids.length == 0)
+            return b;
+
+        var ids = new int[a.ids.length + b.ids.length];
+        var i = 0;
+        var j = 0;
+        var length = 0;
+
+        // Merge of the two sorted arrays
+        while (i < a.ids.length && j < b.ids.length) {
+            if (a.ids[i] < b.ids[j])
+                ids[length++] = a.ids[i++];
+            else if (a.ids[i] > b.ids[j])
+                ids[length++] = b.ids[j++];
+            else {
+                ids[length++] = a.ids[i++];
+                j++;
+            }
+        }
+
+        while (i < a.ids.length)
+            ids[length++] = a.ids[i++];
+        while (j < b.ids.length)
+            ids[length++] = b.ids[j++];
+
+        return new TokenIdSet(length == ids.length ? ids : Arrays.copyOf(ids, length));
+    }
+
+    /**
+     * Returns the number of token IDs in the set.
+     *
+     * @return the size of the set
+     */
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * Returns the token ID at the given position in ascending order.
+     *
+     * @param index the position
+     * @return the token ID
+     */
+    public int get(int index) {
+        return ids[index];
+    }
+
+    /**
+     * Checks whether the set contains the given token ID.
+     *
+     * @param id the token ID
+     * @return {@code true} if the ID is in the set
+     */
+    public boolean contains(int id) {
+        return Arrays.binarySearch(ids, id) >= 0;
+    }
+
+    /**
+     * Returns the backing array of sorted IDs for primitive set kernels.
+     * The array must not be modified.
+     *
+     * @return the sorted, distinct token IDs
+     */
+    int[] ids() {
+        return ids;
+    }
+
+    /**
+     * Checks whether the IDs are dense enough for a bitmap representation,
+     * i.e. at least one of every {@value #DENSE_RATIO} IDs in the range of
+     * the set is present. A bitmap of a dense set takes at most twice the
+     * memory of the ID array.
+     *
+     * @return {@code true} if the set is dense
+     */
+    public boolean isDense() {
+        return ids.length > 0 && (long) ids.length * DENSE_RATIO >= (long) ids[ids.length - 1] - ids[0] + 1;
+    }
+
+    /**
+     * Returns the index of the first 64-bit word of the bitmap.
+     *
+     * @return the word index of the smallest ID
+     */
+    int bitmapBase() {
+        return ids.length == 0 ? 0 : ids[0] >>> 6;
+    }
+
+    /**
+     * Returns the bitmap of the IDs, building it on first use. Word {@code i}
+     * of the bitmap covers IDs {@code 64 * (bitmapBase() + i)} onwards.
+     *
+     * @return the bitmap of the IDs
+     */
+    long[] bitmap() {
+        var words = bitmap;
+
+        if (words == null) {
+            var base = bitmapBase();
+            words = new long[ids.length == 0 ? 0 : (ids[ids.length - 1] >>> 6) - base + 1];
+
+            for (var id : ids)
+                words[(id >>> 6) - base] |= 1L << id;
+
+            bitmap = words;
+        }
+
+        return words;
+    }
+
+    /**
+     * Estimates the memory used by the set, including the bitmap a dense set
+     * builds on first use.
+     *
+     * @return the approximate size in bytes
+     */
+    public long memoryFootprint() {
+        var bytes = 32L + 16 + 4L * ids.length;
+
+        if (isDense())
+            bytes += 16 + 8L * ((ids[ids.length - 1] >>> 6) - bitmapBase() + 1);
+
+        return bytes;
+    }
+}
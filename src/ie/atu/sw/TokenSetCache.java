@@ -0,0 +1,350 @@
+package ie.atu.sw;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32C;
+
+/**
+ * Persistent on-disk cache of preprocessed token sets.
+ *
+ * Entries are keyed by the SHA-256 digest and the length of the file
+ * content together with {@link TextPreprocessor#VERSION}, so a file that has
+ * not changed since it was last loaded is never tokenized again, and a
+ * change of the tokenization rules invalidates all entries. A cryptographic
+ * digest is used because a hit is returned as the tokens of the file: a
+ * 32-bit checksum could collide and silently answer with the tokens of
+ * another file.
+ *
+ * Token IDs are only meaningful within one {@link TokenDictionary}, so an
+ * entry stores the tokens themselves, sorted, as length-prefixed UTF-8. An
+ * entry file has the layout (big-endian):
+ *
+ * <pre>
+ *     int   magic "TSC1"
+ *     int   format version
+ *     int   preprocessor version
+ *     int   number of tokens
+ *     long  payload length in bytes
+ *     int   CRC32C of the payload
+ *     bytes payload: per token a varint byte length and the UTF-8 bytes
+ * </pre>
+ *
+ * Entries are read through a memory mapping. An entry with a wrong header,
+ * length or payload checksum is deleted and treated as a miss, so it is
+ * rebuilt on the next store. Entries are written to a temporary file first
+ * and moved into place, so readers never see a partial entry.
+ *
+ * The total size of the cache is limited. The modification time of an entry
+ * is refreshed on every hit, and the least recently used entries are
+ * evicted when a new entry exceeds the limit.
+ */
+public class TokenSetCache {
+    /** Default directory of the cache, in the user's home directory */
+    public static final Path DEFAULT_DIRECTORY = Path.of(System.getProperty("user.home"), ".sorensen-dice",
+            "cache");
+
+    /** Default cache size limit in bytes */
+    public static final long DEFAULT_MAX_BYTES = 256L << 20;
+
+    /** Magic number at the start of every entry ("TSC1") */
+    private static final int MAGIC = 0x54534331;
+
+    /** Version of the entry format */
+    private static final int FORMAT_VERSION = 1;
+
+    /** Size of the entry header in bytes */
+    private static final int HEADER_SIZE = 28;
+
+    /** File name extension of entries */
+    private static final String EXTENSION = ".tok";
+
+    /** Layouts of the big-endian header fields */
+    private static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+    private static final ValueLayout.OfLong LONG = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+
+    /**
+     * Identity of a file content.
+     *
+     * @param digest SHA-256 digest of the content in hexadecimal
+     * @param length length of the content in bytes
+     */
+    public record Key(String digest, long length) {
+        /** Returns the name of the entry file for this key */
+        String fileName() {
+            return String.format("%s-%x-v%d%s", digest, length, TextPreprocessor.VERSION, EXTENSION);
+        }
+    }
+
+    /** Directory holding the entries */
+    private final Path directory;
+
+    /** Maximum total size of all entries in bytes */
+    private final long maxBytes;
+
+    /** Number of lookups answered from and missing the cache */
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Creates a cache in a directory, which is created if needed.
+     *
+     * @param directory the directory holding the entries
+     * @param maxBytes  the maximum total size of all entries in bytes
+     */
+    public TokenSetCache(Path directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /** Returns the directory holding the entries */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /** Returns the number of lookups answered from the cache */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /** Returns the number of lookups missing the cache */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Computes the cache key of a file.
+     *
+     * @param filePath path to the file
+     * @return the key of the current file content
+     * @throws Exception if the file cannot be read
+     */
+    public Key key(Path filePath) throws Exception {
+        var length = 0L;
+
+        try {
+            length = Files.size(filePath);
+        } catch (IOException e) {
+            throw new Exception("Error reading file: " + filePath);
+        }
+
+        return new Key(FileIO.digest(filePath), length);
+    }
+
+    /**
+     * Looks up the tokens of a file content.
+     *
+     * A corrupt or unreadable entry is deleted and reported as a miss.
+     *
+     * @param key the key of the file content
+     * @return the sorted unique tokens, or {@code null} on a miss
+     */
+    public List<String> get(Key key) {
+        var entry = directory.resolve(key.fileName());
+
+        if (!Files.isRegularFile(entry)) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        List<String> tokens = null;
+
+        try (var arena = Arena.ofConfined()) {
+            tokens = decode(FileIO.mapFile(entry, arena));
+        } catch (Exception e) {
+            // Unreadable entry - treated as corrupt
+        }
+
+        if (tokens == null) {
+            try {
+                Files.deleteIfExists(entry);
+            } catch (IOException e) {
+                // Replaced by the next store
+            }
+
+            misses.incrementAndGet();
+            return null;
+        }
+
+        try {
+            // Mark the entry as recently used
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // The entry stays valid even if it cannot be touched
+        }
+
+        hits.incrementAndGet();
+
+        return tokens;
+    }
+
+    /**
+     * Stores the tokens of a file content and evicts the least recently used
+     * entries if the cache exceeds its size limit.
+     *
+     * @param key    the key of the file content
+     * @param tokens the unique tokens
+     * @throws Exception if the entry cannot be written
+     */
+    public void put(Key key, List<String> tokens) throws Exception {
+        var sorted = tokens.toArray(String[]::new);
+        Arrays.sort(sorted);
+
+        var payload = new ByteArrayOutputStream();
+        for (var token : sorted) {
+            var bytes = token.getBytes(StandardCharsets.UTF_8);
+            var length = bytes.length;
+
+            while ((length & ~0x7F) != 0) {
+                payload.write(length | 0x80);
+                length >>>= 7;
+            }
+            payload.write(length);
+            payload.writeBytes(bytes);
+        }
+
+        var crc = new CRC32C();
+        crc.update(payload.toByteArray());
+
+        try {
+            Files.createDirectories(directory);
+            var temporary = Files.createTempFile(directory, "entry", ".tmp");
+
+            try (var out = new DataOutputStream(Files.newOutputStream(temporary))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(TextPreprocessor.VERSION);
+                out.writeInt(sorted.length);
+                out.writeLong(payload.size());
+                out.writeInt((int) crc.getValue());
+                payload.writeTo(out);
+            }
+
+            Files.move(temporary, directory.resolve(key.fileName()), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new Exception("Error writing cache: " + directory);
+        }
+
+        evict();
+    }
+
+    /**
+     * Returns the total size of all entries.
+     *
+     * @return the size in bytes
+     */
+    public long size() {
+        var size = 0L;
+
+        for (var entry : entries())
+            size += entry.toFile().length();
+
+        return size;
+    }
+
+    /**
+     * Deletes the least recently used entries until the cache fits its size
+     * limit.
+     */
+    private void evict() {
+        var entries = entries();
+        var size = 0L;
+        for (var entry : entries)
+            size += entry.toFile().length();
+
+        entries.sort(Comparator.comparingLong(entry -> entry.toFile().lastModified()));
+
+        for (var i = 0; i < entries.size() && size > maxBytes; i++) {
+            var length = entries.get(i).toFile().length();
+
+            try {
+                Files.deleteIfExists(entries.get(i));
+                size -= length;
+            } catch (IOException e) {
+                // The entry is in use or already gone - try the next one
+            }
+        }
+    }
+
+    /**
+     * Lists the entry files of the cache.
+     *
+     * @return the entry files, empty if the directory does not exist
+     */
+    private List<Path> entries() {
+        var entries = new ArrayList<Path>();
+
+        try (var stream = Files.list(directory)) {
+            stream.filter(entry -> entry.getFileName().toString().endsWith(EXTENSION)).forEach(entries::add);
+        } catch (IOException e) {
+            // No cache directory yet
+        }
+
+        return entries;
+    }
+
+    /**
+     * Decodes and validates an entry.
+     *
+     * @param segment the mapped entry file
+     * @return the tokens, or {@code null} if the entry is corrupt or stale
+     */
+    private static List<String> decode(MemorySegment segment) {
+        var size = segment.byteSize();
+
+        if (size < HEADER_SIZE
+                || segment.get(INT, 0) != MAGIC
+                || segment.get(INT, 4) != FORMAT_VERSION
+                || segment.get(INT, 8) != TextPreprocessor.VERSION
+                || segment.get(LONG, 16) != size - HEADER_SIZE)
+            return null;
+
+        var count = segment.get(INT, 12);
+        var payload = segment.asSlice(HEADER_SIZE);
+
+        var crc = new CRC32C();
+        crc.update(payload.asByteBuffer());
+        if ((int) crc.getValue() != segment.get(INT, 24) || count < 0)
+            return null;
+
+        var tokens = new ArrayList<String>(count);
+        var offset = 0L;
+
+        for (var i = 0; i < count; i++) {
+            var length = 0;
+            for (var shift = 0;; shift += 7) {
+                if (offset >= payload.byteSize() || shift > 28)
+                    return null;
+
+                var b = payload.get(ValueLayout.JAVA_BYTE, offset++);
+                length |= (b & 0x7F) << shift;
+                if (b >= 0)
+                    break;
+            }
+
+            if (length < 0 || offset + length > payload.byteSize())
+                return null;
+
+            tokens.add(new String(payload.asSlice(offset, length).toArray(ValueLayout.JAVA_BYTE),
+                    StandardCharsets.UTF_8));
+            offset += length;
+        }
+
+        return offset == payload.byteSize() ? tokens : null;
+    }
+}
@@ -0,0 +1,171 @@
+package ie.atu.sw;
+
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD tokenizer of ASCII lines, built on the incubating Vector API.
+ *
+ * Every step loads 32 or 64 bytes at once (depending on the hardware),
+ * lower-cases the ASCII capitals in bulk and classifies all bytes as token
+ * characters, line terminators or non-ASCII with a few vector comparisons.
+ * The classification is turned into bitmasks, and the runs of token
+ * characters are found with bit operations instead of a branch per byte.
+ * The hyphen rules are then applied per run, exactly as in
+ * {@link TextPreprocessor}.
+ *
+ * Only ASCII is handled here: a line containing any other byte is reported
+ * to the caller, which tokenizes it with the scalar Unicode scanner.
+ *
+ * Requires the {@code jdk.incubator.vector} module: without it, this class
+ * cannot even be loaded, so it is only touched once
+ * {@link TextPreprocessor.Backend#isAvailable()} has confirmed the module.
+ * An instance keeps a reusable buffer, sized by the longest token rather
+ * than the longest line, and is not thread-safe.
+ */
+final class VectorTokenizer {
+    /** Vector shape, at most 64 lanes so that masks fit in a long */
+    private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED.length() <= 64
+            ? ByteVector.SPECIES_PREFERRED
+            : ByteVector.SPECIES_512;
+
+    /** Lower-cased bytes of the current run and of the current step */
+    private byte[] buffer = new byte[1024];
+
+    /**
+     * Tokenizes one ASCII line of bytes and appends the tokens to the list.
+     *
+     * Works like the scalar ASCII scanner of {@link TextPreprocessor}: if a
+     * non-ASCII byte is found before the end of the line, the tokens already
+     * added for the line must be discarded by the caller.
+     *
+     * @param bytes  the UTF-8 encoded text, native or backed by a byte array
+     * @param from   offset of the first byte of the line
+     * @param to     offset after the last byte of the text
+     * @param tokens the list receiving the tokens
+     * @return offset of the line terminator (or {@code to}) that ended the
+     *         line, or {@code -offset - 1} of the first non-ASCII byte
+     */
+    long scanAscii(MemorySegment bytes, long from, long to, List<String> tokens) {
+        var lanes = SPECIES.length();
+        var runStart = -1; // start of the current run in the buffer, -1 if none
+        var preceded = false; // a separator precedes the run, i.e. it does not start the line
+        var consumed = false; // the separator before the run was consumed by a hyphen
+        var filled = 0; // bytes in the buffer
+
+        for (var i = from; i < to; i += lanes) {
+            // Keep only the bytes of an open run, moved to the front
+            if (runStart < 0) {
+                filled = 0;
+            } else if (runStart > 0) {
+                System.arraycopy(buffer, runStart, buffer, 0, filled - runStart);
+                filled -= runStart;
+                runStart = 0;
+            }
+
+            var offset = filled;
+            if (offset + lanes > buffer.length)
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, offset + lanes));
+
+            var inRange = SPECIES.indexInRange(0L, to - i);
+            var v = ByteVector.fromMemorySegment(SPECIES, bytes, i, ByteOrder.nativeOrder(), inRange);
+
+            // Bytes of the line in this step: up to the first terminator
+            var terminators = v.eq((byte) '\n').or(v.eq((byte) '\r')).and(inRange).toLong();
+            var limit = terminators != 0 ? Long.numberOfTrailingZeros(terminators)
+                    : (int) Math.min(lanes, to - i);
+            var lineMask = limit == 64 ? -1L : (1L << limit) - 1;
+
+            var nonAscii = v.lt((byte) 0).toLong() & lineMask;
+            if (nonAscii != 0)
+                return -(i + Long.numberOfTrailingZeros(nonAscii)) - 1;
+
+            // Lower-case the capitals in bulk, then classify [a-z0-9-]
+            var lowered = v.lanewise(VectorOperators.OR, (byte) 0x20,
+                    v.compare(VectorOperators.GE, (byte) 'A').and(v.compare(VectorOperators.LE, (byte) 'Z')));
+            var letters = lowered.compare(VectorOperators.GE, (byte) 'a')
+                    .and(lowered.compare(VectorOperators.LE, (byte) 'z'));
+            var digits = lowered.compare(VectorOperators.GE, (byte) '0')
+                    .and(lowered.compare(VectorOperators.LE, (byte) '9'));
+            var tokenChars = letters.or(digits).or(lowered.eq((byte) '-')).toLong() & lineMask;
+
+            lowered.intoArray(buffer, offset);
+            filled = offset + limit;
+
+            // Walk the runs of token characters of this step
+            for (var p = 0; p < limit;) {
+                if (runStart < 0) {
+                    var rest = tokenChars >>> p;
+                    if (rest == 0)
+                        break;
+
+                    p += Long.numberOfTrailingZeros(rest);
+                    runStart = offset + p;
+                    preceded = i + p > from;
+                } else {
+                    var length = Long.numberOfTrailingZeros(~(tokenChars >>> p));
+                    if (p + length >= limit)
+                        break; // The run goes on in the next step or ends the line
+
+                    p += length;
+                    consumed = emit(runStart, offset + p, preceded, consumed, true, tokens);
+                    runStart = -1;
+                }
+            }
+
+            if (terminators != 0) {
+                if (runStart >= 0)
+                    emit(runStart, filled, preceded, consumed, false, tokens);
+
+                return i + limit;
+            }
+        }
+
+        if (runStart >= 0)
+            emit(runStart, filled, preceded, consumed, false, tokens);
+
+        return to;
+    }
+
+    /**
+     * Emits a run of token characters from the buffer, stripping hyphens
+     * that touch a separator which is still available for matching.
+     *
+     * @param start    start of the run in the buffer
+     * @param end      end of the run in the buffer
+     * @param preceded {@code true} if a separator precedes the run, which is
+     *                 the case exactly if the run does not start the line, as
+     *                 everything between runs is a separator
+     * @param consumed {@code true} if the preceding separator was already
+     *                 consumed
+     * @param followed {@code true} if a separator follows the run
+     * @param tokens   the list receiving the token
+     * @return {@code true} if the following separator was consumed
+     */
+    private boolean emit(int start, int end, boolean preceded, boolean consumed, boolean followed,
+            List<String> tokens) {
+        if (preceded && !consumed && buffer[start] == '-') {
+            // " - " - hyphen removed together with both separators
+            if (end - start == 1 && followed)
+                return true;
+
+            start++;
+        }
+
+        var trailing = followed && end - 1 >= start && buffer[end - 1] == '-';
+        if (trailing)
+            end--;
+
+        if (end > start)
+            tokens.add(new String(buffer, start, end - start, StandardCharsets.ISO_8859_1));
+
+        return trailing;
+    }
+}
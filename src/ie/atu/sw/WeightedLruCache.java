@@ -0,0 +1,194 @@
+package ie.atu.sw;
+
+import java.util.LinkedHashMap;
+import java.util.function.Predicate;
+import java.util.function.ToLongBiFunction;
+
+/**
+ * Size-bounded, thread-safe in-memory cache with least recently used
+ * eviction weighted by memory footprint.
+ *
+ * Every entry has a weight, usually its approximate size in bytes, given by
+ * a weigher function. When the total weight exceeds the limit, the least
+ * recently used entries are evicted until it fits again. An entry heavier
+ * than the whole limit is not cached at all.
+ *
+ * Hits, misses and evictions are counted for reporting.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class WeightedLruCache<K, V> {
+    /**
+     * Computes a value missing from the cache.
+     *
+     * @param <K> the key type
+     * @param <V> the value type
+     */
+    @FunctionalInterface
+    public interface Loader<K, V> {
+        /**
+         * Computes the value of a key.
+         *
+         * @param key the key
+         * @return the value, not null
+         * @throws Exception if the value cannot be computed
+         */
+        V load(K key) throws Exception;
+    }
+
+    /** Entries in access order, least recently used first */
+    private final LinkedHashMap<K, V> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Weight of every entry */
+    private final ToLongBiFunction<K, V> weigher;
+
+    /** Maximum total weight */
+    private final long maxWeight;
+
+    /** Current total weight */
+    private long weight;
+
+    /** Statistics */
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param maxWeight the maximum total weight of all entries
+     * @param weigher   the function giving the weight of an entry
+     */
+    public WeightedLruCache(long maxWeight, ToLongBiFunction<K, V> weigher) {
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+    }
+
+    /**
+     * Returns the cached value of a key, computing and caching it on a miss.
+     *
+     * The value is computed outside the lock, so concurrent misses of the
+     * same key may compute it more than once.
+     *
+     * @param key    the key
+     * @param loader the function computing a missing value
+     * @return the value
+     * @throws Exception if the loader fails; nothing is cached then
+     */
+    public V get(K key, Loader<K, V> loader) throws Exception {
+        synchronized (this) {
+            var value = entries.get(key);
+
+            if (value != null) {
+                hits++;
+                return value;
+            }
+
+            misses++;
+        }
+
+        var value = loader.load(key);
+        put(key, value);
+
+        return value;
+    }
+
+    /**
+     * Caches a value, evicting the least recently used entries if needed.
+     *
+     * @param key   the key
+     * @param value the value
+     */
+    public synchronized void put(K key, V value) {
+        var previous = entries.remove(key);
+        if (previous != null)
+            weight -= weigher.applyAsLong(key, previous);
+
+        var entryWeight = weigher.applyAsLong(key, value);
+        if (entryWeight > maxWeight)
+            return;
+
+        entries.put(key, value);
+        weight += entryWeight;
+
+        var iterator = entries.entrySet().iterator();
+        while (weight > maxWeight && iterator.hasNext()) {
+            var eldest = iterator.next();
+            weight -= weigher.applyAsLong(eldest.getKey(), eldest.getValue());
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Removes the entry of a key.
+     *
+     * @param key the key
+     */
+    public synchronized void remove(K key) {
+        var value = entries.remove(key);
+        if (value != null)
+            weight -= weigher.applyAsLong(key, value);
+    }
+
+    /**
+     * Removes the entries whose keys match a condition, for example the
+     * entries of a document that was reloaded.
+     *
+     * @param condition the condition selecting the keys to remove
+     */
+    public synchronized void removeIf(Predicate<? super K> condition) {
+        var iterator = entries.entrySet().iterator();
+
+        while (iterator.hasNext()) {
+            var entry = iterator.next();
+            if (condition.test(entry.getKey())) {
+                weight -= weigher.applyAsLong(entry.getKey(), entry.getValue());
+                iterator.remove();
+            }
+        }
+    }
+
+    /** Removes all entries, keeping the statistics */
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    /** Returns the number of cached entries */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /** Returns the current total weight */
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    /** Returns the number of lookups answered from the cache */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /** Returns the number of lookups missing the cache */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /** Returns the number of evicted entries */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Returns a one-line summary of the cache statistics.
+     *
+     * @return the summary
+     */
+    @Override
+    public synchronized String toString() {
+        return String.format("%d hits, %d misses, %d entries, %d KiB", hits, misses, entries.size(),
+                weight >> 10);
+    }
+}